@@ -12,13 +12,20 @@ import java.util.List;
 
 import truckerboys.otto.R;
 import truckerboys.otto.clock.ClockPresenter;
+import truckerboys.otto.directionsAPI.BudgetedDirections;
+import truckerboys.otto.directionsAPI.CachedDirections;
+import truckerboys.otto.directionsAPI.CoalescingDirections;
 import truckerboys.otto.directionsAPI.GoogleDirections;
 import truckerboys.otto.driver.TachographHandler;
 import truckerboys.otto.driver.User;
 import truckerboys.otto.home.ActiveSessionDialogFragment;
 import truckerboys.otto.home.HomePresenter;
 import truckerboys.otto.maps.MapPresenter;
+import truckerboys.otto.placesAPI.BudgetedPlaces;
+import truckerboys.otto.placesAPI.CachedPlaces;
+import truckerboys.otto.placesAPI.CoalescingPlaces;
 import truckerboys.otto.placesAPI.GooglePlaces;
+import truckerboys.otto.placesAPI.PlacesCacheOpenHelper;
 import truckerboys.otto.planner.EURegulationHandler;
 import truckerboys.otto.planner.IRegulationHandler;
 import truckerboys.otto.planner.TripPlanner;
@@ -27,6 +34,7 @@ import truckerboys.otto.settings.SettingsView;
 import truckerboys.otto.stats.StatsPresenter;
 import truckerboys.otto.utils.IPresenter;
 import truckerboys.otto.utils.LocationHandler;
+import truckerboys.otto.utils.RequestBudget;
 import truckerboys.otto.utils.eventhandler.EventBus;
 import truckerboys.otto.utils.eventhandler.events.EventType;
 import truckerboys.otto.utils.eventhandler.IEventListener;
@@ -120,7 +128,15 @@ public class OTTOActivity extends FragmentActivity implements IEventListener, Ac
     private void initiateOTTO(){
         regulationHandler = new EURegulationHandler();
         user = new User(this);
-        tripPlanner = new TripPlanner(regulationHandler, new GoogleDirections(), new GooglePlaces(), user, fuelTank);
+        //Only requests that reach Google are taken from the budget, not the ones answered by the caches.
+        //OfflineDirections is not in the chain, since nothing gets a road graph onto the device yet.
+        RequestBudget budget = new RequestBudget();
+        tripPlanner = new TripPlanner(regulationHandler, new CachedDirections(new CoalescingDirections(
+                new BudgetedDirections(new GoogleDirections(), budget))),
+                new CachedPlaces(new CoalescingPlaces(new BudgetedPlaces(new GooglePlaces(), budget)),
+                        new PlacesCacheOpenHelper(this)),
+                user, fuelTank);
+        tripPlanner.setRequestBudget(budget);
 
         tachographHandler = new TachographHandler(user);
         locationHandler = new LocationHandler(this);
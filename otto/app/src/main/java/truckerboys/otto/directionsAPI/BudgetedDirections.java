@@ -0,0 +1,67 @@
+package truckerboys.otto.directionsAPI;
+
+import org.joda.time.Duration;
+
+import java.util.List;
+
+import truckerboys.otto.utils.RequestBudget;
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.MapLocation;
+
+/**
+ * IDirections decorator that only lets requests through while there is budget left.
+ * <p/>
+ * A request over the budget fails the same way as a request without connection, so a
+ * FallbackDirections around this one routes offline instead.
+ */
+public class BudgetedDirections implements IDirections {
+    private final IDirections directions;
+    private final RequestBudget budget;
+
+    /**
+     * @param directions the IDirections that does the actual requests.
+     * @param budget     the budget every request is taken from.
+     */
+    public BudgetedDirections(IDirections directions, RequestBudget budget) {
+        this.directions = directions;
+        this.budget = budget;
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                          List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        use();
+        return directions.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences) throws NoConnectionException, InvalidRequestException {
+        use();
+        return directions.getRoute(currentPosition, finalDestination, preferences);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        use();
+        return directions.getRoute(currentPosition, finalDestination, checkpoint);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        use();
+        return directions.getRoute(currentPosition, finalDestination);
+    }
+
+    @Override
+    public Duration getETA(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        use();
+        return directions.getETA(currentPosition, finalDestination);
+    }
+
+    private void use() throws NoConnectionException {
+        if (!budget.tryUse()) {
+            throw new NoConnectionException("Directions request budget used up");
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package truckerboys.otto.directionsAPI;
+
+import org.joda.time.Duration;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.MapLocation;
+
+/**
+ * IDirections decorator that remembers recent answers from another IDirections.
+ * <p/>
+ * Requests are keyed on their coordinates snapped to a grid, so a request from a position
+ * a few meters away from an earlier one is answered from memory. The least recently used
+ * entry is thrown away when the cache is full and entries older than the time to live
+ * are never returned.
+ * <p/>
+ * Every caller gets its own copy of a cached route, with the times of arrival moved forward by
+ * the age of the answer, so callers may change the checkpoints of the route they get.
+ */
+public class CachedDirections implements IDirections {
+    // Default grid size, 0.0005 degrees is roughly 55 meters north-south.
+    public static final double DEFAULT_GRID_SIZE = 0.0005;
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.standardMinutes(2);
+
+    private final IDirections directions;
+    private final double gridSize;
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<String, CacheEntry<Route>> routes;
+    private final LinkedHashMap<String, CacheEntry<Duration>> etas;
+
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Creates a cache with the default size, time to live and grid size.
+     *
+     * @param directions the IDirections to ask when the answer is not cached.
+     */
+    public CachedDirections(IDirections directions) {
+        this(directions, DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, DEFAULT_GRID_SIZE);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param directions the IDirections to ask when the answer is not cached.
+     * @param maxEntries maximum number of routes (and ETAs) to keep.
+     * @param timeToLive how long an answer may be reused.
+     * @param gridSize   size in degrees of the grid that coordinates are snapped to.
+     */
+    public CachedDirections(IDirections directions, int maxEntries, Duration timeToLive, double gridSize) {
+        this.directions = directions;
+        this.timeToLiveMillis = timeToLive.getMillis();
+        this.gridSize = gridSize;
+        this.routes = new LruMap<Route>(maxEntries);
+        this.etas = new LruMap<Duration>(maxEntries);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                          List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        String key = createKey(currentPosition, finalDestination, checkpoint);
+
+        CacheEntry<Route> entry = getEntry(routes, key);
+        countLookup(entry != null);
+        if (entry == null) {
+            Route route = directions.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+            put(routes, key, route);
+            return new Route(route);
+        }
+        return new Route(entry.value, new Duration(Math.max(0, System.currentTimeMillis() - entry.created)));
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, preferences, null);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, checkpoint);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, null);
+    }
+
+    @Override
+    public Duration getETA(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        String key = createKey(currentPosition, finalDestination, null);
+
+        Duration eta = get(etas, key);
+        if (eta == null) {
+            //A cached route between the same points has the same ETA.
+            Route route = get(routes, key);
+            if (route != null) {
+                eta = route.getEta();
+            }
+        }
+        countLookup(eta != null);
+
+        if (eta == null) {
+            eta = directions.getETA(currentPosition, finalDestination);
+            put(etas, key, eta);
+        }
+        return eta;
+    }
+
+    /**
+     * Removes all cached routes and ETAs.
+     */
+    public synchronized void clear() {
+        routes.clear();
+        etas.clear();
+    }
+
+    /**
+     * Get the number of requests that were answered from the cache.
+     *
+     * @return number of cache hits.
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of requests that had to be sent to the wrapped IDirections.
+     *
+     * @return number of cache misses.
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the cached value for a key, or null if there is none or it has expired.
+     */
+    private synchronized <T> T get(Map<String, CacheEntry<T>> cache, String key) {
+        CacheEntry<T> entry = getEntry(cache, key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Get the cache entry for a key, or null if there is none or it has expired.
+     */
+    private synchronized <T> CacheEntry<T> getEntry(Map<String, CacheEntry<T>> cache, String key) {
+        CacheEntry<T> entry = cache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.created > timeToLiveMillis) {
+            cache.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    private synchronized void countLookup(boolean hit) {
+        if (hit) {
+            hits++;
+        } else {
+            misses++;
+        }
+    }
+
+    private synchronized <T> void put(Map<String, CacheEntry<T>> cache, String key, T value) {
+        cache.put(key, new CacheEntry<T>(value, System.currentTimeMillis()));
+    }
+
+    /**
+     * Creates a key from the coordinates snapped to the grid.
+     */
+    private String createKey(MapLocation origin, MapLocation destination, List<MapLocation> checkpoints) {
+        StringBuilder key = new StringBuilder();
+        appendLocation(key, origin);
+        key.append('>');
+        appendLocation(key, destination);
+        if (checkpoints != null) {
+            for (MapLocation checkpoint : checkpoints) {
+                key.append('|');
+                appendLocation(key, checkpoint);
+            }
+        }
+        return key.toString();
+    }
+
+    private void appendLocation(StringBuilder key, MapLocation location) {
+        key.append(Math.round(location.getLatitude() / gridSize));
+        key.append(',');
+        key.append(Math.round(location.getLongitude() / gridSize));
+    }
+
+    /**
+     * A cached value and the time it was stored.
+     */
+    private static class CacheEntry<T> {
+        private final T value;
+        private final long created;
+
+        private CacheEntry(T value, long created) {
+            this.value = value;
+            this.created = created;
+        }
+    }
+
+    /**
+     * LinkedHashMap in access order that drops the least recently used entry when full.
+     */
+    private static class LruMap<T> extends LinkedHashMap<String, CacheEntry<T>> {
+        private final int maxEntries;
+
+        private LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry<T>> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package truckerboys.otto.directionsAPI;
+
+import org.joda.time.Duration;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import truckerboys.otto.utils.SingleFlight;
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.MapLocation;
+
+/**
+ * IDirections decorator that lets concurrent identical requests share one request.
+ * <p/>
+ * When a replan from the map and a replan from the clock ask for the same route at the
+ * same time, only one of them goes to the wrapped IDirections and both get its result.
+ */
+public class CoalescingDirections implements IDirections {
+    private final IDirections directions;
+
+    private final SingleFlight<Route> routes = new SingleFlight<Route>();
+    private final SingleFlight<Duration> etas = new SingleFlight<Duration>();
+
+    /**
+     * @param directions the IDirections that does the actual requests.
+     */
+    public CoalescingDirections(IDirections directions) {
+        this.directions = directions;
+    }
+
+    @Override
+    public Route getRoute(final MapLocation currentPosition, final MapLocation finalDestination, final RoutePreferences preferences,
+                          final List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        try {
+            return routes.execute(createKey(currentPosition, finalDestination, checkpoint), new Callable<Route>() {
+                @Override
+                public Route call() throws Exception {
+                    return directions.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+                }
+            });
+        } catch (NoConnectionException e) {
+            throw e;
+        } catch (InvalidRequestException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new NoConnectionException(e.toString());
+        }
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, preferences, null);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, checkpoint);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, null);
+    }
+
+    @Override
+    public Duration getETA(final MapLocation currentPosition, final MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        try {
+            return etas.execute(createKey(currentPosition, finalDestination, null), new Callable<Duration>() {
+                @Override
+                public Duration call() throws Exception {
+                    return directions.getETA(currentPosition, finalDestination);
+                }
+            });
+        } catch (NoConnectionException e) {
+            throw e;
+        } catch (InvalidRequestException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new NoConnectionException(e.toString());
+        }
+    }
+
+    /**
+     * Get the number of requests made through this IDirections.
+     *
+     * @return number of requests.
+     */
+    public int getCalls() {
+        return routes.getCalls() + etas.getCalls();
+    }
+
+    /**
+     * Get the number of requests that shared an already running request instead of making a new one.
+     *
+     * @return number of saved requests.
+     */
+    public int getSavedCalls() {
+        return routes.getSharedCalls() + etas.getSharedCalls();
+    }
+
+    private String createKey(MapLocation origin, MapLocation destination, List<MapLocation> checkpoints) {
+        StringBuilder key = new StringBuilder();
+        key.append(origin.getLatitude()).append(',').append(origin.getLongitude());
+        key.append('>');
+        key.append(destination.getLatitude()).append(',').append(destination.getLongitude());
+        if (checkpoints != null) {
+            for (MapLocation checkpoint : checkpoints) {
+                key.append('|').append(checkpoint.getLatitude()).append(',').append(checkpoint.getLongitude());
+            }
+        }
+        return key.toString();
+    }
+}
@@ -0,0 +1,73 @@
+package truckerboys.otto.directionsAPI;
+
+import android.util.Log;
+
+import org.joda.time.Duration;
+
+import java.util.List;
+
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.MapLocation;
+
+/**
+ * IDirections decorator that asks a backup IDirections when the primary one can not be reached,
+ * so a truck in an area without coverage can still get new routes from the roads on the device.
+ */
+public class FallbackDirections implements IDirections {
+    private final IDirections primary;
+    private final IDirections fallback;
+
+    /**
+     * @param primary  the IDirections to use when there is a connection.
+     * @param fallback the IDirections to use when the primary one fails to connect.
+     */
+    public FallbackDirections(IDirections primary, IDirections fallback) {
+        this.primary = primary;
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                          List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        try {
+            return primary.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+        } catch (NoConnectionException e) {
+            Log.w("FallbackDirections", "No connection, routing offline");
+            try {
+                return fallback.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+            } catch (NoConnectionException fallbackFailed) {
+                //The fallback is not available either, report the original problem
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, preferences, null);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, checkpoint);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, null);
+    }
+
+    @Override
+    public Duration getETA(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        try {
+            return primary.getETA(currentPosition, finalDestination);
+        } catch (NoConnectionException e) {
+            try {
+                return fallback.getETA(currentPosition, finalDestination);
+            } catch (NoConnectionException fallbackFailed) {
+                throw e;
+            }
+        }
+    }
+}
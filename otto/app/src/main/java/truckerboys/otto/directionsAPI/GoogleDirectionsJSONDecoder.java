@@ -1,188 +1,288 @@
 package truckerboys.otto.directionsAPI;
 
 import com.google.android.gms.maps.model.LatLng;
-import com.google.gson.Gson;
-import com.google.gson.internal.LinkedTreeMap;
+import com.google.gson.stream.JsonReader;
 
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.positions.EncodedPolyline;
 import truckerboys.otto.utils.positions.RouteLocation;
 
 /**
  * Help class to decode a Google Direction JSON response
+ * <p/>
+ * The response is read with a streaming JsonReader in a single pass, without building
+ * a tree of the whole response first. Fields that are not needed are skipped and
+ * polylines are kept encoded until the route needs them.
  *
  * @author Daniel Eineving
  */
 public class GoogleDirectionsJSONDecoder {
     /**
      * Creates a route from a Google Direction JSON response
-     * <p/>
-     * OBS: This method uses very much typecasting,
-     * think twice before changing anything
      *
      * @param response JSON response
      * @return a decoded Route
      */
     public static Route stringToRoute(String response) throws InvalidRequestException {
+        DecodedResponse decoded = decode(response, false);
 
-        RouteLocation finalDestination;
-        Duration eta;
-        int distance = 0;
-        ArrayList<LatLng> overviewPolyline;
-        ArrayList<LatLng> detailedPolyline = new ArrayList<LatLng>();
-        ArrayList<RouteLocation> checkPoints = new ArrayList<RouteLocation>();
-        try {
+        if (decoded.checkpoints.size() == 0) {
+            throw new InvalidRequestException("No route found, status: " + decoded.status);
+        }
+        EncodedPolyline overviewPolyline = decoded.overviewPolyline == null ? EncodedPolyline.EMPTY : decoded.overviewPolyline;
 
-            //Creating a HashMap from from the whole response
-            HashMap<String, Object> mapResponse = (HashMap<String, Object>) new Gson().fromJson(response, HashMap.class);
+        //The final destination is the end of the last leg
+        RouteLocation finalDestination = decoded.checkpoints.get(decoded.checkpoints.size() - 1);
 
-            //Making all routes into HashMaps
-            ArrayList<LinkedTreeMap<String, Object>> routes = (ArrayList<LinkedTreeMap<String, Object>>) mapResponse.get("routes");
+        return new Route(finalDestination, new Duration(decoded.etaSeconds * 1000), decoded.distance,
+                overviewPolyline, new EncodedPolyline(decoded.stepPolylines),
+                toArray(decoded.stepDurations), toArray(decoded.stepDistances), decoded.checkpoints);
+    }
 
-            ArrayList<LinkedTreeMap<String, Object>> allLegs = new ArrayList<LinkedTreeMap<String, Object>>();
-            ArrayList<LinkedTreeMap<String, Object>> allSteps = new ArrayList<LinkedTreeMap<String, Object>>();
+    /**
+     * Creates a ETA duration from a Google Direction JSON response
+     * <p/>
+     * Only the leg durations are read, steps and polylines are skipped.
+     *
+     * @param response Google Direction JSON
+     * @return ETA to requested location
+     */
+    public static Duration etaToDestination(String response) throws InvalidRequestException {
+        DecodedResponse decoded = decode(response, true);
 
-            //Combines all the legs to one common array
-            for (LinkedTreeMap<String, Object> route : routes) {
-                for (LinkedTreeMap<String, Object> leg : (ArrayList<LinkedTreeMap<String, Object>>) route.get("legs")) {
-                    allLegs.add(leg);
-                }
-            }
+        if (decoded.legs == 0) {
+            throw new InvalidRequestException("No route found, status: " + decoded.status);
+        }
+        return new Duration(decoded.etaSeconds * 1000);
+    }
+
+    /**
+     * Reads a whole Google Direction JSON response.
+     *
+     * @param response JSON response
+     * @param etaOnly  true if only durations are needed
+     * @return the decoded values
+     * @throws InvalidRequestException if the response could not be read
+     */
+    private static DecodedResponse decode(String response, boolean etaOnly) throws InvalidRequestException {
+        if (response == null) {
+            throw new InvalidRequestException("Empty response");
+        }
 
-            //Combines all steps to one common array
-            for (LinkedTreeMap<String, Object> leg : allLegs) {
-                for (LinkedTreeMap<String, Object> step : (ArrayList<LinkedTreeMap<String, Object>>) leg.get("steps")) {
-                    allSteps.add(step);
+        DecodedResponse decoded = new DecodedResponse(etaOnly);
+        JsonReader reader = new JsonReader(new StringReader(response));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("routes")) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readRoute(reader, decoded);
+                    }
+                    reader.endArray();
+                } else if (name.equals("status")) {
+                    decoded.status = reader.nextString();
+                } else {
+                    reader.skipValue();
                 }
             }
+            reader.endObject();
+            reader.close();
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new InvalidRequestException(e.getMessage());
+        }
+        return decoded;
+    }
 
-            //Creating ETA and distance
-            int etaSeconds = 0;
-            for (LinkedTreeMap<String, Object> leg : allLegs) {
-                //Some shady typecasting here, take care when changing
-                etaSeconds += ((LinkedTreeMap<String, Double>) leg.get("duration")).get("value");
-                distance += ((LinkedTreeMap<String, Double>) leg.get("distance")).get("value");
+    /**
+     * Reads one element of "routes". The legs of all routes are combined into one route.
+     */
+    private static void readRoute(JsonReader reader, DecodedResponse decoded) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("legs")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readLeg(reader, decoded);
+                }
+                reader.endArray();
+            } else if (name.equals("overview_polyline") && !decoded.etaOnly && decoded.overviewPolyline == null) {
+                //Getting the overview polyline of the first route
+                decoded.overviewPolyline = new EncodedPolyline(readPoints(reader));
+            } else {
+                reader.skipValue();
             }
-            eta = new Duration(etaSeconds * 1000);
+        }
+        reader.endObject();
+    }
 
+    /**
+     * Reads one leg, keeps the polylines of its steps and adds its end to the checkpoints.
+     */
+    private static void readLeg(JsonReader reader, DecodedResponse decoded) throws IOException {
+        long durationSeconds = 0;
+        long distance = 0;
+        String address = "";
+        LatLng endLocation = null;
 
-            //Creating big polyline
-            for (LinkedTreeMap<String, Object> step : allSteps) {
-                for (LatLng temp : polylineDecoder(((LinkedTreeMap<String, String>) step.get("polyline")).get("points"))) {
-                    detailedPolyline.add(temp);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("duration")) {
+                durationSeconds = readValue(reader);
+            } else if (decoded.etaOnly) {
+                reader.skipValue();
+            } else if (name.equals("distance")) {
+                distance = readValue(reader);
+            } else if (name.equals("end_address")) {
+                address = reader.nextString();
+            } else if (name.equals("end_location")) {
+                endLocation = readLatLng(reader);
+            } else if (name.equals("steps")) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readStep(reader, decoded);
                 }
+                reader.endArray();
+            } else {
+                reader.skipValue();
             }
-            //Getting the overview polyline
-            overviewPolyline = polylineDecoder(((LinkedTreeMap<String, String>) routes.get(0).get("overview_polyline")).get("points"));
-
-            //Getting checkpoints if there are any
-            long checkpointETA = 0;
-            int checkpointDistance = 0;
-            for (LinkedTreeMap<String, Object> leg : allLegs) {
-                LinkedTreeMap<String, Double> endLocation = (LinkedTreeMap<String, Double>) leg.get("end_location");
-                LatLng coordinate = new LatLng(endLocation.get("lat"), endLocation.get("lng"));
-                String address = (String) leg.get("end_address");
-                checkpointETA += ((LinkedTreeMap<String, Double>) leg.get("duration")).get("value")*1000;
-                checkpointDistance += ((LinkedTreeMap<String, Double>) leg.get("distance")).get("value");
-                Duration tempEta = new Duration(checkpointETA);
-                checkPoints.add(new RouteLocation(coordinate, address, tempEta, Instant.now().plus(tempEta), checkpointDistance));
-            }
+        }
+        reader.endObject();
 
-            //Creating the final destination
-            finalDestination = checkPoints.get(checkPoints.size()-1);
+        decoded.legs++;
+        decoded.etaSeconds += durationSeconds;
+        decoded.distance += distance;
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new InvalidRequestException(e.getMessage());
+        if (!decoded.etaOnly) {
+            //Every leg ends in a checkpoint
+            Duration checkpointETA = new Duration(decoded.etaSeconds * 1000);
+            decoded.checkpoints.add(new RouteLocation(endLocation, address, checkpointETA,
+                    decoded.decodedAt.plus(checkpointETA), decoded.distance));
         }
-        return new Route(finalDestination, eta, distance, overviewPolyline, detailedPolyline, checkPoints);
     }
 
     /**
-     * Decodes a polyline into an array of LatLng
-     * <p/>
-     * Based on example from
-     * http://wptrafficanalyzer.in/blog/drawing-driving-route-directions-between-two-locations-using-google-directions-in-google-map-android-api-v2/
-     * Written by George Mathew
-     *
-     * @param encoded encoded polyline
-     * @return decoded polyline as an ArrayList of LatLng
+     * Reads one step and keeps its encoded polyline, it is decoded first when the route needs it.
      */
-    private static ArrayList<LatLng> polylineDecoder(String encoded) {
-
-        ArrayList<LatLng> poly = new ArrayList<LatLng>();
-        int index = 0, len = encoded.length();
-        int lat = 0, lng = 0;
-
-        while (index < len) {
-            int b, shift = 0, result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlat = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lat += dlat;
-
-            shift = 0;
-            result = 0;
-            do {
-                b = encoded.charAt(index++) - 63;
-                result |= (b & 0x1f) << shift;
-                shift += 5;
-            } while (b >= 0x20);
-            int dlng = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
-            lng += dlng;
-
-            LatLng p = new LatLng((((double) lat / 1E5)),
-                    (((double) lng / 1E5)));
-            poly.add(p);
+    private static void readStep(JsonReader reader, DecodedResponse decoded) throws IOException {
+        String points = "";
+        int durationSeconds = 0;
+        int distance = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("polyline")) {
+                points = readPoints(reader);
+            } else if (name.equals("duration")) {
+                durationSeconds = (int) readValue(reader);
+            } else if (name.equals("distance")) {
+                distance = (int) readValue(reader);
+            } else {
+                reader.skipValue();
+            }
         }
+        reader.endObject();
 
-        return poly;
+        decoded.stepPolylines.add(points);
+        decoded.stepDurations.add(durationSeconds);
+        decoded.stepDistances.add(distance);
+    }
+
+    private static int[] toArray(ArrayList<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
     }
 
     /**
-     * Creates a ETA duration from a Google Direction JSON response
-     *
-     * @param response Google Direction JSON
-     * @return ETA to requested location
+     * Reads the "value" of a duration or distance object.
      */
-    public static Duration etaToDestination(String response) throws InvalidRequestException {
-        int etaSeconds = 0;
-        //Some shady typecasting here, take care when changing
+    private static long readValue(JsonReader reader) throws IOException {
+        long value = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("value")) {
+                value = (long) reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return value;
+    }
 
-        try {
-            //Creating a HashMap from from the whole response
-            HashMap<String, Object> mapResponse = (HashMap<String, Object>) new Gson().fromJson(response, HashMap.class);
+    /**
+     * Reads a location object with "lat" and "lng".
+     */
+    private static LatLng readLatLng(JsonReader reader) throws IOException {
+        double lat = 0;
+        double lng = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("lat")) {
+                lat = reader.nextDouble();
+            } else if (name.equals("lng")) {
+                lng = reader.nextDouble();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new LatLng(lat, lng);
+    }
 
-            //Making all routes into HashMaps
-            ArrayList<LinkedTreeMap<String, Object>> routes = (ArrayList<LinkedTreeMap<String, Object>>) mapResponse.get("routes");
+    /**
+     * Reads the encoded "points" of a polyline object.
+     */
+    private static String readPoints(JsonReader reader) throws IOException {
+        String points = "";
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if (reader.nextName().equals("points")) {
+                points = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return points;
+    }
 
-            ArrayList<LinkedTreeMap<String, Object>> allLegs = new ArrayList<LinkedTreeMap<String, Object>>();
-            ArrayList<LinkedTreeMap<String, Object>> allSteps = new ArrayList<LinkedTreeMap<String, Object>>();
+    /**
+     * The values collected while reading a response.
+     */
+    private static class DecodedResponse {
+        private final boolean etaOnly;
+        private final Instant decodedAt = Instant.now();
 
-            //Combines all the legs to one common array
-            for (LinkedTreeMap<String, Object> route : routes) {
-                for (LinkedTreeMap<String, Object> leg : (ArrayList<LinkedTreeMap<String, Object>>) route.get("legs")) {
-                    allLegs.add(leg);
-                }
-            }
+        private String status = "";
+        private int legs = 0;
+        private long etaSeconds = 0;
+        private int distance = 0;
 
-            //Creating ETA
+        private EncodedPolyline overviewPolyline;
+        private ArrayList<String> stepPolylines = new ArrayList<String>();
+        private ArrayList<Integer> stepDurations = new ArrayList<Integer>();
+        private ArrayList<Integer> stepDistances = new ArrayList<Integer>();
+        private ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
 
-            for (LinkedTreeMap<String, Object> leg : allLegs) {
-                etaSeconds += ((LinkedTreeMap<String, Double>) leg.get("duration")).get("value");
-            }
-        } catch (Exception e) {
-            throw new InvalidRequestException(e.getMessage());
+        private DecodedResponse(boolean etaOnly) {
+            this.etaOnly = etaOnly;
         }
-
-        return new Duration(etaSeconds * 1000);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,191 @@
+package truckerboys.otto.directionsAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.EncodedPolyline;
+import truckerboys.otto.utils.positions.MapLocation;
+import truckerboys.otto.utils.positions.PackedPolyline;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * Calculates routes on a road graph stored on the device, without any connection.
+ * <p/>
+ * The routes have the same shape as the ones decoded from Google: one checkpoint at the end of
+ * every leg, and a detailed polyline with one segment per step along with the duration and
+ * distance of every step. A step is the part of the path along one road.
+ * <p/>
+ * The app does not use it yet, nothing puts a road graph on the device. Once something does, the
+ * online IDirections can be wrapped in a FallbackDirections with this as the fallback.
+ */
+public class OfflineDirections implements IDirections {
+    //Positions further than this (in meters) from every road can not be routed from or to
+    public static final double MAX_SNAP_DISTANCE = 5000;
+
+    private final File graphFile;
+    private RoadGraph graph;
+
+    /**
+     * Routes on a graph that is already loaded.
+     *
+     * @param graph the roads to route on.
+     */
+    public OfflineDirections(RoadGraph graph) {
+        this.graphFile = null;
+        this.graph = graph;
+    }
+
+    /**
+     * Routes on a graph written by RoadGraph.write. The file is read first when a route is needed.
+     *
+     * @param graphFile the file with the roads to route on.
+     */
+    public OfflineDirections(File graphFile) {
+        this.graphFile = graphFile;
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                          List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        RoadGraph graph = getGraph();
+
+        ArrayList<MapLocation> stops = new ArrayList<MapLocation>();
+        if (checkpoint != null) {
+            stops.addAll(checkpoint);
+        }
+        stops.add(finalDestination);
+
+        List<String> stepPolylines = new ArrayList<String>();
+        ArrayList<Integer> stepDurations = new ArrayList<Integer>();
+        ArrayList<Integer> stepDistances = new ArrayList<Integer>();
+        ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
+        PackedPolyline.Builder overview = new PackedPolyline.Builder();
+        Instant now = Instant.now();
+        int etaSeconds = 0;
+        int distance = 0;
+
+        int from = snap(graph, currentPosition);
+        overview.add(graph.getLatitude(from), graph.getLongitude(from));
+        for (MapLocation stop : stops) {
+            int to = snap(graph, stop);
+            int[] path = graph.findFastestPath(from, to);
+            if (path == null) {
+                throw new InvalidRequestException("No route found");
+            }
+
+            //A new step every time the path turns onto another road
+            int stepStart = 0;
+            for (int i = 1; i <= path.length; i++) {
+                if (i == path.length || graph.getEdgeWay(path[i]) != graph.getEdgeWay(path[stepStart])) {
+                    PackedPolyline.Builder step = new PackedPolyline.Builder(i - stepStart + 1);
+                    int stepFrom = graph.edgeSource(path[stepStart]);
+                    step.add(graph.getLatitude(stepFrom), graph.getLongitude(stepFrom));
+                    double stepDuration = 0;
+                    double stepDistance = 0;
+                    for (int j = stepStart; j < i; j++) {
+                        int target = graph.getEdgeTarget(path[j]);
+                        step.add(graph.getLatitude(target), graph.getLongitude(target));
+                        overview.add(graph.getLatitude(target), graph.getLongitude(target));
+                        stepDuration += graph.getEdgeDuration(path[j]);
+                        stepDistance += graph.getEdgeLength(path[j]);
+                    }
+                    stepPolylines.add(EncodedPolyline.encode(step.build()));
+                    stepDurations.add((int) Math.round(stepDuration));
+                    stepDistances.add((int) Math.round(stepDistance));
+                    etaSeconds += (int) Math.round(stepDuration);
+                    distance += (int) Math.round(stepDistance);
+                    stepStart = i;
+                }
+            }
+
+            //Every leg ends in a checkpoint, on the road closest to the stop
+            Duration checkpointETA = Duration.standardSeconds(etaSeconds);
+            checkpoints.add(new RouteLocation(new LatLng(graph.getLatitude(to), graph.getLongitude(to)),
+                    "", checkpointETA, now.plus(checkpointETA), distance));
+            from = to;
+        }
+
+        RouteLocation destination = checkpoints.get(checkpoints.size() - 1);
+        return new Route(destination, Duration.standardSeconds(etaSeconds), distance,
+                new EncodedPolyline(overview.build()), new EncodedPolyline(stepPolylines),
+                toArray(stepDurations), toArray(stepDistances), checkpoints);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, preferences, null);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, checkpoint);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, null);
+    }
+
+    @Override
+    public Duration getETA(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination).getEta();
+    }
+
+    /**
+     * Get the graph, reading it from the file the first time.
+     *
+     * @return the graph.
+     * @throws NoConnectionException if there is no graph to read, routing without connection is not possible then.
+     */
+    private synchronized RoadGraph getGraph() throws NoConnectionException {
+        if (graph == null) {
+            if (graphFile == null || !graphFile.exists()) {
+                throw new NoConnectionException("No offline road graph");
+            }
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(graphFile)));
+                graph = RoadGraph.read(in);
+            } catch (IOException e) {
+                throw new NoConnectionException("Could not read offline road graph: " + e.getMessage());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    private int snap(RoadGraph graph, MapLocation location) throws InvalidRequestException {
+        int node = graph.findNearestNode(location.getLatitude(), location.getLongitude(), MAX_SNAP_DISTANCE);
+        if (node == -1) {
+            throw new InvalidRequestException("No road close to " + location.getLatitude() + "," + location.getLongitude());
+        }
+        return node;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,152 @@
+package truckerboys.otto.directionsAPI;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Imports the roads a truck can drive on from an OpenStreetMap XML extract.
+ * <p/>
+ * The extract is read as a stream, so only the nodes and the roads are kept in memory.
+ * Every road gets the speed a truck can keep on it, from its maxspeed tag when it has one,
+ * otherwise from the kind of road, and never faster than trucks are allowed to drive.
+ */
+public class OsmImporter {
+    //Trucks over 3.5 tonnes may not drive faster than 80 km/h in most of Europe
+    public static final double TRUCK_MAX_SPEED = 80 / 3.6;
+
+    private static final HashMap<String, Double> DEFAULT_SPEEDS = new HashMap<String, Double>();
+
+    static {
+        //km/h, for roads without a maxspeed tag
+        DEFAULT_SPEEDS.put("motorway", 80.0);
+        DEFAULT_SPEEDS.put("trunk", 80.0);
+        DEFAULT_SPEEDS.put("primary", 70.0);
+        DEFAULT_SPEEDS.put("secondary", 60.0);
+        DEFAULT_SPEEDS.put("tertiary", 50.0);
+        DEFAULT_SPEEDS.put("motorway_link", 50.0);
+        DEFAULT_SPEEDS.put("trunk_link", 50.0);
+        DEFAULT_SPEEDS.put("primary_link", 40.0);
+        DEFAULT_SPEEDS.put("secondary_link", 40.0);
+        DEFAULT_SPEEDS.put("tertiary_link", 30.0);
+        DEFAULT_SPEEDS.put("unclassified", 40.0);
+        DEFAULT_SPEEDS.put("road", 40.0);
+        DEFAULT_SPEEDS.put("residential", 30.0);
+        DEFAULT_SPEEDS.put("service", 15.0);
+        DEFAULT_SPEEDS.put("living_street", 7.0);
+    }
+
+    /**
+     * Reads an OpenStreetMap XML extract into a road graph.
+     *
+     * @param osm the extract.
+     * @return the roads of the extract.
+     * @throws IOException if the extract could not be read.
+     */
+    public static RoadGraph importGraph(InputStream osm) throws IOException {
+        OsmHandler handler = new OsmHandler();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(osm, handler);
+        } catch (SAXException e) {
+            throw new IOException("Invalid OpenStreetMap extract: " + e.getMessage());
+        } catch (ParserConfigurationException e) {
+            throw new IOException("No XML parser: " + e.getMessage());
+        }
+        return handler.builder.build();
+    }
+
+    /**
+     * Get the speed a truck can keep on a road.
+     *
+     * @param tags the tags of the way.
+     * @return speed in meters per second, or 0 if trucks can not drive on the way.
+     */
+    static double getTruckSpeed(HashMap<String, String> tags) {
+        Double defaultSpeed = DEFAULT_SPEEDS.get(tags.get("highway"));
+        if (defaultSpeed == null || isForbidden(tags)) {
+            return 0;
+        }
+
+        double speed = defaultSpeed / 3.6;
+        String maxSpeed = tags.get("maxspeed");
+        if (maxSpeed != null) {
+            try {
+                if (maxSpeed.endsWith("mph")) {
+                    speed = Double.parseDouble(maxSpeed.replace("mph", "").trim()) * 1.609344 / 3.6;
+                } else {
+                    speed = Double.parseDouble(maxSpeed.trim()) / 3.6;
+                }
+            } catch (NumberFormatException e) {
+                //Values like "signals" or "SE:urban", keep the default of the road type
+            }
+        }
+        return Math.min(speed, TRUCK_MAX_SPEED);
+    }
+
+    private static boolean isForbidden(HashMap<String, String> tags) {
+        String hgv = tags.get("hgv");
+        if ("no".equals(hgv)) {
+            return true;
+        }
+        if ("yes".equals(hgv) || "designated".equals(hgv)) {
+            return false;
+        }
+        String access = tags.get("motor_vehicle") != null ? tags.get("motor_vehicle") : tags.get("access");
+        return "no".equals(access) || "private".equals(access);
+    }
+
+    private static class OsmHandler extends DefaultHandler {
+        private final RoadGraph.Builder builder = new RoadGraph.Builder();
+
+        //The way that is being read, null when not inside a way
+        private ArrayList<Long> wayNodes;
+        private HashMap<String, String> wayTags;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (qName.equals("node")) {
+                builder.addNode(Long.parseLong(attributes.getValue("id")),
+                        Double.parseDouble(attributes.getValue("lat")), Double.parseDouble(attributes.getValue("lon")));
+            } else if (qName.equals("way")) {
+                wayNodes = new ArrayList<Long>();
+                wayTags = new HashMap<String, String>();
+            } else if (wayNodes != null && qName.equals("nd")) {
+                wayNodes.add(Long.parseLong(attributes.getValue("ref")));
+            } else if (wayNodes != null && qName.equals("tag")) {
+                wayTags.put(attributes.getValue("k"), attributes.getValue("v"));
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (!qName.equals("way") || wayNodes == null) {
+                return;
+            }
+
+            double speed = getTruckSpeed(wayTags);
+            if (speed > 0) {
+                String oneway = wayTags.get("oneway");
+                boolean onewayForward = "yes".equals(oneway) || "1".equals(oneway) || "true".equals(oneway) ||
+                        (oneway == null && ("motorway".equals(wayTags.get("highway")) ||
+                                "roundabout".equals(wayTags.get("junction"))));
+                boolean onewayBackward = "-1".equals(oneway);
+
+                long[] nodeIds = new long[wayNodes.size()];
+                for (int i = 0; i < nodeIds.length; i++) {
+                    nodeIds[i] = wayNodes.get(i);
+                }
+                builder.addWay(nodeIds, speed, !onewayBackward, !onewayForward);
+            }
+            wayNodes = null;
+            wayTags = null;
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package truckerboys.otto.directionsAPI;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+import truckerboys.otto.utils.positions.PackedPolyline;
+
+/**
+ * A road network for routing without a connection, usually imported from an OpenStreetMap extract
+ * with OsmImporter.
+ * <p/>
+ * Nodes are road junctions and the points along the roads, edges are the road pieces between them.
+ * Everything is kept in flat arrays, the edges leaving node i are edges firstEdge[i] to
+ * firstEdge[i + 1] - 1. Every edge knows its length, the speed a truck can keep on it and the way
+ * it belongs to, so a path can be split up in steps like the ones Google returns.
+ */
+public class RoadGraph {
+    private static final int FILE_VERSION = 1;
+
+    //Size of the cells of the grid used to find the closest node, in degrees
+    private static final double CELL_SIZE = 0.01;
+
+    private final int[] latitudes;
+    private final int[] longitudes;
+
+    private final int[] firstEdge;
+    private final int[] edgeTargets;
+    private final float[] edgeLengths;
+    private final float[] edgeSpeeds;
+    private final int[] edgeWays;
+
+    private final float maxSpeed;
+    private final HashMap<Long, int[]> cells = new HashMap<Long, int[]>();
+
+    private RoadGraph(int[] latitudes, int[] longitudes, int[] firstEdge, int[] edgeTargets,
+                      float[] edgeLengths, float[] edgeSpeeds, int[] edgeWays) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.firstEdge = firstEdge;
+        this.edgeTargets = edgeTargets;
+        this.edgeLengths = edgeLengths;
+        this.edgeSpeeds = edgeSpeeds;
+        this.edgeWays = edgeWays;
+
+        float fastest = 1;
+        for (float speed : edgeSpeeds) {
+            fastest = Math.max(fastest, speed);
+        }
+        this.maxSpeed = fastest;
+
+        HashMap<Long, ArrayList<Integer>> nodesInCells = new HashMap<Long, ArrayList<Integer>>();
+        for (int node = 0; node < latitudes.length; node++) {
+            Long key = cellKey(cellOf(getLatitude(node)), cellOf(getLongitude(node)));
+            ArrayList<Integer> nodes = nodesInCells.get(key);
+            if (nodes == null) {
+                nodes = new ArrayList<Integer>();
+                nodesInCells.put(key, nodes);
+            }
+            nodes.add(node);
+        }
+        for (Long key : nodesInCells.keySet()) {
+            ArrayList<Integer> nodes = nodesInCells.get(key);
+            int[] packed = new int[nodes.size()];
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = nodes.get(i);
+            }
+            cells.put(key, packed);
+        }
+    }
+
+    /**
+     * Get the number of nodes.
+     *
+     * @return number of nodes.
+     */
+    public int getNodeCount() {
+        return latitudes.length;
+    }
+
+    /**
+     * Get the number of edges, a road that can be driven both ways has two.
+     *
+     * @return number of edges.
+     */
+    public int getEdgeCount() {
+        return edgeTargets.length;
+    }
+
+    /**
+     * @return latitude of the node in degrees.
+     */
+    public double getLatitude(int node) {
+        return latitudes[node] / PackedPolyline.PRECISION;
+    }
+
+    /**
+     * @return longitude of the node in degrees.
+     */
+    public double getLongitude(int node) {
+        return longitudes[node] / PackedPolyline.PRECISION;
+    }
+
+    /**
+     * @return the node the edge leads to.
+     */
+    public int getEdgeTarget(int edge) {
+        return edgeTargets[edge];
+    }
+
+    /**
+     * @return length of the edge in meters.
+     */
+    public double getEdgeLength(int edge) {
+        return edgeLengths[edge];
+    }
+
+    /**
+     * @return time it takes a truck to drive the edge in seconds.
+     */
+    public double getEdgeDuration(int edge) {
+        return edgeLengths[edge] / edgeSpeeds[edge];
+    }
+
+    /**
+     * @return index of the way the edge is part of, in the order the ways were added.
+     */
+    public int getEdgeWay(int edge) {
+        return edgeWays[edge];
+    }
+
+    /**
+     * Find the node closest to a position.
+     *
+     * @param latitude    latitude of the position.
+     * @param longitude   longitude of the position.
+     * @param maxDistance how far from the position to search, in meters.
+     * @return the closest node, or -1 if there is no node within maxDistance.
+     */
+    public int findNearestNode(double latitude, double longitude, double maxDistance) {
+        double cellHeight = CELL_SIZE * Math.toRadians(1) * 6371000;
+        double cellWidth = cellHeight * Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        int ringsY = (int) Math.ceil(maxDistance / cellHeight);
+        int ringsX = (int) Math.ceil(maxDistance / cellWidth);
+        int centerY = cellOf(latitude);
+        int centerX = cellOf(longitude);
+
+        int best = -1;
+        double bestDistance = maxDistance;
+        for (int y = centerY - ringsY; y <= centerY + ringsY; y++) {
+            for (int x = centerX - ringsX; x <= centerX + ringsX; x++) {
+                int[] nodes = cells.get(cellKey(y, x));
+                if (nodes == null) {
+                    continue;
+                }
+                for (int node : nodes) {
+                    double distance = RouteGeometry.distanceBetween(latitude, longitude,
+                            getLatitude(node), getLongitude(node));
+                    if (distance <= bestDistance) {
+                        best = node;
+                        bestDistance = distance;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the fastest path between two nodes with A*. The straight line distance at the
+     * highest speed in the graph is used as estimate of the time left, so the path found is
+     * always the fastest one.
+     *
+     * @param from start node.
+     * @param to   end node.
+     * @return the edges of the path in order, or null if there is no path.
+     */
+    public int[] findFastestPath(int from, int to) {
+        double[] durations = new double[getNodeCount()];
+        int[] previousEdge = new int[getNodeCount()];
+        boolean[] settled = new boolean[getNodeCount()];
+        Arrays.fill(durations, Double.MAX_VALUE);
+        Arrays.fill(previousEdge, -1);
+
+        PriorityQueue<QueuedNode> queue = new PriorityQueue<QueuedNode>();
+        durations[from] = 0;
+        queue.add(new QueuedNode(from, estimate(from, to)));
+
+        while (!queue.isEmpty()) {
+            int node = queue.poll().node;
+            if (settled[node]) {
+                continue; //Already reached faster, this was an old entry in the queue
+            }
+            if (node == to) {
+                break;
+            }
+            settled[node] = true;
+
+            for (int edge = firstEdge[node]; edge < firstEdge[node + 1]; edge++) {
+                int target = edgeTargets[edge];
+                double duration = durations[node] + getEdgeDuration(edge);
+                if (duration < durations[target]) {
+                    durations[target] = duration;
+                    previousEdge[target] = edge;
+                    queue.add(new QueuedNode(target, duration + estimate(target, to)));
+                }
+            }
+        }
+
+        if (from != to && previousEdge[to] == -1) {
+            return null;
+        }
+
+        //Walk back from the end, the edges come in reverse order
+        ArrayList<Integer> path = new ArrayList<Integer>();
+        for (int node = to; node != from; node = edgeSource(previousEdge[node])) {
+            path.add(previousEdge[node]);
+        }
+        int[] edges = new int[path.size()];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = path.get(edges.length - 1 - i);
+        }
+        return edges;
+    }
+
+    /**
+     * Get the node an edge starts from.
+     *
+     * @param edge index of the edge.
+     * @return the node the edge leaves.
+     */
+    public int edgeSource(int edge) {
+        //firstEdge is sorted, find the last node whose first edge is not after the edge
+        int low = 0;
+        int high = getNodeCount() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstEdge[middle] <= edge) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Writes the graph in a compact binary format that read can load again.
+     *
+     * @param out where to write the graph.
+     * @throws IOException
+     */
+    public void write(DataOutputStream out) throws IOException {
+        out.writeInt(FILE_VERSION);
+        out.writeInt(getNodeCount());
+        out.writeInt(getEdgeCount());
+        for (int node = 0; node < getNodeCount(); node++) {
+            out.writeInt(latitudes[node]);
+            out.writeInt(longitudes[node]);
+            out.writeInt(firstEdge[node]);
+        }
+        for (int edge = 0; edge < getEdgeCount(); edge++) {
+            out.writeInt(edgeTargets[edge]);
+            out.writeFloat(edgeLengths[edge]);
+            out.writeFloat(edgeSpeeds[edge]);
+            out.writeInt(edgeWays[edge]);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a graph written by write.
+     *
+     * @param in where to read the graph from.
+     * @return the graph.
+     * @throws IOException if the graph could not be read.
+     */
+    public static RoadGraph read(DataInputStream in) throws IOException {
+        int version = in.readInt();
+        if (version != FILE_VERSION) {
+            throw new IOException("Unknown road graph version " + version);
+        }
+        int nodeCount = in.readInt();
+        int edgeCount = in.readInt();
+
+        int[] latitudes = new int[nodeCount];
+        int[] longitudes = new int[nodeCount];
+        int[] firstEdge = new int[nodeCount + 1];
+        for (int node = 0; node < nodeCount; node++) {
+            latitudes[node] = in.readInt();
+            longitudes[node] = in.readInt();
+            firstEdge[node] = in.readInt();
+        }
+        firstEdge[nodeCount] = edgeCount;
+
+        int[] edgeTargets = new int[edgeCount];
+        float[] edgeLengths = new float[edgeCount];
+        float[] edgeSpeeds = new float[edgeCount];
+        int[] edgeWays = new int[edgeCount];
+        for (int edge = 0; edge < edgeCount; edge++) {
+            edgeTargets[edge] = in.readInt();
+            edgeLengths[edge] = in.readFloat();
+            edgeSpeeds[edge] = in.readFloat();
+            edgeWays[edge] = in.readInt();
+        }
+        return new RoadGraph(latitudes, longitudes, firstEdge, edgeTargets, edgeLengths, edgeSpeeds, edgeWays);
+    }
+
+    private double estimate(int from, int to) {
+        return RouteGeometry.distanceBetween(getLatitude(from), getLongitude(from),
+                getLatitude(to), getLongitude(to)) / maxSpeed;
+    }
+
+    private static int cellOf(double degrees) {
+        return (int) Math.floor(degrees / CELL_SIZE);
+    }
+
+    private static Long cellKey(int y, int x) {
+        return ((long) y << 32) | (x & 0xffffffffL);
+    }
+
+    private static class QueuedNode implements Comparable<QueuedNode> {
+        private final int node;
+        private final double priority;
+
+        private QueuedNode(int node, double priority) {
+            this.node = node;
+            this.priority = priority;
+        }
+
+        @Override
+        public int compareTo(QueuedNode other) {
+            return Double.compare(priority, other.priority);
+        }
+    }
+
+    /**
+     * Collects nodes and ways and builds a graph of them. Nodes that are not part of any way
+     * are left out of the graph.
+     */
+    public static class Builder {
+        private final HashMap<Long, Integer> nodeIndexes = new HashMap<Long, Integer>();
+        private final IntArray latitudes = new IntArray();
+        private final IntArray longitudes = new IntArray();
+
+        private final IntArray edgeSources = new IntArray();
+        private final IntArray edgeTargets = new IntArray();
+        private final IntArray edgeWays = new IntArray();
+        //All edges of a way have the same speed
+        private final ArrayList<Float> waySpeeds = new ArrayList<Float>();
+
+        /**
+         * Add a node that ways can go through.
+         *
+         * @param id        id of the node, used by addWay.
+         * @param latitude  latitude of the node.
+         * @param longitude longitude of the node.
+         * @return this builder.
+         */
+        public Builder addNode(long id, double latitude, double longitude) {
+            nodeIndexes.put(id, latitudes.size());
+            latitudes.add((int) Math.round(latitude * PackedPolyline.PRECISION));
+            longitudes.add((int) Math.round(longitude * PackedPolyline.PRECISION));
+            return this;
+        }
+
+        /**
+         * Add a road through already added nodes. Nodes that have not been added are skipped.
+         *
+         * @param nodeIds  ids of the nodes along the road, in order.
+         * @param speed    the speed a truck can keep on the road in meters per second.
+         * @param forward  true if the road can be driven in the order of the nodes.
+         * @param backward true if the road can be driven against the order of the nodes.
+         * @return this builder.
+         */
+        public Builder addWay(long[] nodeIds, double speed, boolean forward, boolean backward) {
+            int way = waySpeeds.size();
+            waySpeeds.add((float) speed);
+
+            int previous = -1;
+            for (long id : nodeIds) {
+                Integer node = nodeIndexes.get(id);
+                if (node == null) {
+                    continue;
+                }
+                if (previous != -1 && previous != node) {
+                    if (forward) {
+                        addEdge(previous, node, way);
+                    }
+                    if (backward) {
+                        addEdge(node, previous, way);
+                    }
+                }
+                previous = node;
+            }
+            return this;
+        }
+
+        private void addEdge(int from, int to, int way) {
+            edgeSources.add(from);
+            edgeTargets.add(to);
+            edgeWays.add(way);
+        }
+
+        /**
+         * Builds the graph.
+         *
+         * @return the graph.
+         */
+        public RoadGraph build() {
+            //Only keep the nodes that are used by a way
+            int[] newIndexes = new int[latitudes.size()];
+            Arrays.fill(newIndexes, -1);
+            int nodeCount = 0;
+            for (int edge = 0; edge < edgeSources.size(); edge++) {
+                for (int node : new int[]{edgeSources.get(edge), edgeTargets.get(edge)}) {
+                    if (newIndexes[node] == -1) {
+                        newIndexes[node] = nodeCount++;
+                    }
+                }
+            }
+
+            int[] nodeLatitudes = new int[nodeCount];
+            int[] nodeLongitudes = new int[nodeCount];
+            for (int node = 0; node < newIndexes.length; node++) {
+                if (newIndexes[node] != -1) {
+                    nodeLatitudes[newIndexes[node]] = latitudes.get(node);
+                    nodeLongitudes[newIndexes[node]] = longitudes.get(node);
+                }
+            }
+
+            //Sort the edges by the node they leave, counting sort since the nodes are known
+            int edgeCount = edgeSources.size();
+            int[] firstEdge = new int[nodeCount + 1];
+            for (int edge = 0; edge < edgeCount; edge++) {
+                firstEdge[newIndexes[edgeSources.get(edge)] + 1]++;
+            }
+            for (int node = 0; node < nodeCount; node++) {
+                firstEdge[node + 1] += firstEdge[node];
+            }
+
+            int[] next = Arrays.copyOf(firstEdge, nodeCount);
+            int[] targets = new int[edgeCount];
+            float[] lengths = new float[edgeCount];
+            float[] speeds = new float[edgeCount];
+            int[] wayIndexes = new int[edgeCount];
+            for (int edge = 0; edge < edgeCount; edge++) {
+                int from = newIndexes[edgeSources.get(edge)];
+                int to = newIndexes[edgeTargets.get(edge)];
+                int position = next[from]++;
+                targets[position] = to;
+                lengths[position] = (float) RouteGeometry.distanceBetween(
+                        nodeLatitudes[from] / PackedPolyline.PRECISION, nodeLongitudes[from] / PackedPolyline.PRECISION,
+                        nodeLatitudes[to] / PackedPolyline.PRECISION, nodeLongitudes[to] / PackedPolyline.PRECISION);
+                speeds[position] = waySpeeds.get(edgeWays.get(edge));
+                wayIndexes[position] = edgeWays.get(edge);
+            }
+            return new RoadGraph(nodeLatitudes, nodeLongitudes, firstEdge, targets, lengths, speeds, wayIndexes);
+        }
+    }
+
+    /**
+     * A growing array of ints, to not box every value of large graphs.
+     */
+    private static class IntArray {
+        private int[] values = new int[64];
+        private int size = 0;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private int get(int index) {
+            return values[index];
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
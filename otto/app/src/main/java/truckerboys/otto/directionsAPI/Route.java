@@ -1,11 +1,11 @@
 package truckerboys.otto.directionsAPI;
 
-import com.google.android.gms.maps.model.LatLng;
-
 import org.joda.time.Duration;
 
 import java.util.ArrayList;
 
+import truckerboys.otto.utils.positions.EncodedPolyline;
+import truckerboys.otto.utils.positions.PackedPolyline;
 import truckerboys.otto.utils.positions.RouteLocation;
 
 
@@ -13,10 +13,16 @@ public class Route {
     private RouteLocation finalDestination;
     private Duration eta;
     private int distance;
-    private ArrayList<LatLng> overviewPolyline;
-    private ArrayList<LatLng> detailedPolyline;
+    private EncodedPolyline overviewPolyline;
+    private EncodedPolyline detailedPolyline;
     private ArrayList<RouteLocation> checkpoints;
 
+    //Duration in seconds and distance in meters of each step, null if not known
+    private int[] stepDurations;
+    private int[] stepDistances;
+
+    private RouteGeometry geometry;
+
 
     /**
      * Creates a new route
@@ -28,14 +34,54 @@ public class Route {
      * @param distance         distance to final destination in meters
      * @param checkpoints      checkpoints
      */
-    public Route(RouteLocation finalDestination, Duration eta, int distance, ArrayList<LatLng> overviewPolyline,
-                 ArrayList<LatLng> detailedPolyline, ArrayList<RouteLocation> checkpoints) {
+    public Route(RouteLocation finalDestination, Duration eta, int distance, PackedPolyline overviewPolyline,
+                 PackedPolyline detailedPolyline, ArrayList<RouteLocation> checkpoints) {
+        this(finalDestination, eta, distance, new EncodedPolyline(overviewPolyline),
+                new EncodedPolyline(detailedPolyline), checkpoints);
+    }
+
+    /**
+     * Creates a new route with polylines that are decoded when they are first needed
+     *
+     * @param finalDestination target destination
+     * @param eta              time till estimated arrival
+     * @param overviewPolyline encoded polyline overview
+     * @param detailedPolyline encoded polyline details with one segment per step
+     * @param distance         distance to final destination in meters
+     * @param checkpoints      checkpoints
+     */
+    public Route(RouteLocation finalDestination, Duration eta, int distance, EncodedPolyline overviewPolyline,
+                 EncodedPolyline detailedPolyline, ArrayList<RouteLocation> checkpoints) {
+        this(finalDestination, eta, distance, overviewPolyline, detailedPolyline, null, null, checkpoints);
+    }
+
+    /**
+     * Creates a new route where the duration and distance of every step is known
+     *
+     * @param finalDestination target destination
+     * @param eta              time till estimated arrival
+     * @param distance         distance to final destination in meters
+     * @param overviewPolyline encoded polyline overview
+     * @param detailedPolyline encoded polyline details with one segment per step
+     * @param stepDurations    duration of each step in seconds, or null if not known
+     * @param stepDistances    distance of each step in meters, or null if not known
+     * @param checkpoints      checkpoints
+     */
+    public Route(RouteLocation finalDestination, Duration eta, int distance, EncodedPolyline overviewPolyline,
+                 EncodedPolyline detailedPolyline, int[] stepDurations, int[] stepDistances,
+                 ArrayList<RouteLocation> checkpoints) {
         this.finalDestination = finalDestination;
         this.eta = eta;
         this.overviewPolyline = overviewPolyline;
         this.detailedPolyline = detailedPolyline;
         this.distance = distance;
         this.checkpoints = checkpoints;
+        if (stepDurations != null && stepDistances != null &&
+                stepDurations.length == detailedPolyline.getSegmentCount() &&
+                stepDistances.length == detailedPolyline.getSegmentCount()) {
+            this.stepDurations = stepDurations;
+            this.stepDistances = stepDistances;
+        }
     }
 
     /**
@@ -44,23 +90,31 @@ public class Route {
      * @param other Route to copy.
      */
     public Route(Route other) {
-        this.finalDestination = new RouteLocation(other.finalDestination);
+        this(other, Duration.ZERO);
+    }
+
+    /**
+     * Copy constructor for a route that is started later than the other, the time of arrival
+     * at every checkpoint is moved by as much.
+     *
+     * @param other Route to copy.
+     * @param later how much later the route is started.
+     */
+    public Route(Route other, Duration later) {
+        this.finalDestination = new RouteLocation(other.finalDestination, later);
         this.eta = new Duration(other.eta);
         this.distance = other.distance;
 
-        this.overviewPolyline = new ArrayList<LatLng>();
-        for (LatLng point : other.overviewPolyline) {
-            this.overviewPolyline.add(new LatLng(point.latitude, point.longitude));
-        }
-
-        this.detailedPolyline = new ArrayList<LatLng>();
-        for (LatLng point : other.detailedPolyline) {
-            this.detailedPolyline.add(new LatLng(point.latitude, point.longitude));
-        }
+        //Polylines are immutable and can be shared, also when not decoded yet
+        this.overviewPolyline = other.overviewPolyline;
+        this.detailedPolyline = other.detailedPolyline;
+        this.stepDurations = other.stepDurations;
+        this.stepDistances = other.stepDistances;
+        this.geometry = other.geometry;
 
         this.checkpoints = new ArrayList<RouteLocation>();
         for (RouteLocation temp : other.checkpoints) {
-            this.checkpoints.add(new RouteLocation(temp));
+            this.checkpoints.add(new RouteLocation(temp, later));
         }
     }
 
@@ -88,8 +142,8 @@ public class Route {
      *
      * @return rough polyline
      */
-    public ArrayList<LatLng> getOverviewPolyline() {
-        return overviewPolyline;
+    public PackedPolyline getOverviewPolyline() {
+        return overviewPolyline.getPolyline();
     }
 
     /**
@@ -97,7 +151,93 @@ public class Route {
      *
      * @return detailed polyline
      */
-    public ArrayList<LatLng> getDetailedPolyline() {
+    public PackedPolyline getDetailedPolyline() {
+        return detailedPolyline.getPolyline();
+    }
+
+    /**
+     * Get the detailed polyline of some of the steps in the route
+     *
+     * @param fromStep index of the first step, inclusive
+     * @param toStep   index of the last step, exclusive
+     * @return detailed polyline of the steps
+     */
+    public PackedPolyline getDetailedPolyline(int fromStep, int toStep) {
+        return detailedPolyline.getPolyline(fromStep, toStep);
+    }
+
+    /**
+     * Get the number of steps in the route
+     *
+     * @return number of steps
+     */
+    public int getNumberOfSteps() {
+        return detailedPolyline.getSegmentCount();
+    }
+
+    /**
+     * Check if the duration and distance of every step is known
+     *
+     * @return true if the step durations and distances are known
+     */
+    public boolean hasStepDetails() {
+        return stepDurations != null;
+    }
+
+    /**
+     * Get the duration of a step
+     *
+     * @param step index of the step
+     * @return duration of the step in seconds
+     */
+    public int getStepDuration(int step) {
+        if (stepDurations == null) {
+            throw new IllegalStateException("Step durations are not known");
+        }
+        return stepDurations[step];
+    }
+
+    /**
+     * Get the distance of a step
+     *
+     * @param step index of the step
+     * @return distance of the step in meters
+     */
+    public int getStepDistance(int step) {
+        if (stepDistances == null) {
+            throw new IllegalStateException("Step distances are not known");
+        }
+        return stepDistances[step];
+    }
+
+    /**
+     * Get the distance and driving time to every point of the detailed polyline,
+     * it is created the first time it is needed and then shared by all copies of the route
+     *
+     * @return geometry of the route
+     */
+    public synchronized RouteGeometry getGeometry() {
+        if (geometry == null) {
+            geometry = new RouteGeometry(this);
+        }
+        return geometry;
+    }
+
+    /**
+     * Get the overview polyline without decoding it
+     *
+     * @return the overview polyline in encoded form
+     */
+    public EncodedPolyline getEncodedOverviewPolyline() {
+        return overviewPolyline;
+    }
+
+    /**
+     * Get the detailed polyline without decoding it
+     *
+     * @return the detailed polyline in encoded form, one segment per step
+     */
+    public EncodedPolyline getEncodedDetailedPolyline() {
         return detailedPolyline;
     }
 
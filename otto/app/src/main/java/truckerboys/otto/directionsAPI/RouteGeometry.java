@@ -0,0 +1,286 @@
+package truckerboys.otto.directionsAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import truckerboys.otto.utils.positions.EncodedPolyline;
+import truckerboys.otto.utils.positions.PackedPolyline;
+
+/**
+ * The detailed polyline of a route together with the distance and driving time from the start
+ * of the route to every point on it.
+ * <p/>
+ * When the duration and distance of every step is known they are spread over the points of the
+ * step by length, so the values at the end of each step are the ones from Google. Otherwise the
+ * total distance and ETA of the route are spread over the whole polyline by length.
+ */
+public class RouteGeometry {
+    private static final double EARTH_RADIUS = 6371000;
+
+    private final PackedPolyline polyline;
+
+    //Distance in meters and duration in seconds from the start of the route to each point
+    private final double[] distances;
+    private final double[] durations;
+
+    private SegmentIndex segmentIndex;
+
+    /**
+     * Creates the geometry of a route, this decodes the detailed polyline of the route.
+     *
+     * @param route the route.
+     */
+    public RouteGeometry(Route route) {
+        this.polyline = route.getDetailedPolyline();
+        this.distances = new double[polyline.size()];
+        this.durations = new double[polyline.size()];
+
+        if (route.hasStepDetails()) {
+            fillFromSteps(route);
+        } else {
+            fillFromTotals(route);
+        }
+    }
+
+    private void fillFromSteps(Route route) {
+        EncodedPolyline steps = route.getEncodedDetailedPolyline();
+        int point = 0;
+        double stepStartDistance = 0;
+        double stepStartDuration = 0;
+
+        for (int step = 0; step < steps.getSegmentCount(); step++) {
+            int stepPoints = steps.getSegment(step).size();
+            double stepLength = length(point, point + stepPoints - 1);
+            double lengthSoFar = 0;
+
+            for (int i = point; i < point + stepPoints; i++) {
+                if (i > point) {
+                    lengthSoFar += distanceBetween(i - 1, i);
+                }
+                double share = stepLength > 0 ? lengthSoFar / stepLength : 0;
+                distances[i] = stepStartDistance + share * route.getStepDistance(step);
+                durations[i] = stepStartDuration + share * route.getStepDuration(step);
+            }
+
+            point += stepPoints;
+            stepStartDistance += route.getStepDistance(step);
+            stepStartDuration += route.getStepDuration(step);
+        }
+    }
+
+    private void fillFromTotals(Route route) {
+        double totalLength = length(0, polyline.size() - 1);
+        double lengthSoFar = 0;
+
+        for (int i = 0; i < polyline.size(); i++) {
+            if (i > 0) {
+                lengthSoFar += distanceBetween(i - 1, i);
+            }
+            double share = totalLength > 0 ? lengthSoFar / totalLength : 0;
+            distances[i] = share * route.getDistance();
+            durations[i] = share * route.getEta().getStandardSeconds();
+        }
+    }
+
+    /**
+     * Get the detailed polyline of the route.
+     *
+     * @return the polyline.
+     */
+    public PackedPolyline getPolyline() {
+        return polyline;
+    }
+
+    /**
+     * Get an index of the segments of the polyline, it is created the first time it is needed.
+     *
+     * @return the segment index.
+     */
+    public synchronized SegmentIndex getSegmentIndex() {
+        if (segmentIndex == null) {
+            segmentIndex = new SegmentIndex(polyline);
+        }
+        return segmentIndex;
+    }
+
+    /**
+     * Get the number of points in the polyline.
+     *
+     * @return number of points.
+     */
+    public int size() {
+        return polyline.size();
+    }
+
+    /**
+     * Get the distance from the start of the route to a point.
+     *
+     * @param point index of the point.
+     * @return distance in meters.
+     */
+    public double getDistance(int point) {
+        return distances[point];
+    }
+
+    /**
+     * Get the driving time from the start of the route to a point.
+     *
+     * @param point index of the point.
+     * @return driving time in seconds.
+     */
+    public double getDuration(int point) {
+        return durations[point];
+    }
+
+    /**
+     * Get the distance from the start of the route to a point on a segment.
+     *
+     * @param match the point on the segment.
+     * @return distance in meters.
+     */
+    public double getDistance(SegmentIndex.Match match) {
+        return distances[match.getSegment()] +
+                (distances[match.getSegment() + 1] - distances[match.getSegment()]) * match.getFraction();
+    }
+
+    /**
+     * Get the driving time from the start of the route to a point on a segment.
+     *
+     * @param match the point on the segment.
+     * @return driving time in seconds.
+     */
+    public double getDuration(SegmentIndex.Match match) {
+        return durations[match.getSegment()] +
+                (durations[match.getSegment() + 1] - durations[match.getSegment()]) * match.getFraction();
+    }
+
+    /**
+     * Get the distance of the whole route.
+     *
+     * @return distance in meters, 0 if the polyline is empty.
+     */
+    public double getTotalDistance() {
+        return distances.length == 0 ? 0 : distances[distances.length - 1];
+    }
+
+    /**
+     * Get the driving time of the whole route.
+     *
+     * @return driving time in seconds, 0 if the polyline is empty.
+     */
+    public double getTotalDuration() {
+        return durations.length == 0 ? 0 : durations[durations.length - 1];
+    }
+
+    /**
+     * Get the position reached after driving a distance along the route.
+     *
+     * @param meters distance from the start of the route.
+     * @return the position, the start or end of the route if the distance is outside the route.
+     */
+    public LatLng getPositionAtDistance(double meters) {
+        return getPositionAt(distances, meters);
+    }
+
+    /**
+     * Get the position reached after driving for some time along the route.
+     *
+     * @param seconds driving time from the start of the route.
+     * @return the position, the start or end of the route if the time is outside the route.
+     */
+    public LatLng getPositionAtDuration(double seconds) {
+        return getPositionAt(durations, seconds);
+    }
+
+    /**
+     * Get the distance driven after driving for some time along the route.
+     *
+     * @param seconds driving time from the start of the route.
+     * @return distance in meters.
+     */
+    public double getDistanceAtDuration(double seconds) {
+        return interpolate(durations, distances, seconds);
+    }
+
+    /**
+     * Get the driving time needed to drive a distance along the route.
+     *
+     * @param meters distance from the start of the route.
+     * @return driving time in seconds.
+     */
+    public double getDurationAtDistance(double meters) {
+        return interpolate(distances, durations, meters);
+    }
+
+    private LatLng getPositionAt(double[] values, double value) {
+        if (polyline.isEmpty()) {
+            throw new IllegalStateException("The route has no polyline");
+        }
+        int point = findSegment(values, value);
+        if (point == polyline.size() - 1) {
+            return polyline.get(point);
+        }
+        double fraction = getFraction(values, point, value);
+        return new LatLng(
+                polyline.getLatitude(point) + (polyline.getLatitude(point + 1) - polyline.getLatitude(point)) * fraction,
+                polyline.getLongitude(point) + (polyline.getLongitude(point + 1) - polyline.getLongitude(point)) * fraction);
+    }
+
+    private double interpolate(double[] from, double[] to, double value) {
+        if (from.length == 0) {
+            return 0;
+        }
+        int point = findSegment(from, value);
+        if (point == from.length - 1) {
+            return to[point];
+        }
+        return to[point] + (to[point + 1] - to[point]) * getFraction(from, point, value);
+    }
+
+    private double getFraction(double[] values, int point, double value) {
+        double span = values[point + 1] - values[point];
+        return span <= 0 ? 0 : Math.max(0, Math.min(1, (value - values[point]) / span));
+    }
+
+    /**
+     * Binary search for the last point with a value not larger than the given value.
+     * The values are never decreasing along the route.
+     */
+    private int findSegment(double[] values, double value) {
+        int low = 0;
+        int high = values.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (values[middle] <= value) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private double length(int fromPoint, int toPoint) {
+        double length = 0;
+        for (int i = fromPoint + 1; i <= toPoint; i++) {
+            length += distanceBetween(i - 1, i);
+        }
+        return length;
+    }
+
+    private double distanceBetween(int fromPoint, int toPoint) {
+        return distanceBetween(polyline.getLatitude(fromPoint), polyline.getLongitude(fromPoint),
+                polyline.getLatitude(toPoint), polyline.getLongitude(toPoint));
+    }
+
+    /**
+     * Distance in meters using an equirectangular approximation. Accurate enough between points
+     * on a polyline and at the distances of a Places search, and a lot cheaper than Location.distanceBetween.
+     *
+     * @return distance in meters.
+     */
+    public static double distanceBetween(double fromLatitude, double fromLongitude, double toLatitude, double toLongitude) {
+        double x = Math.toRadians(toLongitude - fromLongitude) * Math.cos(Math.toRadians((fromLatitude + toLatitude) / 2));
+        double y = Math.toRadians(toLatitude - fromLatitude);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+}
@@ -0,0 +1,200 @@
+package truckerboys.otto.directionsAPI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import truckerboys.otto.utils.positions.PackedPolyline;
+
+/**
+ * Grid index over the segments of a polyline, for finding the segment closest to a position
+ * without going through the whole polyline.
+ * <p/>
+ * Every segment is added to all grid cells its bounding box covers, so a search only has to
+ * look at the segments in the cells around the position.
+ */
+public class SegmentIndex {
+    public static final double DEFAULT_CELL_SIZE = 250;
+
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * 6371000;
+
+    private final PackedPolyline polyline;
+    private final double cellSize;
+    private final double metersPerLongitude;
+
+    private final HashMap<Long, int[]> cells = new HashMap<Long, int[]>();
+
+    /**
+     * Creates an index with the default cell size.
+     *
+     * @param polyline the polyline to index.
+     */
+    public SegmentIndex(PackedPolyline polyline) {
+        this(polyline, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Creates an index, segment i goes from point i to point i + 1 of the polyline.
+     *
+     * @param polyline the polyline to index.
+     * @param cellSize size of the grid cells in meters.
+     */
+    public SegmentIndex(PackedPolyline polyline, double cellSize) {
+        this.polyline = polyline;
+        this.cellSize = cellSize;
+        //The grid is made for the latitude where the polyline starts, close enough for a route
+        double latitude = polyline.isEmpty() ? 0 : polyline.getLatitude(0);
+        this.metersPerLongitude = METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+
+        HashMap<Long, ArrayList<Integer>> segmentsInCells = new HashMap<Long, ArrayList<Integer>>();
+        for (int segment = 0; segment < polyline.size() - 1; segment++) {
+            int fromX = cellX(Math.min(polyline.getLongitude(segment), polyline.getLongitude(segment + 1)));
+            int toX = cellX(Math.max(polyline.getLongitude(segment), polyline.getLongitude(segment + 1)));
+            int fromY = cellY(Math.min(polyline.getLatitude(segment), polyline.getLatitude(segment + 1)));
+            int toY = cellY(Math.max(polyline.getLatitude(segment), polyline.getLatitude(segment + 1)));
+
+            for (int x = fromX; x <= toX; x++) {
+                for (int y = fromY; y <= toY; y++) {
+                    Long key = cellKey(x, y);
+                    ArrayList<Integer> segments = segmentsInCells.get(key);
+                    if (segments == null) {
+                        segments = new ArrayList<Integer>();
+                        segmentsInCells.put(key, segments);
+                    }
+                    segments.add(segment);
+                }
+            }
+        }
+
+        for (Long key : segmentsInCells.keySet()) {
+            ArrayList<Integer> segments = segmentsInCells.get(key);
+            int[] packed = new int[segments.size()];
+            for (int i = 0; i < packed.length; i++) {
+                packed[i] = segments.get(i);
+            }
+            cells.put(key, packed);
+        }
+    }
+
+    /**
+     * Find the closest segment within a distance of a position.
+     *
+     * @param latitude    latitude of the position.
+     * @param longitude   longitude of the position.
+     * @param maxDistance how far from the position to search, in meters.
+     * @return the closest segment, or null if there is no segment within maxDistance.
+     */
+    public Match findNearest(double latitude, double longitude, double maxDistance) {
+        //Cells are narrower in meters further north than where the grid was made
+        double localMetersPerLongitude = METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        int ringsX = (int) Math.ceil(maxDistance * metersPerLongitude / (localMetersPerLongitude * cellSize));
+        int ringsY = (int) Math.ceil(maxDistance / cellSize);
+        int centerX = cellX(longitude);
+        int centerY = cellY(latitude);
+
+        Match best = null;
+        for (int x = centerX - ringsX; x <= centerX + ringsX; x++) {
+            for (int y = centerY - ringsY; y <= centerY + ringsY; y++) {
+                int[] segments = cells.get(cellKey(x, y));
+                if (segments == null) {
+                    continue;
+                }
+                for (int segment : segments) {
+                    Match match = project(polyline, segment, latitude, longitude);
+                    if (match.distance <= maxDistance && (best == null || match.distance < best.distance)) {
+                        best = match;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Find the closest of a range of segments, without using the grid.
+     *
+     * @param latitude    latitude of the position.
+     * @param longitude   longitude of the position.
+     * @param fromSegment first segment, inclusive.
+     * @param toSegment   last segment, inclusive.
+     * @return the closest segment, or null if the range is empty.
+     */
+    public Match findNearest(double latitude, double longitude, int fromSegment, int toSegment) {
+        Match best = null;
+        for (int segment = fromSegment; segment <= toSegment; segment++) {
+            Match match = project(polyline, segment, latitude, longitude);
+            if (best == null || match.distance < best.distance) {
+                best = match;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Project a position onto a segment of a polyline in a local flat projection around the position.
+     */
+    private static Match project(PackedPolyline polyline, int segment, double latitude, double longitude) {
+        double metersPerLongitude = METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude));
+
+        double ax = (polyline.getLongitude(segment) - longitude) * metersPerLongitude;
+        double ay = (polyline.getLatitude(segment) - latitude) * METERS_PER_DEGREE;
+        double bx = (polyline.getLongitude(segment + 1) - longitude) * metersPerLongitude;
+        double by = (polyline.getLatitude(segment + 1) - latitude) * METERS_PER_DEGREE;
+
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double fraction = lengthSquared == 0 ? 0 : Math.max(0, Math.min(1, -(ax * dx + ay * dy) / lengthSquared));
+
+        double x = ax + fraction * dx;
+        double y = ay + fraction * dy;
+        return new Match(segment, fraction, Math.sqrt(x * x + y * y));
+    }
+
+    private int cellX(double longitude) {
+        return (int) Math.floor(longitude * metersPerLongitude / cellSize);
+    }
+
+    private int cellY(double latitude) {
+        return (int) Math.floor(latitude * METERS_PER_DEGREE / cellSize);
+    }
+
+    private Long cellKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xffffffffL);
+    }
+
+    /**
+     * The closest point on a segment to a position.
+     */
+    public static class Match {
+        private final int segment;
+        private final double fraction;
+        private final double distance;
+
+        private Match(int segment, double fraction, double distance) {
+            this.segment = segment;
+            this.fraction = fraction;
+            this.distance = distance;
+        }
+
+        /**
+         * @return index of the segment.
+         */
+        public int getSegment() {
+            return segment;
+        }
+
+        /**
+         * @return how far along the segment the closest point is, between 0 and 1.
+         */
+        public double getFraction() {
+            return fraction;
+        }
+
+        /**
+         * @return distance from the position to the closest point in meters.
+         */
+        public double getDistance() {
+            return distance;
+        }
+    }
+}
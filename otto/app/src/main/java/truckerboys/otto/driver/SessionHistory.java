@@ -1,15 +1,26 @@
 package truckerboys.otto.driver;
 
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeUtils;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.RandomAccess;
 
 
 /**
  * Class which handles all the history. If you need the ask for breaks, driving time etc. this is where you do it.
+ * <p/>
+ * The sessions are stored as columns of start times, end times and types instead of as Session objects,
+ * since a month of history is kept in memory. Session objects are only made for getSessions(), the
+ * regulation checks use getStartMillis(int), getDurationMillis(int) and the other accessors that do not
+ * create any objects.
+ * <p/>
+ * The history of the driver is added to by the UI and read by the planners at the same time, so every
+ * method holds the lock of the history. Several calls that have to agree should be made on a copy.
  * Created by Martin on 24/09/2014.
  */
 public class SessionHistory {
@@ -25,10 +36,47 @@ public class SessionHistory {
     private final Duration SPLIT_DAY_REST_FIRST = Duration.standardHours(3);
     private final Duration SPLIT_DAY_REST_SECOND = Duration.standardHours(9);
 
+    private static final int INITIAL_CAPACITY = 16;
+
+    //SessionType.values() makes a new array every time
+    private static final SessionType[] TYPES = SessionType.values();
+
+    /*
+     * The past sessions sorted by start time, with the first session first. New sessions are
+     * added at the end, and the start times can be binary searched.
+     */
+    private long[] starts = new long[INITIAL_CAPACITY];
+    private long[] ends = new long[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+
+    //Sessions that were going on when added, the end time is taken from them until they are ended
+    private Session[] running = new Session[INITIAL_CAPACITY];
+    private int runningCount;
+
+    private int count;
+
+    //Driving time of the finished sessions stored before each position, valid up to sumsValidTo
+    private long[] drivingBefore = new long[INITIAL_CAPACITY + 1];
+    private int sumsValidTo;
+
+    //The finished rests by length, longest first, and the latest of the longest rests up to each
+    //index. Made again when asked for after a change, null until then.
+    private long[] restLengths;
+    private int[] latestOfLongest;
+
+    //Rests are sorted by length and position packed into one long, the position in the lowest bits
+    private static final int POSITION_BITS = 24;
+
     /**
      * The list of past sessions, sorted with the last session first.
      */
-    private List<Session> sessions = new ArrayList<Session>();
+    private final List<Session> sessions = new NewestFirst(-1);
+
+    /**
+     * Changed every time a session is added, removed or ended, so anything counted from the history
+     * can tell if it has to be counted again.
+     */
+    private volatile int version;
 
 
     public SessionHistory() {
@@ -46,107 +94,387 @@ public class SessionHistory {
         }
     }
 
+    /**
+     * Creates a copy of a SessionHistory, that can be changed without changing the original.
+     *
+     * @param history the history to copy
+     */
+    public SessionHistory(SessionHistory history) {
+        synchronized (history) {
+            history.endFinished();
+            count = history.count;
+            runningCount = history.runningCount;
+            starts = Arrays.copyOf(history.starts, Math.max(count, INITIAL_CAPACITY));
+            ends = Arrays.copyOf(history.ends, starts.length);
+            types = Arrays.copyOf(history.types, starts.length);
+            running = Arrays.copyOf(history.running, starts.length);
+            drivingBefore = new long[starts.length + 1];
+        }
+    }
+
     /**
      * Adds a sessions to the history.
      *
      * @param session the past sessions
      */
-    public void addSession(Session session) {
-        if (sessions.size() == 0) {
-            sessions.add(session);
+    public synchronized void addSession(Session session) {
+        endFinished();
+        if (count == starts.length) {
+            int capacity = count * 2;
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            types = Arrays.copyOf(types, capacity);
+            running = Arrays.copyOf(running, capacity);
+            drivingBefore = Arrays.copyOf(drivingBefore, capacity + 1);
+        }
+
+        //Before any session starting at the same time, so it comes after them with the last session first
+        int position = indexOfStart(session.getStartTime().getMillis(), false);
+        int moved = count - position;
+        if (moved > 0) {
+            System.arraycopy(starts, position, starts, position + 1, moved);
+            System.arraycopy(ends, position, ends, position + 1, moved);
+            System.arraycopy(types, position, types, position + 1, moved);
+            System.arraycopy(running, position, running, position + 1, moved);
+        }
+
+        starts[position] = session.getStartTime().getMillis();
+        ends[position] = session.getEndTime().getMillis();
+        types[position] = (byte) session.getSessionType().ordinal();
+        if (session.isActive()) {
+            running[position] = session;
+            runningCount++;
         } else {
-            boolean added = false;
-            for (Session s : sessions) {
-                if (session.getStartTime().isAfter(s.getStartTime())) {
-                    sessions.add(sessions.indexOf(s), session);
-                    added = true;
-                    break;
-                }
-            }
-            if (!added) {
-                sessions.add(session);
-            }
+            running[position] = null;
         }
+        count++;
+        changedFrom(position);
+        version++;
     }
 
     /**
-     * Returns the raw history, a list with sessions
+     * Ends a session in the history.
      *
-     * @return the list with all past sessions.
+     * @param session the session to end
      */
-    public List<Session> getSessions() {
+    public synchronized void endSession(Session session) {
+        session.end();
+        endFinished();
+        version++;
+    }
+
+    /**
+     * Returns the version of the history, which is changed every time a session is added, removed or ended.
+     *
+     * @return the version of the history.
+     */
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the raw history, a list with sessions. The sessions are made when asked for,
+     * so use the accessors below where it matters.
+     *
+     * @return the list with all past sessions, the last session first.
+     */
+    public synchronized List<Session> getSessions() {
         return sessions;
     }
 
-    public void removeLastSession() {
-        if (sessions.size() > 0) {
-            sessions.remove(0);
+    /**
+     * Returns the sessions that started at or after an instant, the last session first.
+     * The list is a view of the history, get a new one after adding or removing sessions.
+     *
+     * @param start the instant the sessions should have started at or after.
+     * @return the sessions started since start.
+     */
+    public synchronized List<Session> getSessionsSince(Instant start) {
+        return new NewestFirst(count - indexOfStart(start.getMillis(), false));
+    }
+
+    public synchronized void removeLastSession() {
+        if (count > 0) {
+            count--;
+            if (running[count] != null) {
+                running[count] = null;
+                runningCount--;
+            }
+            changedFrom(count);
+            version++;
         }
     }
 
+    /** Session accessors, index 0 is the last session as in getSessions(). */
 
-    /** Regulation checks. */
+    /**
+     * Returns the number of sessions in the history.
+     *
+     * @return the number of sessions.
+     */
+    public synchronized int getSessionCount() {
+        return count;
+    }
 
     /**
-     * Returns true if the driver is currently  resting.
+     * Returns the start time of a session.
      *
-     * @return true if driver is resting.
+     * @param index the index of the session, 0 for the last session.
+     * @return the start time in milliseconds.
      */
-    public boolean isResting() {
-        return sessions.get(0) == null || sessions.get(0).getSessionType() == SessionType.RESTING;
+    public synchronized long getStartMillis(int index) {
+        return starts[position(index)];
     }
 
     /**
-     * Returns the total driving time since the a specified instant in time.
+     * Returns the end time of a session, epoch if it is going on, as Session.getEndTime().
      *
-     * @param start The instant where to start calculations driving time.
-     * @return The total driving time since Instant start.
+     * @param index the index of the session, 0 for the last session.
+     * @return the end time in milliseconds.
      */
-    public Duration getActiveTimeSince(Instant start) {
+    public synchronized long getEndMillis(int index) {
+        int position = position(index);
+        Session session = running[position];
+        if (session != null) {
+            return session.isActive() ? 0 : session.getEndTime().getMillis();
+        }
+        return ends[position];
+    }
 
-        Duration time = new Duration(0);
+    /**
+     * Returns the length of a session, until now if it is going on.
+     *
+     * @param index the index of the session, 0 for the last session.
+     * @return the length in milliseconds.
+     */
+    public synchronized long getDurationMillis(int index) {
+        int position = position(index);
+        Session session = running[position];
+        if (session == null) {
+            return ends[position] - starts[position];
+        }
+        return (session.isActive() ? DateTimeUtils.currentTimeMillis() : session.getEndTime().getMillis()) - starts[position];
+    }
 
-        //Loop all sessions
+    /**
+     * Returns the type of a session.
+     *
+     * @param index the index of the session, 0 for the last session.
+     * @return the type of the session.
+     */
+    public synchronized SessionType getSessionType(int index) {
+        return TYPES[types[position(index)]];
+    }
 
-        for (Session session : sessions) {
-            //Session is driving and has start-time after 'start'
-            if (session.getSessionType() == SessionType.DRIVING) {
+    /**
+     * Returns true if a session is still going on.
+     *
+     * @param index the index of the session, 0 for the last session.
+     * @return true if the session is in progress.
+     */
+    public synchronized boolean isActive(int index) {
+        Session session = running[position(index)];
+        return session != null && session.isActive();
+    }
 
-                if (!session.getStartTime().isBefore(start)) {
-                    //Add whole session to time
-                    time = time.plus(session.getDuration());
-                } else if (session.getStartTime().isBefore(start) && session.getEndTime().isAfter(start)) {
-                    //Add the time from 'start' to end to time.
-                    time = time.plus(new Duration(start, session.getEndTime()));
-                }
+    private int position(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return count - 1 - index;
+    }
 
+    /**
+     * Find where sessions starting at a time are stored.
+     *
+     * @param start the start time to search for, in milliseconds.
+     * @param after true for the position after all sessions starting at start, false for the position before them.
+     * @return a position between 0 and the number of sessions.
+     */
+    private int indexOfStart(long start, boolean after) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (starts[mid] < start || (after && starts[mid] == start)) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
-        return time;
+        return low;
     }
 
     /**
-     * Returns the sum of the duration of all past sessions until a rest-session longer than the specified duration.
+     * Store the end of sessions that were going on when added, but have ended since.
+     */
+    private void endFinished() {
+        if (runningCount == 0) {
+            return;
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            Session session = running[i];
+            if (session != null && !session.isActive()) {
+                ends[i] = session.getEndTime().getMillis();
+                running[i] = null;
+                runningCount--;
+                changedFrom(i);
+            }
+        }
+    }
+
+    /**
+     * Make the indexes count the sessions again from a position.
      *
-     * @param duration the break length which to search for.
-     * @return the total time since a break longer than specified.
+     * @param position the first position that has changed.
      */
-    public Duration getActiveTimeSinceBreakLongerThan(Duration duration) {
-        Duration time = new Duration(0);
+    private void changedFrom(int position) {
+        sumsValidTo = Math.min(sumsValidTo, position);
+        restLengths = null;
+        latestOfLongest = null;
+    }
 
-        for (Session session : sessions) {
-            if (session.getSessionType() == SessionType.RESTING) {
-                if (!session.getDuration().isShorterThan(duration)) {
-                    return time;
+    /**
+     * Returns the driving time of the sessions from a position and on, by subtracting the prefix
+     * sums. Only what has changed since last time is summed again, which is usually the last session.
+     *
+     * @param from the position of the first session to count.
+     * @return the driving time in milliseconds.
+     */
+    private long getDrivingFrom(int from) {
+        for (int p = sumsValidTo; p < count; p++) {
+            long driving = running[p] == null && TYPES[types[p]] == SessionType.DRIVING ? ends[p] - starts[p] : 0;
+            drivingBefore[p + 1] = drivingBefore[p] + driving;
+        }
+        sumsValidTo = count;
+
+        long time = drivingBefore[count] - drivingBefore[from];
+
+        //Sessions going on are not in the sums, there is rarely any other than the last session
+        int found = 0;
+        for (int p = count - 1; p >= from && found < runningCount; p--) {
+            if (running[p] != null) {
+                found++;
+                if (TYPES[types[p]] == SessionType.DRIVING) {
+                    time += getDurationMillis(count - 1 - p);
                 }
+            }
+        }
+        return time;
+    }
+
+    /**
+     * Find the last rest at least as long as specified, with a binary search among the finished rests.
+     *
+     * @param length the minimum length of the rest, in milliseconds.
+     * @return the position of the rest, or -1 if there is none.
+     */
+    private int findLatestRest(long length) {
+        if (restLengths == null) {
+            indexRests();
+        }
+
+        int latest = -1;
+        //The first rest shorter than length
+        int low = 0;
+        int high = restLengths.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (restLengths[mid] >= length) {
+                low = mid + 1;
             } else {
-                if (session.getSessionType() == SessionType.DRIVING) {
-                    time = time.plus(session.getDuration());
+                high = mid;
+            }
+        }
+        if (low > 0) {
+            latest = latestOfLongest[low - 1];
+        }
+
+        //Rests going on are not in the index, they are still getting longer
+        int found = 0;
+        for (int p = count - 1; p > latest && found < runningCount; p--) {
+            if (running[p] != null) {
+                found++;
+                if (TYPES[types[p]] == SessionType.RESTING && getDurationMillis(count - 1 - p) >= length) {
+                    return p;
                 }
             }
         }
+        return latest;
+    }
 
-        return time;
+    private void indexRests() {
+        int rests = 0;
+        for (int p = 0; p < count; p++) {
+            if (running[p] == null && TYPES[types[p]] == SessionType.RESTING) {
+                rests++;
+            }
+        }
+
+        long[] keys = new long[rests];
+        int k = 0;
+        for (int p = 0; p < count; p++) {
+            if (running[p] == null && TYPES[types[p]] == SessionType.RESTING) {
+                keys[k++] = (Math.max(0, ends[p] - starts[p]) << POSITION_BITS) | p;
+            }
+        }
+        Arrays.sort(keys);
+
+        long[] lengths = new long[rests];
+        int[] latest = new int[rests];
+        for (int i = 0; i < rests; i++) {
+            long key = keys[rests - 1 - i];
+            int position = (int) (key & ((1 << POSITION_BITS) - 1));
+            lengths[i] = key >>> POSITION_BITS;
+            latest[i] = i > 0 ? Math.max(latest[i - 1], position) : position;
+        }
+        latestOfLongest = latest;
+        restLengths = lengths;
+    }
+
+
+    /** Regulation checks. */
+
+    /**
+     * Returns true if the driver is currently  resting.
+     *
+     * @return true if driver is resting.
+     */
+    public synchronized boolean isResting() {
+        return getSessionType(0) == SessionType.RESTING;
+    }
+
+    /**
+     * Returns the total driving time since the a specified instant in time.
+     *
+     * @param start The instant where to start calculations driving time.
+     * @return The total driving time since Instant start.
+     */
+    public synchronized Duration getActiveTimeSince(Instant start) {
+        long startMillis = start.getMillis();
+
+        //Add all sessions with start-time after 'start'
+        int first = indexOfStart(startMillis, false);
+        long time = getDrivingFrom(first);
+
+        //Sessions do not overlap, so only the session before them can have driven since 'start'.
+        //Add the time from 'start' to end to time.
+        int before = count - first;
+        if (first > 0 && getSessionType(before) == SessionType.DRIVING && getEndMillis(before) > startMillis) {
+            time += getEndMillis(before) - startMillis;
+        }
+        return new Duration(time);
+    }
+
+    /**
+     * Returns the sum of the duration of all past sessions until a rest-session longer than the specified duration.
+     *
+     * @param duration the break length which to search for.
+     * @return the total time since a break longer than specified.
+     */
+    public synchronized Duration getActiveTimeSinceBreakLongerThan(Duration duration) {
+        //All driving after the last rest that long
+        return new Duration(getDrivingFrom(findLatestRest(duration.getMillis()) + 1));
     }
 
     /**
@@ -154,44 +482,48 @@ public class SessionHistory {
      *
      * @return number of extended days.
      */
-    public int getNumberOfExtendedDaysThisWeek() {
+    public synchronized int getNumberOfExtendedDaysThisWeek() {
         int numberOfExtendedDays = 0;
         // Boolean making sure the loop doesn't register 2 extended days if the
         // driver didn't take a daily break inbetween them
         boolean breakBetweenExtendedDays = true;
 
         //The time driven a specific day (the day that the loop is currently on)
-        Duration dailyTime = Duration.ZERO;
+        long dailyTime = 0;
 
         //Get latest weekly break, if no break was found. We are in first week ever. Search all sessions.
-        Instant latestWeeklyBreak;
+        long latestWeeklyBreak;
         try {
-            latestWeeklyBreak = getLatestWeeklyRestEndTime(sessions);
+            latestWeeklyBreak = getLatestWeeklyRestEnd(0, count);
         } catch (NoValidBreakFound e) {
-            latestWeeklyBreak = new Instant(0);
+            latestWeeklyBreak = 0;
         }
 
-        for (Session session : sessions) {
-            //If 'session' is in this week (since "if after LAST weeks end", we're in this week.)
-            if (!latestWeeklyBreak.isAfter(session.getStartTime())) {
-
-                //If session was a driving-session
-                if (session.getSessionType() == SessionType.DRIVING) {
-                    //Add this sessions time to dailyTime
-                    dailyTime = dailyTime.plus(session.getDuration());
-                } else if (session.getSessionType() == SessionType.RESTING && session.getDuration().isLongerThan(REDUCED_DAILY_REST)) {
-                    if (getNumberOfReducedDailyRestsThisWeek() < 3 || !session.getDuration().isShorterThan(STANDARD_DAILY_REST)) {
-                        //If we found a daily (or weekly) rest; reset time.
-                        dailyTime = Duration.ZERO;
-                        breakBetweenExtendedDays = true;
-                    }
+        //The same for every rest this week, so only counted once
+        int reducedDailyRests = -1;
+
+        //Only sessions this week (since "if after LAST weeks end", we're in this week.)
+        int thisWeek = count - indexOfStart(latestWeeklyBreak, false);
+        for (int i = 0; i < thisWeek; i++) {
+            //If session was a driving-session
+            if (getSessionType(i) == SessionType.DRIVING) {
+                //Add this sessions time to dailyTime
+                dailyTime += getDurationMillis(i);
+            } else if (getSessionType(i) == SessionType.RESTING && getDurationMillis(i) > REDUCED_DAILY_REST.getMillis()) {
+                if (reducedDailyRests < 0) {
+                    reducedDailyRests = getNumberOfReducedDailyRestsThisWeek();
                 }
-
-                if (dailyTime.isLongerThan(STANDARD_DAY_SESSION) && breakBetweenExtendedDays) {
-                    numberOfExtendedDays++;
-                    breakBetweenExtendedDays = false;
+                if (reducedDailyRests < 3 || getDurationMillis(i) >= STANDARD_DAILY_REST.getMillis()) {
+                    //If we found a daily (or weekly) rest; reset time.
+                    dailyTime = 0;
+                    breakBetweenExtendedDays = true;
                 }
             }
+
+            if (dailyTime > STANDARD_DAY_SESSION.getMillis() && breakBetweenExtendedDays) {
+                numberOfExtendedDays++;
+                breakBetweenExtendedDays = false;
+            }
         }
 
         return numberOfExtendedDays;
@@ -202,42 +534,36 @@ public class SessionHistory {
      *
      * @return total reduced rests.
      */
-    public int getNumberOfReducedDailyRestsThisWeek() {
+    public synchronized int getNumberOfReducedDailyRestsThisWeek() {
         int numberOfReducedDailyRests = 0;
 
         //Get latest weekly break, if no break was found. We are in first week ever. Search all sessions.
-        Instant latestWeeklyBreak;
+        long latestWeeklyBreak;
         try {
-            latestWeeklyBreak = getLatestWeeklyRestEndTime(sessions);
+            latestWeeklyBreak = getLatestWeeklyRestEnd(0, count);
         } catch (NoValidBreakFound e) {
-            latestWeeklyBreak = new Instant(0);
+            latestWeeklyBreak = 0;
         }
-        for (int i = 0; i < sessions.size() - 1; i++) {
-
-            Session session = sessions.get(i);
-
-            //If 'session' is in this week (since "if after LAST weeks end", we're in this week.)
-            if (latestWeeklyBreak.isBefore(session.getStartTime())) {
-                if (session.getSessionType() == SessionType.RESTING) {
-                    //If it's longer than 9 hours and shorter than 11 hours it's a reduced daily rest.
-                    if (session.getDuration().isLongerThan(REDUCED_DAILY_REST) && session.getDuration().isShorterThan(STANDARD_DAILY_REST)) {
 
-                        //Check that the reduced break isn't a split daily rest which is a normal daily rest.
-                        //If there's a rest longer than 3h before the one just found and occurs on the same day
-                        //the one just found is a normal rest.
-
-                        //Find the next daily break
-                        for (int j = i + 1; j < sessions.size() - 1; j++) {
-                            Session sessionTwo = sessions.get(j);
-                            if (sessionTwo.getDuration().isLongerThan(SPLIT_DAY_REST_FIRST) &&
-                                    sessionTwo.getDuration().isShorterThan(SPLIT_DAY_REST_SECOND) &&
-                                    (getDateOfSession(j).getDayOfYear() == getDateOfSession(i).getDayOfYear())) {
-                                numberOfReducedDailyRests--;
-                            }
+        //Only the sessions started after the weekly break are this week, and they come first
+        int thisWeek = Math.min(count - 1, count - indexOfStart(latestWeeklyBreak, true));
+        for (int i = 0; i < thisWeek; i++) {
+            if (getSessionType(i) == SessionType.RESTING) {
+                //If it's longer than 9 hours and shorter than 11 hours it's a reduced daily rest.
+                if (getDurationMillis(i) > REDUCED_DAILY_REST.getMillis() && getDurationMillis(i) < STANDARD_DAILY_REST.getMillis()) {
+
+                    //Check that the reduced break isn't a split daily rest which is a normal daily rest.
+                    //If there's a rest longer than 3h before the one just found and occurs on the same day
+                    //the one just found is a normal rest.
+
+                    //Find the next daily break
+                    for (int j = i + 1; j < count - 1; j++) {
+                        if (isSplitDailyRestFirstPart(j, i)) {
+                            numberOfReducedDailyRests--;
                         }
-
-                        numberOfReducedDailyRests++;
                     }
+
+                    numberOfReducedDailyRests++;
                 }
             }
         }
@@ -258,28 +584,25 @@ public class SessionHistory {
      * @return The instant of the last daily break end.
      * @throws NoValidBreakFound When no valid weekly breaks could be found in the session history.
      */
-    public Instant getLatestDailyRestEndTime() throws NoValidBreakFound {
+    public synchronized Instant getLatestDailyRestEndTime() throws NoValidBreakFound {
 
         //Find a dailybreak and return the end time.
         //If its a break longer than 11h no further actions is needed
         //but if its reduced (9h) we need to check that its valid.
-        Session session;
-
-
-        for (int i = 0; i < sessions.size(); i++) {
-            session = sessions.get(i);
+        for (int i = 0; i < count; i++) {
             //If session is of type rest.
-            if (session != null && session.getSessionType() == SessionType.RESTING) {
+            if (getSessionType(i) == SessionType.RESTING) {
                 //If the session is longer than or equal to 9 hours.
-                if (!session.getDuration().isShorterThan(REDUCED_DAILY_REST)) {
+                if (getDurationMillis(i) >= REDUCED_DAILY_REST.getMillis()) {
 
                     //If the rest is a standard daily rest.
-                    if (!session.getDuration().isShorterThan(STANDARD_DAILY_REST)) {
-                        return new Instant(session.getEndTime());
+                    if (getDurationMillis(i) >= STANDARD_DAILY_REST.getMillis()) {
+                        return new Instant(getEndMillis(i));
                     } else {
                         //If not, it's a reduced one, check if that's valid. Since we can only have 3 per week.
-                        if (getNumberOfReducedDailyRestsThisWeek() < 3) {
-                            return new Instant(session.getEndTime());
+                        int reducedDailyRests = getNumberOfReducedDailyRestsThisWeek();
+                        if (reducedDailyRests < 3) {
+                            return new Instant(getEndMillis(i));
                         } else { /* It might be a split daily rest */
 
 
@@ -287,34 +610,28 @@ public class SessionHistory {
                             //the one just found is a normal rest.
 
                             //Find the next daily break
-                            for (int j = i + 1; j < sessions.size() - 1; j++) {
-                                Session sessionTwo = sessions.get(j);
-                                if (sessionTwo.getDuration().isLongerThan(SPLIT_DAY_REST_FIRST) &&
-                                        sessionTwo.getDuration().isShorterThan(SPLIT_DAY_REST_SECOND) &&
-                                        (getDateOfSession(j).getDayOfYear() == getDateOfSession(i).getDayOfYear())) {
-                                    return new Instant(session.getEndTime());
+                            for (int j = i + 1; j < count - 1; j++) {
+                                if (isSplitDailyRestFirstPart(j, i)) {
+                                    return new Instant(getEndMillis(i));
                                 }
                             }
                             /* It's not valid, check for the last valid one */
 
-                            Session temp_session;
-                            int validReducedBreakIn = getNumberOfReducedDailyRestsThisWeek() - 3;
-                            for (int j = i; j < sessions.size(); j++) {
-
-                                temp_session = sessions.get(j);
+                            int validReducedBreakIn = reducedDailyRests - 3;
+                            for (int j = i; j < count; j++) {
                                 //If session is a resting-session
-                                if (temp_session.getSessionType() == SessionType.RESTING) {
+                                if (getSessionType(j) == SessionType.RESTING) {
 
                                     //If session is a standard daily rest, we can return that.
-                                    if (temp_session.getDuration().isLongerThan(STANDARD_DAILY_REST)) {
-                                        return new Instant(temp_session.getEndTime());
+                                    if (getDurationMillis(j) > STANDARD_DAILY_REST.getMillis()) {
+                                        return new Instant(getEndMillis(j));
                                     } else {
                                         //If not, count down until we have a valid reduced daily break.
                                         validReducedBreakIn--;
 
                                         if (validReducedBreakIn <= 0) {
 
-                                            return new Instant(temp_session.getEndTime());
+                                            return new Instant(getEndMillis(j));
                                         }
                                     }
                                 }
@@ -333,6 +650,20 @@ public class SessionHistory {
 
     }
 
+    /**
+     * Returns true if a session could be the first part of a split daily rest, where the second
+     * part is another session the same day.
+     *
+     * @param index       the index of the session.
+     * @param secondIndex the index of the second part.
+     * @return true if the session is longer than 3h and shorter than 9h, and on the same day.
+     */
+    private boolean isSplitDailyRestFirstPart(int index, int secondIndex) {
+        long duration = getDurationMillis(index);
+        return duration > SPLIT_DAY_REST_FIRST.getMillis() && duration < SPLIT_DAY_REST_SECOND.getMillis() &&
+                getDateOfSession(index).getDayOfYear() == getDateOfSession(secondIndex).getDayOfYear();
+    }
+
     /**
      * Returns the end time of the last rest longer than specified.
      *
@@ -341,11 +672,10 @@ public class SessionHistory {
      * @throws NoValidBreakFound
      */
 
-    public Instant getEndTimeOfRestLongerThan(Duration duration) throws NoValidBreakFound {
-        for (Session session : sessions) {
-            if (session.getSessionType() == SessionType.RESTING && !session.getDuration().isShorterThan(duration)) {
-                return session.getEndTime();
-            }
+    public synchronized Instant getEndTimeOfRestLongerThan(Duration duration) throws NoValidBreakFound {
+        int rest = findLatestRest(duration.getMillis());
+        if (rest >= 0) {
+            return new Instant(getEndMillis(count - 1 - rest));
         }
         throw new
 
@@ -360,11 +690,11 @@ public class SessionHistory {
      * @return the end time of the last break longer than specified.
      * @throws NoValidBreakFound
      */
-    public Instant getEndTimeOfRestInTheInterval(Duration min, Duration max) throws NoValidBreakFound {
-        for (Session session : sessions) {
-            if (session.getSessionType() == SessionType.RESTING &&
-                    !session.getDuration().isLongerThan(min) && session.getDuration().isShorterThan(max)) {
-                return session.getEndTime();
+    public synchronized Instant getEndTimeOfRestInTheInterval(Duration min, Duration max) throws NoValidBreakFound {
+        for (int i = 0; i < count; i++) {
+            if (getSessionType(i) == SessionType.RESTING &&
+                    getDurationMillis(i) <= min.getMillis() && getDurationMillis(i) < max.getMillis()) {
+                return new Instant(getEndMillis(i));
             }
         }
         throw new
@@ -379,7 +709,21 @@ public class SessionHistory {
      * @return the instant of the last weekly break end.
      * @throws NoValidBreakFound When no valid weekly breaks could be found in the session history.
      */
-    public Instant getLatestWeeklyRestEndTime(List<Session> sessions) throws NoValidBreakFound {
+    public synchronized Instant getLatestWeeklyRestEndTime() throws NoValidBreakFound {
+        return new Instant(getLatestWeeklyRestEnd(0, count));
+    }
+
+    /**
+     * Returns the instant of which the last weekly break ended.
+     * If there have been no valid weekly breaks the method will throw exception
+     *
+     * @return the instant of the last weekly break end.
+     * @throws NoValidBreakFound When no valid weekly breaks could be found in the session history.
+     */
+    public synchronized Instant getLatestWeeklyRestEndTime(List<Session> sessions) throws NoValidBreakFound {
+        if (sessions == this.sessions) {
+            return getLatestWeeklyRestEndTime();
+        }
 
         Duration weeklyRest1;
         Duration weeklyRest2;
@@ -429,25 +773,62 @@ public class SessionHistory {
         throw new NoValidBreakFound("No valid weekly break was found.");
     }
 
+    /**
+     * The same as getLatestWeeklyRestEndTime(List), for the sessions from index from up to, but not including, to.
+     *
+     * @param from the index of the first session to look at.
+     * @param to   the index after the last session to look at.
+     * @return the end time of the last weekly break in milliseconds.
+     * @throws NoValidBreakFound When no valid weekly breaks could be found among the sessions.
+     */
+    private long getLatestWeeklyRestEnd(int from, int to) throws NoValidBreakFound {
+        for (int i = from; i < to; i++) {
+            //Look through all rests sessions, if we found a reduced (or standard) weekly rest.
+            if (getSessionType(i) == SessionType.RESTING && getDurationMillis(i) >= REDUCED_WEEKLY_REST.getMillis()) {
+                int weeklyRest = i;
+                long weeklyRest1 = getDurationMillis(i);
+
+                for (int j = i + 1; j < to; j++) {
+                    long weeklyRest2 = getDurationMillis(j);
+                    if (weeklyRest2 >= REDUCED_WEEKLY_REST.getMillis()) {
+                        //Found second weekly rest.
+
+                        if (weeklyRest1 >= STANDARD_WEEKLY_REST.getMillis() || weeklyRest2 >= STANDARD_WEEKLY_REST.getMillis()) {
+                            //One of the two last weeks was a non-reduced weekly rest
+                            return getEndMillis(weeklyRest);
+                        }
+                        // None of the two last weeks were standard weekly-rests.
+                        // The driver therefor broke a regulation. But we still need to find
+                        // The last valid weekly break.
+                        weeklyRest = j;
+                        weeklyRest1 = weeklyRest2;
+                    }
+                }
+
+                return getEndMillis(weeklyRest);
+            }
+        }
+
+        throw new NoValidBreakFound("No valid weekly break was found.");
+    }
+
     /**
      * Returns the instant of which the weekly break two weeks ago ended.
      * If there have been no valid weekly breaks the method will return epoch.
      *
      * @return the instant of the weekly break two weeks ago end.
      */
-    public Instant getWeeklyRestEndTimeTwoWeeksAgo() throws NoValidBreakFound {
-        List<Session> subSessions = new ArrayList<Session>();
-        Session session;
-
+    public synchronized Instant getWeeklyRestEndTimeTwoWeeksAgo() throws NoValidBreakFound {
+        long latestWeeklyRest = getLatestWeeklyRestEnd(0, count);
 
-        for (int i = 0; i < sessions.size(); i++) {
-            session = sessions.get(i);
-            if (session != null && session.getEndTime().isBefore(getLatestWeeklyRestEndTime(sessions))) {
-                subSessions = sessions.subList(i, sessions.size() - 1);
+        //The last session that ended before the latest weekly rest decides, so search from the end
+        for (int i = count - 1; i >= 0; i--) {
+            if (getEndMillis(i) < latestWeeklyRest) {
+                return new Instant(getLatestWeeklyRestEnd(i, count - 1));
             }
         }
 
-        return getLatestWeeklyRestEndTime(subSessions);
+        throw new NoValidBreakFound("No valid weekly break was found.");
     }
 
     /**
@@ -455,7 +836,7 @@ public class SessionHistory {
      *
      * @return the driving time since the last daily break.
      */
-    public Duration getActiveTimeSinceLastDailyBreak() {
+    public synchronized Duration getActiveTimeSinceLastDailyBreak() {
         //Get latest Daily break, if no break was found. We are in first week ever. Search all sessions.
         Instant latestDailyBreak;
         try {
@@ -473,12 +854,12 @@ public class SessionHistory {
      *
      * @return the total driving time
      */
-    public Duration getActiveTimeSinceLastWeeklyBreak() {
+    public synchronized Duration getActiveTimeSinceLastWeeklyBreak() {
 
         //Get latest weekly break, if no break was found. We are in first week ever. Search all sessions.
         Instant latestWeeklyBreak;
         try {
-            latestWeeklyBreak = getLatestWeeklyRestEndTime(sessions);
+            latestWeeklyBreak = getLatestWeeklyRestEndTime();
         } catch (NoValidBreakFound e) {
             latestWeeklyBreak = new Instant(0);
         }
@@ -486,7 +867,7 @@ public class SessionHistory {
         return getActiveTimeSince(latestWeeklyBreak);
     }
 
-    public Duration getActiveTimeSinceWeeklyBreakTwoWeeksAgo() {
+    public synchronized Duration getActiveTimeSinceWeeklyBreakTwoWeeksAgo() {
         //Get latest weekly break, if no break was found. We are in first week ever. Search all sessions.
         Instant latestWeeklyBreak;
         try {
@@ -504,7 +885,41 @@ public class SessionHistory {
      * @param sessionIndex The index of the session
      * @return The DateTime of Session at index i.
      */
-    public DateTime getDateOfSession(int sessionIndex) {
-        return new DateTime(sessions.get(sessionIndex).getStartTime());
+    public synchronized DateTime getDateOfSession(int sessionIndex) {
+        return new DateTime(getStartMillis(sessionIndex));
+    }
+
+    /**
+     * The last sessions of the history as Session objects, with the last session first. Sessions
+     * going on are the same objects as were added, the others are made when asked for.
+     */
+    private class NewestFirst extends AbstractList<Session> implements RandomAccess {
+        //Number of sessions in the list, or -1 for all of them
+        private final int size;
+
+        private NewestFirst(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public Session get(int location) {
+            synchronized (SessionHistory.this) {
+                if (location < 0 || location >= size()) {
+                    throw new IndexOutOfBoundsException("Index: " + location + ", Size: " + size());
+                }
+                int position = position(location);
+                if (running[position] != null) {
+                    return running[position];
+                }
+                return new Session(TYPES[types[position]], new Instant(starts[position]), new Instant(ends[position]));
+            }
+        }
+
+        @Override
+        public int size() {
+            synchronized (SessionHistory.this) {
+                return size < 0 ? count : Math.min(size, count);
+            }
+        }
     }
 }
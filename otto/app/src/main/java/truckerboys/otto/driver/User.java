@@ -69,7 +69,7 @@ public class User {
      * Ends the current session and adds the Session to the users history.
      */
     public void endSession(){
-        currentSession.end();
+        history.endSession(currentSession);
         historyDB.overwriteSession(currentSession);
     }
 
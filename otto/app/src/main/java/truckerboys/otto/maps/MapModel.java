@@ -2,19 +2,26 @@ package truckerboys.otto.maps;
 
 import android.location.Address;
 import android.os.Handler;
+import android.os.HandlerThread;
 
 import com.google.android.gms.maps.model.LatLng;
 
+import org.joda.time.Duration;
+
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.planner.PlannedTrip;
 import truckerboys.otto.planner.TripPlanner;
 import truckerboys.otto.utils.LocationHandler;
 import truckerboys.otto.utils.eventhandler.EventBus;
+import truckerboys.otto.utils.eventhandler.events.ChangedRouteEvent;
 import truckerboys.otto.utils.eventhandler.events.EventType;
 import truckerboys.otto.utils.eventhandler.IEventListener;
 import truckerboys.otto.utils.eventhandler.events.Event;
 import truckerboys.otto.utils.eventhandler.events.GPSUpdateEvent;
+import truckerboys.otto.utils.eventhandler.events.RouteProgressEvent;
 import truckerboys.otto.utils.eventhandler.events.RouteRequestEvent;
 import truckerboys.otto.utils.exceptions.CheckpointNotFoundException;
 import truckerboys.otto.utils.exceptions.InvalidRequestException;
@@ -30,45 +37,68 @@ public class MapModel implements IEventListener {
     // The distance from a checkpoint (in meters) that we need to go to change route.
     private static final int DISTANCE_FROM_CHECKPOINT = 200;
 
+    // How close to a checkpoint (in meters or time) we start calculating the route after it.
+    private int prefetchDistance = 2000;
+    private Duration prefetchTime = Duration.standardMinutes(3);
+
     private TripPlanner tripPlanner;
 
-    private Handler updateRouteHandler = new Handler();
+    // Decides when a new route is needed, instead of calculating one on a fixed interval.
+    private ReplanScheduler replanScheduler = new ReplanScheduler();
+    private final AtomicBoolean updateRoutePosted = new AtomicBoolean(false);
+
+    // Calculating a route blocks for several requests, so it is never done on the UI thread.
+    private final Handler updateRouteHandler;
     private Runnable updateRoute = new Runnable() {
         @Override
         public void run() {
-            if(tripPlanner != null && LocationHandler.isConnected()){
-                try {
-                    tripPlanner.updateRoute(LocationHandler.getCurrentLocationAsMapLocation());
-                } catch (InvalidRequestException e) {
-                    e.printStackTrace();
-                } catch (NoConnectionException e) {
-                    e.printStackTrace();
+            updateRoutePosted.set(false);
+            long now = System.currentTimeMillis();
+            long delay = replanScheduler.getDelay(now);
+            if (delay < 0) {
+                return;
+            }
+
+            // If the replan was pushed back since this was posted, it is posted again below.
+            if (delay == 0) {
+                if (tripPlanner != null && LocationHandler.isConnected()) {
+                    try {
+                        tripPlanner.updateRoute(LocationHandler.getCurrentLocationAsMapLocation());
+                        replanned(now);
+                    } catch (InvalidRequestException e) {
+                        replanScheduler.failed(now);
+                    } catch (NoConnectionException e) {
+                        replanScheduler.failed(now);
+                    }
+                } else {
+                    replanScheduler.failed(now);
                 }
             }
 
-            //Call this runnable every 30 seconds.
-            //TODO Uncomment
-            //updateRouteHandler.postDelayed(updateRoute, 120*1000);
+            scheduleUpdateRoute();
         }
     };
 
     // If we've been close to a checkpoint on the route.
     private boolean closeToCheckpoint = false;
 
+    // Keeps track of where on the route we are, to update ETA's without requesting a new route.
+    private RouteProgressTracker progressTracker = new RouteProgressTracker();
+
     public MapModel(final TripPlanner tripPlanner) {
         this.tripPlanner = tripPlanner;
+        HandlerThread replanThread = new HandlerThread("MapModel-replan");
+        replanThread.start();
+        updateRouteHandler = new Handler(replanThread.getLooper());
         EventBus.getInstance().subscribe(this, EventType.GPS_UPDATE, EventType.ROUTE);
-        //TODO Uncomment
-        //updateRouteHandler.post(updateRoute);
     }
 
     @Override
     public void performEvent(Event event) {
         /**
          * When the LocationHandler registers a location change it fires a GPSUpdateEvent.
-         * We need to catch this here in order to check if we passed a checkpoint on the route.
-         *
-         * TODO Implement the fact that you can also be outside the route. If so, calculate a new one.
+         * We need to catch this here in order to check if we passed a checkpoint on the route,
+         * and if the route has to be calculated again, because we left it or the ETA changed.
          */
         //region GPSUpdateEvent
         if (event.isType(GPSUpdateEvent.class)) {
@@ -92,24 +122,63 @@ public class MapModel implements IEventListener {
                         // We left checkpoint range again, calculate new route to final destination.
                         if (newPosition.distanceTo(nextCheckpoint) > DISTANCE_FROM_CHECKPOINT) {
                             tripPlanner.passedCheckpoint(nextCheckpoint);
-                            tripPlanner.updateRoute(LocationHandler.getCurrentLocationAsMapLocation());
+                            // Use the route calculated on the way to the checkpoint if it is ready.
+                            if (tripPlanner.usePrefetchedRoute(nextCheckpoint)) {
+                                replanned(System.currentTimeMillis());
+                            } else {
+                                replanScheduler.request(System.currentTimeMillis());
+                            }
                             closeToCheckpoint = false;
                         }
                     }
                 }
-            } catch (NoConnectionException e) {
-                //TODO Show a "Bad connection" symbol in view?
+
+                //Update what is left of the route locally
+                if (progressTracker.update(newPosition) && getRoute().getCheckpoints().size() > 0) {
+                    RouteLocation nextCheckpoint = getRoute().getCheckpoints().get(0);
+                    EventBus.getInstance().newEvent(new RouteProgressEvent(
+                            progressTracker.getDistanceLeft(nextCheckpoint), progressTracker.getTimeLeft(nextCheckpoint),
+                            progressTracker.getDistanceLeft(), progressTracker.getTimeLeft()));
+
+                    // Close to the checkpoint, start calculating the route after it.
+                    if (progressTracker.getDistanceLeft(nextCheckpoint) < prefetchDistance ||
+                            progressTracker.getTimeLeft(nextCheckpoint).isShorterThan(prefetchTime)) {
+                        tripPlanner.prefetchAfterCheckpoint(nextCheckpoint);
+                    }
+                }
+
+                //region Check if the route has to be calculated again.
+                if (progressTracker.hasProgress()) {
+                    replanScheduler.update(System.currentTimeMillis(), progressTracker.getDistanceFromRoute(),
+                            progressTracker.getTimeLeft(), tripPlanner.getSessionTimeLeft());
+                }
+                //endregion
             } catch (NoActiveRouteException e) {
                 // Driver has not defined a route, no need to calculate if we've passed checkpoints.
-            } catch (InvalidRequestException e) {
-                
             } catch (CheckpointNotFoundException e) {
                 closeToCheckpoint = false;
             }
+            scheduleUpdateRoute();
             //endregion
         }
         //endregion
 
+        /*
+         * When the TripPlanner has a new route, start following that one instead.
+         * The scheduler is told by whoever asked for the route, the event is also sent when only
+         * the stops of the whole trip have been planned.
+         */
+        //region ChangedRouteEvent
+        if (event.isType(ChangedRouteEvent.class)) {
+            try {
+                progressTracker.setRoute(getRoute());
+            } catch (NoActiveRouteException e) {
+                progressTracker.setRoute(null);
+                replanScheduler.reset();
+            }
+        }
+        //endregion
+
         /*
          * When a Route is requested by the user (More specifically this is done from RouteActivity when
          * the user presses 'Navigate'). We need to pass all this information to the TripPlanner making it calculate
@@ -131,6 +200,8 @@ public class MapModel implements IEventListener {
                         new MapLocation(new LatLng(((RouteRequestEvent) event).getFinalDestion().getLatitude(),
                                 ((RouteRequestEvent) event).getFinalDestion().getLongitude())),
                         checkpoints);
+                replanned(System.currentTimeMillis());
+                planTrip();
             } catch (InvalidRequestException e) {
                 //TODO Create proper catch
                 e.printStackTrace();
@@ -142,7 +213,63 @@ public class MapModel implements IEventListener {
         //endregion
     }
 
+    /**
+     * Plan every stop of the trip along the new route in the background, it takes a search every
+     * half hour of the route. Reports back through the ChangedRouteEvent when done.
+     */
+    private void planTrip() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tripPlanner.planTrip();
+                } catch (NoActiveRouteException e) {
+                    // The trip is planned once the route is there.
+                }
+            }
+        }, "MapModel-planTrip").start();
+    }
+
+    /**
+     * Tell the scheduler that a new route was calculated.
+     *
+     * @param now when the calculation was started.
+     */
+    private void replanned(long now) {
+        try {
+            replanScheduler.replanned(now, getRoute().getEta(), tripPlanner.getSessionTimeLeft());
+        } catch (NoActiveRouteException e) {
+            replanScheduler.reset();
+        }
+    }
+
+    /**
+     * Post the runnable calculating a new route, if the scheduler wants one and it is not already posted.
+     */
+    private void scheduleUpdateRoute() {
+        long delay = replanScheduler.getDelay(System.currentTimeMillis());
+        if (delay >= 0 && updateRoutePosted.compareAndSet(false, true)) {
+            updateRouteHandler.postDelayed(updateRoute, delay);
+        }
+    }
+
+    /**
+     * Set how close to a checkpoint the route after it starts being calculated.
+     * It is started when either of the limits is reached.
+     *
+     * @param distance distance left to the checkpoint in meters.
+     * @param time time left to the checkpoint.
+     */
+    public void setPrefetchThreshold(int distance, Duration time) {
+        this.prefetchDistance = distance;
+        this.prefetchTime = time;
+    }
+
     public Route getRoute() throws NoActiveRouteException {
         return tripPlanner.getRoute();
     }
+
+    public PlannedTrip getPlannedTrip() throws NoActiveRouteException {
+        return tripPlanner.getPlannedTrip();
+    }
 }
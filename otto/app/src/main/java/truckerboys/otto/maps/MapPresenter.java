@@ -7,8 +7,13 @@ import android.support.v4.app.Fragment;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.LatLngBounds;
 
+import org.joda.time.Duration;
+
+import java.util.ArrayList;
+
 import truckerboys.otto.utils.IPresenter;
 import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.planner.ScheduledStop;
 import truckerboys.otto.planner.TripPlanner;
 import truckerboys.otto.utils.LocationHandler;
 import truckerboys.otto.utils.eventhandler.EventBus;
@@ -16,6 +21,7 @@ import truckerboys.otto.utils.eventhandler.events.EventType;
 import truckerboys.otto.utils.eventhandler.IEventListener;
 import truckerboys.otto.utils.eventhandler.events.ChangedRouteEvent;
 import truckerboys.otto.utils.eventhandler.events.Event;
+import truckerboys.otto.utils.eventhandler.events.RouteProgressEvent;
 import truckerboys.otto.utils.eventhandler.events.RouteRequestEvent;
 import truckerboys.otto.utils.exceptions.NoActiveRouteException;
 import truckerboys.otto.utils.positions.RouteLocation;
@@ -64,6 +70,13 @@ public class MapPresenter implements IEventListener, IPresenter {
             } catch (NoActiveRouteException e) {
                 //TODO Make proper catch.
             }
+
+            // The stops of the whole trip, once the TripPlanner has planned them.
+            try {
+                mapView.setScheduledStops(mapModel.getPlannedTrip().getScheduledStops());
+            } catch (NoActiveRouteException e) {
+                mapView.setScheduledStops(new ArrayList<ScheduledStop>());
+            }
         }
         //endregion
 
@@ -84,8 +97,8 @@ public class MapPresenter implements IEventListener, IPresenter {
                 Route route = mapModel.getRoute();
 
                 mapView.setFinalDestinationText(route.getFinalDestination().getAddress());
-                mapView.setFinalDestinationDistText(((route.getDistance() + 50) / 100) / 10.0 + "km | ");
-                mapView.setFinalDestinationETAText(route.getEta().getStandardHours()  + "h " + mapModel.getRoute().getEta().getStandardMinutes() % 60 + "min");
+                mapView.setFinalDestinationDistText(formatDistance(route.getDistance()));
+                mapView.setFinalDestinationETAText(formatTime(route.getEta()));
                 mapView.showStartRouteDialog(true);
 
                 // Get first checkpoint
@@ -93,8 +106,8 @@ public class MapPresenter implements IEventListener, IPresenter {
 
                 // Display the adress of the first checkpoint to the driver.
                 mapView.setNextCheckpointText(firstCheckpoint.getAddress());
-                mapView.setNextCheckpointDistText(((firstCheckpoint.getDistance() + 50) / 100) / 10.0 + "km | ");
-                mapView.setNextCheckpointETAText(firstCheckpoint.getEta().getStandardHours()  + "h " + firstCheckpoint.getEta().getStandardMinutes() % 60 + "min");
+                mapView.setNextCheckpointDistText(formatDistance(firstCheckpoint.getDistance()));
+                mapView.setNextCheckpointETAText(formatTime(firstCheckpoint.getEta()));
 
                 LatLngBounds.Builder builder = new LatLngBounds.Builder();
                 builder.include(LocationHandler.getCurrentLocationAsLatLng());
@@ -111,6 +124,29 @@ public class MapPresenter implements IEventListener, IPresenter {
             }
         }
         //endregion
+
+        /*
+         * On every GPS update the MapModel calculates what is left of the route,
+         * keep the distance and ETA texts up to date with it.
+         */
+        //region RouteProgressEvent
+        if (event.isType(RouteProgressEvent.class)) {
+            RouteProgressEvent progressEvent = (RouteProgressEvent) event;
+
+            mapView.setFinalDestinationDistText(formatDistance(progressEvent.getDistanceToFinalDestination()));
+            mapView.setFinalDestinationETAText(formatTime(progressEvent.getTimeToFinalDestination()));
+            mapView.setNextCheckpointDistText(formatDistance(progressEvent.getDistanceToNextCheckpoint()));
+            mapView.setNextCheckpointETAText(formatTime(progressEvent.getTimeToNextCheckpoint()));
+        }
+        //endregion
+    }
+
+    private String formatDistance(int meters) {
+        return ((meters + 50) / 100) / 10.0 + "km | ";
+    }
+
+    private String formatTime(Duration time) {
+        return time.getStandardHours() + "h " + time.getStandardMinutes() % 60 + "min";
     }
 
     @Override
@@ -31,6 +31,7 @@ import java.util.List;
 
 import truckerboys.otto.R;
 import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.planner.ScheduledStop;
 import truckerboys.otto.utils.LocationHandler;
 import truckerboys.otto.utils.eventhandler.EventBus;
 import truckerboys.otto.utils.eventhandler.events.EventType;
@@ -52,6 +53,7 @@ public class MapView extends Fragment implements IEventListener, GoogleMap.OnCam
     private GoogleMap googleMap;
     private Marker positionMarker;
     private List<Marker> checkpointMarkers = new LinkedList<Marker>();
+    private List<Marker> scheduledStopMarkers = new LinkedList<Marker>();
     private Polyline routePolyline;
 
     // Button that is clicked when the user wants to start following a route.
@@ -265,6 +267,51 @@ public class MapView extends Fragment implements IEventListener, GoogleMap.OnCam
         }
     }
 
+    /**
+     * Function that will set the markers of the stops planned for the whole trip.
+     *
+     * @param scheduledStops The stops of the trip, in the order they are reached.
+     */
+    public void setScheduledStops(final List<ScheduledStop> scheduledStops) {
+        if (googleMap != null) {
+            getActivity().runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    // Clear the old markers off the map.
+                    for (Marker marker : scheduledStopMarkers) {
+                        marker.remove();
+                    }
+                    scheduledStopMarkers.clear();
+
+                    // Add the new markers to the map, in another color than the checkpoints.
+                    for (ScheduledStop stop : scheduledStops) {
+                        scheduledStopMarkers.add(googleMap.addMarker(new MarkerOptions()
+                                        .position(stop.getLocation().getLatLng())
+                                        .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_AZURE))
+                                        .title(getRestName(stop) + ", Driving time: " + stop.getDrivingTime().getStandardMinutes())
+                        ));
+                    }
+                }
+            });
+
+        }
+    }
+
+    private String getRestName(ScheduledStop stop) {
+        String name;
+        switch (stop.getRestType()) {
+            case WEEKLY_REST:
+                name = "Weekly rest";
+                break;
+            case DAILY_REST:
+                name = "Daily rest";
+                break;
+            default:
+                name = "Break";
+        }
+        return stop.isRefuel() ? name + " and refuel" : name;
+    }
+
     /**
      * Updates the marker for our current position, will also interpolate the position making it
      * move smoothly across the map between each GPS Update.
@@ -406,7 +453,7 @@ public class MapView extends Fragment implements IEventListener, GoogleMap.OnCam
             @Override
             public void run() {
             //Add all new steps.
-            routePolyline.setPoints(route.getDetailedPolyline());
+            routePolyline.setPoints(route.getDetailedPolyline().toLatLngList());
             }
         });
     }
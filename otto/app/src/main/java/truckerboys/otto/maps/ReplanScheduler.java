@@ -0,0 +1,161 @@
+package truckerboys.otto.maps;
+
+import org.joda.time.Duration;
+
+/**
+ * Decides when the route should be calculated again, instead of doing it on a fixed interval.
+ * <p/>
+ * A new route is wanted when the ETA has drifted from the one of the last route, when the truck
+ * has left the route, when the driving time left of the driver has changed in a way that driving
+ * does not explain, or when the last route is getting old. Triggers that come close together,
+ * like passing a checkpoint followed by a jump of the GPS, are coalesced into one new route.
+ * There is always a minimum time between two new routes, and failed attempts back off.
+ * <p/>
+ * All times are in milliseconds, passed in by the caller so the scheduler does not depend on a clock.
+ */
+public class ReplanScheduler {
+    //Difference in ETA to the final destination that is worth a new route
+    public static final Duration ETA_DRIFT = Duration.standardMinutes(5);
+    //Change in session time left that driving since the last route does not explain, like a break
+    public static final Duration REGULATION_CHANGE = Duration.standardMinutes(15);
+    //The route is calculated again at least this often, to catch changes in traffic
+    public static final Duration MAX_ROUTE_AGE = Duration.standardMinutes(15);
+    //Distance from the route (in meters) where the truck is considered to have left it
+    public static final double DISTANCE_FROM_ROUTE = 100;
+    //Number of positions in a row off the route before it counts, to not react on GPS noise
+    public static final int OFF_ROUTE_UPDATES = 3;
+
+    //How long to wait for more triggers before calculating the route
+    public static final Duration COALESCE_DELAY = Duration.standardSeconds(2);
+    //Minimum time between two new routes
+    public static final Duration MIN_SPACING = Duration.standardSeconds(30);
+    //Longest time to wait after failed attempts
+    public static final Duration MAX_BACKOFF = Duration.standardMinutes(10);
+
+    private long lastReplan = Long.MIN_VALUE;
+    private long backoffUntil = Long.MIN_VALUE;
+    private int failures = 0;
+
+    //State when the last route was calculated
+    private long plannedAt = 0;
+    private long plannedArrival = -1;
+    private long plannedSessionTimeLeft = -1;
+
+    private int offRouteUpdates = 0;
+
+    private boolean pending = false;
+    private long pendingSince = 0;
+
+    /**
+     * Ask for a new route, for example after passing a checkpoint.
+     *
+     * @param now current time.
+     */
+    public synchronized void request(long now) {
+        if (!pending) {
+            pending = true;
+            pendingSince = now;
+        }
+    }
+
+    /**
+     * Check the triggers against a new position on the route.
+     *
+     * @param now               current time.
+     * @param distanceFromRoute distance from the position to the route in meters.
+     * @param routeTimeLeft     driving time left to the final destination along the current route.
+     * @param sessionTimeLeft   driving time left of the driver this session.
+     * @return true if a new route is wanted.
+     */
+    public synchronized boolean update(long now, double distanceFromRoute, Duration routeTimeLeft, Duration sessionTimeLeft) {
+        if (distanceFromRoute > DISTANCE_FROM_ROUTE) {
+            offRouteUpdates++;
+        } else {
+            offRouteUpdates = 0;
+        }
+
+        if (offRouteUpdates >= OFF_ROUTE_UPDATES || hasEtaDrifted(now, routeTimeLeft) ||
+                hasRegulationChanged(now, sessionTimeLeft) || isRouteOld(now)) {
+            request(now);
+        }
+        return pending;
+    }
+
+    /**
+     * Get how long to wait before calculating the new route.
+     *
+     * @param now current time.
+     * @return the delay in milliseconds, or -1 if no new route is wanted.
+     */
+    public synchronized long getDelay(long now) {
+        if (!pending) {
+            return -1;
+        }
+        long at = pendingSince + COALESCE_DELAY.getMillis();
+        if (lastReplan != Long.MIN_VALUE) {
+            at = Math.max(at, lastReplan + MIN_SPACING.getMillis());
+        }
+        at = Math.max(at, backoffUntil);
+        return Math.max(0, at - now);
+    }
+
+    /**
+     * Tell the scheduler that a new route was calculated.
+     *
+     * @param now             current time.
+     * @param routeTimeLeft   driving time to the final destination along the new route.
+     * @param sessionTimeLeft driving time left of the driver this session.
+     */
+    public synchronized void replanned(long now, Duration routeTimeLeft, Duration sessionTimeLeft) {
+        lastReplan = now;
+        failures = 0;
+        backoffUntil = Long.MIN_VALUE;
+        plannedAt = now;
+        plannedArrival = now + routeTimeLeft.getMillis();
+        plannedSessionTimeLeft = sessionTimeLeft.getMillis();
+        offRouteUpdates = 0;
+        pending = false;
+    }
+
+    /**
+     * Tell the scheduler that calculating a new route failed. The route is tried again later,
+     * waiting twice as long after every failure in a row.
+     *
+     * @param now current time.
+     */
+    public synchronized void failed(long now) {
+        lastReplan = now;
+        failures++;
+        long backoff = MIN_SPACING.getMillis() << Math.min(failures, 16);
+        backoffUntil = now + Math.min(backoff, MAX_BACKOFF.getMillis());
+    }
+
+    /**
+     * Forget everything about the last route, for example when there is no route anymore.
+     */
+    public synchronized void reset() {
+        plannedArrival = -1;
+        plannedSessionTimeLeft = -1;
+        offRouteUpdates = 0;
+        pending = false;
+    }
+
+    private boolean hasEtaDrifted(long now, Duration routeTimeLeft) {
+        return plannedArrival >= 0 &&
+                Math.abs(now + routeTimeLeft.getMillis() - plannedArrival) > ETA_DRIFT.getMillis();
+    }
+
+    private boolean hasRegulationChanged(long now, Duration sessionTimeLeft) {
+        if (plannedSessionTimeLeft < 0) {
+            return false;
+        }
+        //Driving explains a decrease of at most the time passed, and resting no decrease at all
+        long passed = now - plannedAt;
+        return sessionTimeLeft.getMillis() - plannedSessionTimeLeft > REGULATION_CHANGE.getMillis() ||
+                plannedSessionTimeLeft - sessionTimeLeft.getMillis() > passed + REGULATION_CHANGE.getMillis();
+    }
+
+    private boolean isRouteOld(long now) {
+        return plannedArrival >= 0 && now - plannedAt > MAX_ROUTE_AGE.getMillis();
+    }
+}
@@ -0,0 +1,164 @@
+package truckerboys.otto.maps;
+
+import android.location.Location;
+
+import org.joda.time.Duration;
+
+import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.directionsAPI.RouteGeometry;
+import truckerboys.otto.directionsAPI.SegmentIndex;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * Follows the progress along the active route by snapping every GPS position to the route polyline.
+ * <p/>
+ * The distance and driving time left to the checkpoints are calculated from the snapped position,
+ * so they can be updated on every GPS update without asking Google for a new route.
+ */
+public class RouteProgressTracker {
+    //Number of segments ahead of the last match that are searched before searching the whole route
+    private static final int SEARCH_WINDOW = 50;
+    //A match further away than this (in meters) is not trusted, the whole route is searched instead
+    private static final double MAX_WINDOW_MATCH_DISTANCE = 50;
+    //How far from the position (in meters) the whole route is searched
+    private static final double MAX_SEARCH_DISTANCE = 2000;
+
+    private RouteGeometry geometry;
+
+    private int matchedSegment = 0;
+    private double progressDistance = 0;
+    private double progressDuration = 0;
+    private double distanceFromRoute = Double.MAX_VALUE;
+    private boolean hasPosition = false;
+
+    /**
+     * Start following a new route, or stop following if route is null.
+     *
+     * @param route the route to follow.
+     */
+    public void setRoute(Route route) {
+        RouteGeometry newGeometry = route == null ? null : route.getGeometry();
+        synchronized (this) {
+            geometry = newGeometry;
+            matchedSegment = 0;
+            progressDistance = 0;
+            progressDuration = 0;
+            distanceFromRoute = Double.MAX_VALUE;
+            hasPosition = false;
+        }
+    }
+
+    /**
+     * Snap a new position to the route.
+     *
+     * @param position the new position.
+     * @return true if there is a route to follow and the progress was updated.
+     */
+    public synchronized boolean update(Location position) {
+        if (geometry == null || geometry.size() == 0) {
+            return false;
+        }
+
+        if (geometry.size() == 1) {
+            matchedSegment = 0;
+            distanceFromRoute = RouteGeometry.distanceBetween(position.getLatitude(), position.getLongitude(),
+                    geometry.getPolyline().getLatitude(0), geometry.getPolyline().getLongitude(0));
+            hasPosition = true;
+            return true;
+        }
+
+        int lastSegment = geometry.size() - 2;
+        SegmentIndex index = geometry.getSegmentIndex();
+        SegmentIndex.Match match = index.findNearest(position.getLatitude(), position.getLongitude(),
+                Math.max(0, matchedSegment - 2), Math.min(lastSegment, matchedSegment + SEARCH_WINDOW));
+        if (match.getDistance() > MAX_WINDOW_MATCH_DISTANCE) {
+            //Not close to where we were, could have been a long time since the last position
+            SegmentIndex.Match closest = index.findNearest(position.getLatitude(), position.getLongitude(), MAX_SEARCH_DISTANCE);
+            if (closest == null) {
+                //Far away from the whole route, keep the progress we had
+                distanceFromRoute = match.getDistance();
+                hasPosition = true;
+                return true;
+            }
+            match = closest;
+        }
+
+        matchedSegment = match.getSegment();
+        distanceFromRoute = match.getDistance();
+        progressDistance = geometry.getDistance(match);
+        progressDuration = geometry.getDuration(match);
+        hasPosition = true;
+        return true;
+    }
+
+    /**
+     * Check if a position has been snapped to the current route.
+     *
+     * @return true if there is progress along the current route.
+     */
+    public synchronized boolean hasProgress() {
+        return geometry != null && hasPosition;
+    }
+
+    /**
+     * Get the distance left to the end of the route.
+     *
+     * @return distance in meters.
+     */
+    public synchronized int getDistanceLeft() {
+        return geometry == null ? 0 : (int) Math.max(0, geometry.getTotalDistance() - progressDistance);
+    }
+
+    /**
+     * Get the driving time left to the end of the route.
+     *
+     * @return driving time left.
+     */
+    public synchronized Duration getTimeLeft() {
+        return geometry == null ? Duration.ZERO : toDuration(geometry.getTotalDuration() - progressDuration);
+    }
+
+    /**
+     * Get the distance left to a checkpoint of the route.
+     *
+     * @param checkpoint a checkpoint of the route, with distance from the start of the route.
+     * @return distance in meters.
+     */
+    public synchronized int getDistanceLeft(RouteLocation checkpoint) {
+        return (int) Math.max(0, checkpoint.getDistance() - progressDistance);
+    }
+
+    /**
+     * Get the driving time left to a checkpoint of the route.
+     *
+     * @param checkpoint a checkpoint of the route, with ETA from the start of the route.
+     * @return driving time left.
+     */
+    public synchronized Duration getTimeLeft(RouteLocation checkpoint) {
+        return toDuration(checkpoint.getEta().getStandardSeconds() - progressDuration);
+    }
+
+    /**
+     * Get the distance from the last position to the closest point on the route.
+     * When further than a couple of kilometers from the route this is only a lower bound.
+     *
+     * @return distance in meters, Double.MAX_VALUE if there is no position on the route.
+     */
+    public synchronized double getDistanceFromRoute() {
+        return distanceFromRoute;
+    }
+
+    /**
+     * Get the index of the segment of the polyline that the last position was snapped to.
+     * Segment i goes from point i to point i + 1 of the detailed polyline.
+     *
+     * @return index of the segment.
+     */
+    public synchronized int getMatchedSegment() {
+        return matchedSegment;
+    }
+
+    private static Duration toDuration(double seconds) {
+        return new Duration((long) (Math.max(0, seconds) * 1000));
+    }
+}
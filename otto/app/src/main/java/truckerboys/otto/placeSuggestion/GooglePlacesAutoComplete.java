@@ -3,10 +3,9 @@ package truckerboys.otto.placeSuggestion;
 import android.util.Log;
 
 import java.util.List;
-import java.util.concurrent.ExecutionException;
 
 import truckerboys.otto.placesAPI.GooglePlacesJSONDecoder;
-import truckerboys.otto.utils.GoogleRequesterHandler;
+import truckerboys.otto.utils.HttpTransport;
 import truckerboys.otto.utils.exceptions.InvalidRequestException;
 import truckerboys.otto.utils.exceptions.NoConnectionException;
 import truckerboys.otto.utils.positions.MapLocation;
@@ -40,15 +39,7 @@ public class GooglePlacesAutoComplete implements IPlacesAutoComplete {
         Log.w("Request", request);
 
 
-        try {
-            response = new GoogleRequesterHandler().execute(request).get();
-        }catch (ExecutionException e) {
-            e.printStackTrace();
-            throw new NoConnectionException(e.getMessage());
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            throw new NoConnectionException(e.getMessage());
-        }
+        response = HttpTransport.getInstance().request(request);
         Log.w("Response", response);
         return GooglePlacesJSONDecoder.getAutoCompleteList(response);
     }
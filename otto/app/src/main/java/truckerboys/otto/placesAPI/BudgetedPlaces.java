@@ -0,0 +1,45 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+
+import truckerboys.otto.utils.RequestBudget;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * IPlaces decorator that only lets searches through while there is budget left.
+ * <p/>
+ * A search over the budget fails the same way as a search without connection.
+ */
+public class BudgetedPlaces implements IPlaces {
+    private final IPlaces places;
+    private final RequestBudget budget;
+
+    /**
+     * @param places the IPlaces that does the actual requests.
+     * @param budget the budget every request is taken from.
+     */
+    public BudgetedPlaces(IPlaces places, RequestBudget budget) {
+        this.places = places;
+        this.budget = budget;
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+        if (!budget.tryUse()) {
+            //Same as IPlaces implementations that fail to connect.
+            return null;
+        }
+        return places.getNearbyRestLocations(position);
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+        if (!budget.tryUse()) {
+            throw new NoConnectionException("Places request budget used up");
+        }
+        return places.getNearbyGasStations(position);
+    }
+}
@@ -0,0 +1,256 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.joda.time.Duration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.Geohash;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * IPlaces decorator that remembers search results per geohash cell and type of search.
+ * <p/>
+ * Stops do not move, so results are kept for a long time and saved in a PlacesCacheOpenHelper,
+ * which means that a trip along a road that has been driven before needs few or no searches.
+ * The most recently used results are also kept in memory.
+ */
+public class CachedPlaces implements IPlaces {
+    //Cells of roughly 1.2 x 0.6 km, small compared to the 5 km radius of a search
+    public static final int GEOHASH_PRECISION = 6;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.standardDays(30);
+
+    private static final int MAX_ENTRIES_IN_MEMORY = 128;
+
+    private static final String REST = "rest";
+    private static final String GAS = "gas";
+
+    private final IPlaces places;
+    private final PlacesCacheOpenHelper store;
+    private final long timeToLiveMillis;
+
+    private final LinkedHashMap<String, CacheEntry> memory = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_ENTRIES_IN_MEMORY;
+        }
+    };
+
+    //Guarded by this, like the memory and the statistics
+    private boolean storePruned = false;
+
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * Creates a cache with the default time to live.
+     *
+     * @param places the IPlaces to ask when the result is not cached.
+     * @param store  where results are saved between trips, or null to only keep them in memory.
+     */
+    public CachedPlaces(IPlaces places, PlacesCacheOpenHelper store) {
+        this(places, store, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param places     the IPlaces to ask when the result is not cached.
+     * @param store      where results are saved between trips, or null to only keep them in memory.
+     * @param timeToLive how long a result may be reused.
+     */
+    public CachedPlaces(IPlaces places, PlacesCacheOpenHelper store, Duration timeToLive) {
+        this.places = places;
+        this.store = store;
+        this.timeToLiveMillis = timeToLive.getMillis();
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+        String key = createKey(REST, position);
+
+        ArrayList<RouteLocation> cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        ArrayList<RouteLocation> response = places.getNearbyRestLocations(position);
+        if (response != null) {
+            put(key, response);
+        }
+        return response;
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+        String key = createKey(GAS, position);
+
+        ArrayList<RouteLocation> cached = get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        ArrayList<RouteLocation> response = places.getNearbyGasStations(position);
+        put(key, response);
+        return response;
+    }
+
+    /**
+     * Get the number of searches answered by the cache.
+     *
+     * @return number of hits.
+     */
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of searches that had to be made.
+     *
+     * @return number of misses.
+     */
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the share of searches answered by the cache since the statistics were reset.
+     *
+     * @return hit ratio between 0 and 1, 0 if there have been no searches.
+     */
+    public synchronized double getHitRatio() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * Reset the hit and miss counts, for example when a new trip is started.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+    }
+
+    private ArrayList<RouteLocation> get(String key) {
+        long now = System.currentTimeMillis();
+        CacheEntry cached;
+
+        synchronized (this) {
+            cached = memory.get(key);
+            if (cached != null && now - cached.fetchedAt > timeToLiveMillis) {
+                memory.remove(key);
+                cached = null;
+            }
+        }
+
+        if (cached == null && store != null) {
+            boolean prune;
+            synchronized (this) {
+                prune = !storePruned;
+                storePruned = true;
+            }
+            if (prune) {
+                store.deleteOlderThan(now - timeToLiveMillis);
+            }
+            String encoded = store.getPlaces(key, now - timeToLiveMillis);
+            if (encoded != null) {
+                cached = decode(encoded);
+                synchronized (this) {
+                    memory.put(key, cached);
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (cached == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        //Callers may add to the list, but the RouteLocations themselves are shared
+        return new ArrayList<RouteLocation>(cached.places);
+    }
+
+    private void put(String key, ArrayList<RouteLocation> response) {
+        CacheEntry entry = new CacheEntry(System.currentTimeMillis(), new ArrayList<RouteLocation>(response));
+
+        synchronized (this) {
+            memory.put(key, entry);
+        }
+        if (store != null) {
+            store.savePlaces(key, entry.fetchedAt, encode(entry));
+        }
+    }
+
+    private String createKey(String search, LatLng position) {
+        return search + ":" + Geohash.encode(position.latitude, position.longitude, GEOHASH_PRECISION);
+    }
+
+    /**
+     * Encode a search result to a string. The first line is the time it was fetched,
+     * followed by one line per location with its coordinates and types.
+     *
+     * @param entry the search result to encode.
+     * @return the encoded search result.
+     */
+    static String encode(CacheEntry entry) {
+        StringBuilder encoded = new StringBuilder();
+        encoded.append(entry.fetchedAt).append('\n');
+        for (RouteLocation location : entry.places) {
+            encoded.append(location.getLatitude()).append(',').append(location.getLongitude());
+            if (location.getType() != null) {
+                for (String type : location.getType()) {
+                    encoded.append(',').append(type);
+                }
+            }
+            encoded.append('\n');
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Decode a search result encoded by encode.
+     *
+     * @param encoded the encoded search result.
+     * @return the search result, with locations as they are created by GooglePlacesJSONDecoder.
+     */
+    static CacheEntry decode(String encoded) {
+        String[] lines = encoded.split("\n");
+        ArrayList<RouteLocation> decoded = new ArrayList<RouteLocation>();
+
+        for (int i = 1; i < lines.length; i++) {
+            if (lines[i].length() == 0) {
+                continue;
+            }
+            String[] fields = lines[i].split(",");
+            RouteLocation location = new RouteLocation(
+                    new LatLng(Double.parseDouble(fields[0]), Double.parseDouble(fields[1])), "", null, null, -1);
+            location.setType(new ArrayList<String>(Arrays.asList(fields).subList(2, fields.length)));
+            decoded.add(location);
+        }
+        return new CacheEntry(Long.parseLong(lines[0]), decoded);
+    }
+
+    static class CacheEntry {
+        private final long fetchedAt;
+        private final ArrayList<RouteLocation> places;
+
+        CacheEntry(long fetchedAt, ArrayList<RouteLocation> places) {
+            this.fetchedAt = fetchedAt;
+            this.places = places;
+        }
+
+        ArrayList<RouteLocation> getPlaces() {
+            return places;
+        }
+
+        long getFetchedAt() {
+            return fetchedAt;
+        }
+    }
+}
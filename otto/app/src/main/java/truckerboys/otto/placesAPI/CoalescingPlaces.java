@@ -0,0 +1,88 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import truckerboys.otto.utils.SingleFlight;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * IPlaces decorator that lets concurrent identical searches share one request.
+ * <p/>
+ * Every caller gets its own copy of the resulting list, since callers may add to it.
+ */
+public class CoalescingPlaces implements IPlaces {
+    private final IPlaces places;
+
+    private final SingleFlight<ArrayList<RouteLocation>> searches = new SingleFlight<ArrayList<RouteLocation>>();
+
+    /**
+     * @param places the IPlaces that does the actual requests.
+     */
+    public CoalescingPlaces(IPlaces places) {
+        this.places = places;
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyRestLocations(final LatLng position) {
+        try {
+            return copy(searches.execute("rest:" + position.latitude + "," + position.longitude,
+                    new Callable<ArrayList<RouteLocation>>() {
+                        @Override
+                        public ArrayList<RouteLocation> call() {
+                            return places.getNearbyRestLocations(position);
+                        }
+                    }));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            //Same as IPlaces implementations that fail to connect.
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyGasStations(final LatLng position) throws NoConnectionException {
+        try {
+            return copy(searches.execute("gas:" + position.latitude + "," + position.longitude,
+                    new Callable<ArrayList<RouteLocation>>() {
+                        @Override
+                        public ArrayList<RouteLocation> call() throws NoConnectionException {
+                            return places.getNearbyGasStations(position);
+                        }
+                    }));
+        } catch (NoConnectionException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new NoConnectionException(e.toString());
+        }
+    }
+
+    /**
+     * Get the number of searches made through this IPlaces.
+     *
+     * @return number of searches.
+     */
+    public int getCalls() {
+        return searches.getCalls();
+    }
+
+    /**
+     * Get the number of searches that shared an already running request instead of making a new one.
+     *
+     * @return number of saved requests.
+     */
+    public int getSavedCalls() {
+        return searches.getSharedCalls();
+    }
+
+    private ArrayList<RouteLocation> copy(ArrayList<RouteLocation> locations) {
+        return locations == null ? null : new ArrayList<RouteLocation>(locations);
+    }
+}
@@ -0,0 +1,169 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import truckerboys.otto.directionsAPI.RouteGeometry;
+import truckerboys.otto.directionsAPI.SegmentIndex;
+import truckerboys.otto.utils.RequestBudget;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * IPlaces decorator that keeps every stop found along the current route in a StopIndex.
+ * <p/>
+ * A replan probes more or less the same points along the route as the previous one, so once a part
+ * of the route corridor has been searched, searches there are answered by the index without any
+ * request. The index is kept until clear is called, which should be done when the route changes.
+ * <p/>
+ * When the request budget is running low, a part of the corridor that has not been searched is
+ * answered with the stops already found close to it, if there are any.
+ */
+public class CorridorPlaces implements IPlaces {
+    //Same radius as the searches made by GooglePlaces
+    public static final int SEARCH_RADIUS = 5000;
+
+    private static final int MAX_RESULTS = 20;
+
+    //Searches made by findStops before giving up
+    public static final int MAX_SEARCH_ATTEMPTS = 4;
+
+    private final IPlaces places;
+
+    private final StopIndex restLocations = new StopIndex();
+    private final StopIndex gasStations = new StopIndex();
+
+    private RequestBudget budget;
+
+    /**
+     * @param places the IPlaces used for parts of the corridor that have not been searched.
+     */
+    public CorridorPlaces(IPlaces places) {
+        this.places = places;
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+        if (restLocations.isSearched(position) || isKnownEnough(restLocations, position)) {
+            return new ArrayList<RouteLocation>(restLocations.getNearest(position, MAX_RESULTS, SEARCH_RADIUS));
+        }
+
+        ArrayList<RouteLocation> response = places.getNearbyRestLocations(position);
+        if (response != null) {
+            restLocations.addSearch(position, SEARCH_RADIUS, response);
+        }
+        return response;
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+        if (gasStations.isSearched(position) || isKnownEnough(gasStations, position)) {
+            return new ArrayList<RouteLocation>(gasStations.getNearest(position, MAX_RESULTS, SEARCH_RADIUS));
+        }
+
+        ArrayList<RouteLocation> response = places.getNearbyGasStations(position);
+        if (response != null) {
+            gasStations.addSearch(position, SEARCH_RADIUS, response);
+        }
+        return response;
+    }
+
+    /**
+     * Find stops close to a point along a route, nearest first.
+     * <p/>
+     * If there are no stops around the point, the search steps back along the route, where stops are
+     * still within reach, and looks further and further from the point among every stop found so far.
+     * At most MAX_SEARCH_ATTEMPTS searches are made, so on an empty stretch of road the result is empty.
+     * Stops further along the route than the wanted point are never returned, they may be out of reach.
+     * If a search fails, because the request budget is used up or there is no connection, the stops
+     * already found around the point are returned instead.
+     *
+     * @param geometry    the route to search along.
+     * @param distance    how far along the route (in meters) the stops are wanted.
+     * @param gasStations true to find gas stations, false to find rest locations.
+     * @return the stops found, nearest to the wanted point first. Empty if none were found.
+     */
+    public ArrayList<RouteLocation> findStops(RouteGeometry geometry, double distance, boolean gasStations) {
+        StopIndex index = gasStations ? this.gasStations : restLocations;
+        LatLng wanted = geometry.getPositionAtDistance(distance);
+
+        for (int attempt = 0; attempt < MAX_SEARCH_ATTEMPTS; attempt++) {
+            //Next to the previous search, not overlapping it
+            double searchDistance = Math.max(0, distance - attempt * 2 * SEARCH_RADIUS);
+            LatLng position = geometry.getPositionAtDistance(searchDistance);
+            ArrayList<RouteLocation> response;
+            try {
+                response = gasStations ? getNearbyGasStations(position) : getNearbyRestLocations(position);
+            } catch (NoConnectionException e) {
+                response = null;
+            }
+            if (response == null) {
+                //No requests left or no connection, more searches will not help but the stops already found might
+                int radius = (2 * MAX_SEARCH_ATTEMPTS - 1) * SEARCH_RADIUS;
+                return withinReach(geometry, index.getNearest(wanted, MAX_RESULTS, radius), distance, radius);
+            }
+
+            int radius = (2 * attempt + 1) * SEARCH_RADIUS;
+            ArrayList<RouteLocation> found = withinReach(geometry, index.getNearest(wanted, MAX_RESULTS, radius),
+                    distance, radius);
+            if (found.size() > 0 || searchDistance == 0) {
+                return found;
+            }
+        }
+        return new ArrayList<RouteLocation>();
+    }
+
+    /**
+     * Use the stops already found instead of new searches when the budget is running low.
+     *
+     * @param budget the budget the searches are taken from, or null to always search.
+     */
+    public void setBudget(RequestBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Forget all stops, should be called when the route has changed.
+     */
+    public void clear() {
+        restLocations.clear();
+        gasStations.clear();
+    }
+
+    /**
+     * Get the number of stops found along the route so far.
+     *
+     * @return number of indexed stops.
+     */
+    public int getIndexedStops() {
+        return restLocations.size() + gasStations.size();
+    }
+
+    /**
+     * Keep the stops that are reached before a distance along the route, in the same order.
+     *
+     * @param geometry  the route the stops are along.
+     * @param stops     the stops to check.
+     * @param distance  how far along the route (in meters) the stops have to be.
+     * @param maxDetour how far from the route (in meters) the stops may be.
+     * @return the stops within reach.
+     */
+    private static ArrayList<RouteLocation> withinReach(RouteGeometry geometry, List<RouteLocation> stops,
+                                                        double distance, double maxDetour) {
+        SegmentIndex segments = geometry.getSegmentIndex();
+        ArrayList<RouteLocation> reachable = new ArrayList<RouteLocation>();
+        for (RouteLocation stop : stops) {
+            SegmentIndex.Match match = segments.findNearest(stop.getLatitude(), stop.getLongitude(), maxDetour);
+            if (match != null && geometry.getDistance(match) <= distance) {
+                reachable.add(stop);
+            }
+        }
+        return reachable;
+    }
+
+    private boolean isKnownEnough(StopIndex index, LatLng position) {
+        return budget != null && budget.isLow() && index.getNearest(position, 1, SEARCH_RADIUS).size() > 0;
+    }
+}
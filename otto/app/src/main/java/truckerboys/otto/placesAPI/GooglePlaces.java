@@ -3,9 +3,8 @@ package truckerboys.otto.placesAPI;
 import com.google.android.gms.maps.model.LatLng;
 
 import java.util.ArrayList;
-import java.util.concurrent.ExecutionException;
 
-import truckerboys.otto.utils.GoogleRequesterHandler;
+import truckerboys.otto.utils.HttpTransport;
 import truckerboys.otto.utils.exceptions.NoConnectionException;
 import truckerboys.otto.utils.positions.RouteLocation;
 
@@ -15,19 +14,9 @@ public class GooglePlaces implements IPlaces {
 
     @Override
     public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
-        String response;
-
         String request = PLACES_URL + "nearbysearch/json?location=" + position.latitude + "," + position.longitude + "&&radius=5000types=gas_station" + "&key=" + GOOGLE_KEY;
 
-        try {
-            response = new GoogleRequesterHandler().execute(request).get();
-            return GooglePlacesJSONDecoder.getRouteLocations(response);
-
-        } catch (InterruptedException e) {
-            throw new NoConnectionException(e.getMessage());
-        } catch (ExecutionException e) {
-            throw new NoConnectionException(e.getMessage());
-        }
+        return GooglePlacesJSONDecoder.getRouteLocations(HttpTransport.getInstance().request(request));
     }
 
 
@@ -39,12 +28,10 @@ public class GooglePlaces implements IPlaces {
         String request = PLACES_URL + "nearbysearch/json?location=" + position.latitude + "," + position.longitude + "&radius=5000&types=gas_station" + "&key=" + GOOGLE_KEY;
 
         try {
-            response = new GoogleRequesterHandler().execute(request).get();
+            response = HttpTransport.getInstance().request(request);
             return GooglePlacesJSONDecoder.getRouteLocations(response);
 
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        } catch (ExecutionException e) {
+        } catch (NoConnectionException e) {
             e.printStackTrace();
         }
         return null;
@@ -0,0 +1,97 @@
+package truckerboys.otto.placesAPI;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * A simple sqlite db that stores Places search results on the device,
+ * so that stops along the regular routes can be found without any requests.
+ * <p/>
+ * The database is opened on first use and kept open for the lifetime of the helper,
+ * until close is called, since it is used on every search.
+ */
+public class PlacesCacheOpenHelper extends SQLiteOpenHelper {
+
+    // Database Version
+    private static final int DATABASE_VERSION = 1;
+    // Database Name
+    private static final String DATABASE_NAME = "PlacesCacheDB";
+
+    private static final String TABLE_SEARCHES = "searches";
+
+    private static final String KEY_SEARCH = "search";
+    private static final String KEY_FETCHED = "fetched";
+    private static final String KEY_PLACES = "places";
+
+    private static final String[] COLUMNS = {KEY_PLACES};
+
+    public PlacesCacheOpenHelper(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        String CREATE_SEARCHES_TABLE = "CREATE TABLE " + TABLE_SEARCHES + " ( " +
+                KEY_SEARCH + " TEXT PRIMARY KEY, " +
+                KEY_FETCHED + " BIGINT, " +
+                KEY_PLACES + " TEXT)";
+
+        db.execSQL(CREATE_SEARCHES_TABLE);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    }
+
+    /**
+     * Saves a search result, replacing any earlier result of the same search.
+     *
+     * @param search    the key of the search.
+     * @param fetchedAt when the result was fetched in milliseconds.
+     * @param places    the encoded result.
+     */
+    public synchronized void savePlaces(String search, long fetchedAt, String places) {
+        SQLiteDatabase db = this.getWritableDatabase();
+
+        ContentValues values = new ContentValues();
+        values.put(KEY_SEARCH, search);
+        values.put(KEY_FETCHED, fetchedAt);
+        values.put(KEY_PLACES, places);
+
+        db.insertWithOnConflict(TABLE_SEARCHES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Get a saved search result.
+     *
+     * @param search      the key of the search.
+     * @param fetchedFrom results fetched before this time in milliseconds are not returned.
+     * @return the encoded result, or null if there is no result fetched after fetchedFrom.
+     */
+    public synchronized String getPlaces(String search, long fetchedFrom) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        Cursor cursor = db.query(TABLE_SEARCHES, COLUMNS,
+                KEY_SEARCH + " = ? AND " + KEY_FETCHED + " >= ?",
+                new String[]{search, String.valueOf(fetchedFrom)}, null, null, null);
+
+        String places = null;
+        if (cursor.moveToFirst()) {
+            places = cursor.getString(0);
+        }
+        cursor.close();
+        return places;
+    }
+
+    /**
+     * Deletes all search results fetched before a given time.
+     *
+     * @param fetchedBefore time in milliseconds.
+     */
+    public synchronized void deleteOlderThan(long fetchedBefore) {
+        SQLiteDatabase db = this.getWritableDatabase();
+        db.delete(TABLE_SEARCHES, KEY_FETCHED + " < ?", new String[]{String.valueOf(fetchedBefore)});
+    }
+}
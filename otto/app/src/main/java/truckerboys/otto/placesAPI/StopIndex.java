@@ -0,0 +1,195 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import truckerboys.otto.directionsAPI.RouteGeometry;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * Spatial index of stops, stored in a grid of cells of equal size in degrees.
+ * <p/>
+ * Also remembers which areas have been searched, so that it is possible to know if
+ * a search around a position can be answered by the index alone.
+ */
+public class StopIndex {
+    //About 5.5 km in latitude, roughly the radius of a Places search
+    public static final double DEFAULT_CELL_SIZE = 0.05;
+
+    private static final double METERS_PER_DEGREE = 111320;
+
+    private final double cellSize;
+
+    private final HashMap<Long, ArrayList<RouteLocation>> cells = new HashMap<Long, ArrayList<RouteLocation>>();
+    private final ArrayList<LatLng> searchedCenters = new ArrayList<LatLng>();
+    private final ArrayList<Integer> searchedRadii = new ArrayList<Integer>();
+    private int size;
+
+    public StopIndex() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize size of each cell in degrees.
+     */
+    public StopIndex(double cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Add a stop to the index. Stops on the same coordinates as an indexed stop are ignored.
+     *
+     * @param stop the stop to add.
+     */
+    public synchronized void add(RouteLocation stop) {
+        Long key = cellKey(stop.getLatitude(), stop.getLongitude());
+        ArrayList<RouteLocation> cell = cells.get(key);
+        if (cell == null) {
+            cell = new ArrayList<RouteLocation>();
+            cells.put(key, cell);
+        }
+        for (RouteLocation indexed : cell) {
+            if (indexed.getLatitude() == stop.getLatitude() && indexed.getLongitude() == stop.getLongitude()) {
+                return;
+            }
+        }
+        cell.add(stop);
+        size++;
+    }
+
+    /**
+     * Add the result of a search to the index and remember that the area has been searched.
+     *
+     * @param center center of the search.
+     * @param radius radius of the search in meters.
+     * @param stops  the stops that were found.
+     */
+    public synchronized void addSearch(LatLng center, int radius, Collection<RouteLocation> stops) {
+        for (RouteLocation stop : stops) {
+            add(stop);
+        }
+        searchedCenters.add(center);
+        searchedRadii.add(radius);
+    }
+
+    /**
+     * Check if an area has been searched well enough to be answered by the index,
+     * that is if the position is within half the radius of an earlier search.
+     *
+     * @param position center of the area.
+     * @return true if the index can answer searches around the position.
+     */
+    public synchronized boolean isSearched(LatLng position) {
+        for (int i = 0; i < searchedCenters.size(); i++) {
+            LatLng center = searchedCenters.get(i);
+            if (RouteGeometry.distanceBetween(center.latitude, center.longitude, position.latitude, position.longitude) <=
+                    searchedRadii.get(i) / 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get all indexed stops within a radius of a position.
+     *
+     * @param position the position to search around.
+     * @param radius   radius in meters.
+     * @return the stops within the radius, closest first.
+     */
+    public synchronized ArrayList<RouteLocation> getWithinRadius(final LatLng position, int radius) {
+        ArrayList<RouteLocation> found = new ArrayList<RouteLocation>();
+
+        double latitudeSpan = radius / METERS_PER_DEGREE;
+        double longitudeSpan = radius / (METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(position.latitude))));
+        int fromLatitude = cell(position.latitude - latitudeSpan);
+        int toLatitude = cell(position.latitude + latitudeSpan);
+        int fromLongitude = cell(position.longitude - longitudeSpan);
+        int toLongitude = cell(position.longitude + longitudeSpan);
+
+        for (int latitude = fromLatitude; latitude <= toLatitude; latitude++) {
+            for (int longitude = fromLongitude; longitude <= toLongitude; longitude++) {
+                ArrayList<RouteLocation> cell = cells.get(cellKey(latitude, longitude));
+                if (cell == null) {
+                    continue;
+                }
+                for (RouteLocation stop : cell) {
+                    if (RouteGeometry.distanceBetween(position.latitude, position.longitude,
+                            stop.getLatitude(), stop.getLongitude()) <= radius) {
+                        found.add(stop);
+                    }
+                }
+            }
+        }
+
+        sortByDistance(found, position);
+        return found;
+    }
+
+    /**
+     * Get the indexed stops closest to a position.
+     *
+     * @param position    the position to search around.
+     * @param count       maximum number of stops to return.
+     * @param maxDistance stops further away than this, in meters, are not returned.
+     * @return at most count stops, closest first.
+     */
+    public synchronized List<RouteLocation> getNearest(LatLng position, int count, int maxDistance) {
+        //Widen the search until enough stops are found, the closest ones are always in the result
+        int radius = Math.min(maxDistance, (int) (cellSize * METERS_PER_DEGREE));
+        ArrayList<RouteLocation> found = getWithinRadius(position, radius);
+        while (found.size() < count && radius < maxDistance) {
+            radius = Math.min(maxDistance, radius * 2);
+            found = getWithinRadius(position, radius);
+        }
+        return found.size() > count ? new ArrayList<RouteLocation>(found.subList(0, count)) : found;
+    }
+
+    /**
+     * Get the number of indexed stops.
+     *
+     * @return number of stops.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Remove all stops and searched areas from the index.
+     */
+    public synchronized void clear() {
+        cells.clear();
+        searchedCenters.clear();
+        searchedRadii.clear();
+        size = 0;
+    }
+
+    private int cell(double degrees) {
+        return (int) Math.floor(degrees / cellSize);
+    }
+
+    private Long cellKey(double latitude, double longitude) {
+        return cellKey(cell(latitude), cell(longitude));
+    }
+
+    private Long cellKey(int latitudeCell, int longitudeCell) {
+        return ((long) latitudeCell << 32) | (longitudeCell & 0xffffffffL);
+    }
+
+    private void sortByDistance(List<RouteLocation> stops, final LatLng position) {
+        Collections.sort(stops, new Comparator<RouteLocation>() {
+            @Override
+            public int compare(RouteLocation lhs, RouteLocation rhs) {
+                return Double.compare(
+                        RouteGeometry.distanceBetween(position.latitude, position.longitude, lhs.getLatitude(), lhs.getLongitude()),
+                        RouteGeometry.distanceBetween(position.latitude, position.longitude, rhs.getLatitude(), rhs.getLongitude()));
+            }
+        });
+    }
+}
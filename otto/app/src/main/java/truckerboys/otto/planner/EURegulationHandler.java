@@ -1,8 +1,12 @@
 package truckerboys.otto.planner;
 
+import org.joda.time.DateTimeUtils;
 import org.joda.time.Duration;
 import org.joda.time.Instant;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 import truckerboys.otto.driver.CurrentlyNotOnRestException;
 import truckerboys.otto.driver.NoValidBreakFound;
 import truckerboys.otto.driver.Session;
@@ -37,64 +41,35 @@ public class EURegulationHandler implements IRegulationHandler {
     private final Duration MAX_WEEKLY_LENGTH = Duration.standardHours(56);
     private final Duration MAX_TWOWEEK_LENGTH = Duration.standardHours(90);
 
-    @Override
-    public TimeLeft getThisSessionTL(SessionHistory history) {
-
-        Instant last45;
-        Instant last30;
-        Instant last15;
-
-        //Find the active time since the last valid break.(Standard scenario)
-        Duration activeTimeSinceLastSessionRest = history.getActiveTimeSinceBreakLongerThan(STANDARD_SESSION_REST);
-
-        try {
-            last45 = history.getEndTimeOfRestLongerThan(STANDARD_SESSION_REST);
-        } catch (NoValidBreakFound e) {
-            //There has been now standard session rest yet.
-            last45 = new Instant(0);
-        }
-
-        //First look for a rest longer than 30min and shorter than 45min.
-        //If it doesn't exist, the TLThisSession will be calculated from last45
-        // even if there is a 15min break since last45
-        try {
-
-            last30 = history.getEndTimeOfRestInTheInterval(SPLIT_SESSION_REST_30, STANDARD_SESSION_REST);
-            //check that last30 is after last45
-            if (last30.isAfter(last45)) {
-                //Check if there is a break longer than 15min and shorter than 45 between them.
-                try {
+    //Answers are reused for this long while driving, the time left is the same otherwise
+    public static final Duration MEMO_BUCKET = Duration.standardSeconds(1);
 
-                    last15 = history.getEndTimeOfRestInTheInterval(SPLIT_SESSION_REST_15, STANDARD_SESSION_REST);
-                    //check that last15 is after last45
-                    if (last15.isAfter(last45)) {
-                        //Check that last15 is before last30
-                        if (last15.isBefore(last30)) {
-                            //Valid split rest found!
-                            //Calculate from last30
-                            activeTimeSinceLastSessionRest = history.getActiveTimeSince(last30);
+    private static final int SESSION_TL = 0;
+    private static final int DAY_TL = 1;
+    private static final int WEEK_TL = 2;
+    private static final int NEXT_WEEK_TL = 3;
+    private static final int TWO_WEEK_TL = 4;
 
-                        }
-                    }
-                } catch (NoValidBreakFound e) {
-                }
+    //Histories whose states are kept, the driver's and the few the planners ask about
+    private static final int CACHED_HISTORIES = 4;
 
-            } else {
-                //Calculate TL since last45
-                activeTimeSinceLastSessionRest = history.getActiveTimeSinceBreakLongerThan(STANDARD_SESSION_REST);
+    //The states of the histories last asked about, the latest first. Guarded by itself
+    private final Cached[] cache = new Cached[CACHED_HISTORIES];
 
-            }
+    private final AtomicInteger memoHits = new AtomicInteger();
+    private final AtomicInteger memoMisses = new AtomicInteger();
+    private final AtomicInteger stateUpdates = new AtomicInteger();
 
-        } catch (NoValidBreakFound e) {
-            //No rest longer than 30min and shorter than 45
-            //This means there is no valid split rest since last 45rest
-            //Calculate from last45.
-            activeTimeSinceLastSessionRest = history.getActiveTimeSinceBreakLongerThan(STANDARD_SESSION_REST);
-        }
+    @Override
+    public TimeLeft getThisSessionTL(SessionHistory history) {
+        return getMemoized(history, SESSION_TL);
+    }
 
-        Duration TL = MAX_SESSION_LENGTH.minus(activeTimeSinceLastSessionRest); // Calculate
+    private TimeLeft getThisSessionTL(RegulationState state, Duration driving) {
+        Duration TL = MAX_SESSION_LENGTH.minus(state.getSessionActiveTime(driving)); // Calculate
 
-        Duration TLToday = getThisDayTL(history).getTimeLeft().plus(getThisDayTL(history).getExtendedTimeLeft());
+        TimeLeft today = getThisDayTL(state, driving);
+        Duration TLToday = today.getTimeLeft().plus(today.getExtendedTimeLeft());
 
         //Cap the TL to the time left of the day.
         TL = (TL.isLongerThan(TLToday) ? TLToday : TL);
@@ -105,27 +80,15 @@ public class EURegulationHandler implements IRegulationHandler {
 
     @Override
     public TimeLeft getThisDayTL(SessionHistory history) {
+        return getMemoized(history, DAY_TL);
+    }
 
-        //Get latest daily break, if no break was found. We are in first week ever. Search all sessions.
-        Instant maxTimeMarker;
-        try {
-            //Check maximum TL today before you have to take a break, so that you will
-            //have time to finish your break before the 24h time limit runs out.
-            if (history.getNumberOfReducedDailyRestsThisWeek() < 3) {
-                maxTimeMarker = history.getLatestDailyRestEndTime().plus(Duration.standardDays(1).minus(REDUCED_DAILY_REST));
-            } else {
-                maxTimeMarker = history.getLatestDailyRestEndTime().plus(Duration.standardDays(1).minus(STANDARD_DAILY_REST));
-            }
-        } catch (NoValidBreakFound e) {
-            maxTimeMarker = new Instant().plus(Duration.standardHours(24));
-
-        }
-
-
-        Duration timeSinceDailyBreak = history.getActiveTimeSinceLastDailyBreak();
+    private TimeLeft getThisDayTL(RegulationState state, Duration driving) {
+        Duration timeSinceDailyBreak = state.getDayActiveTime(driving);
         Duration TL;
         Duration extendedTL = Duration.ZERO;
-        Duration TLThisWeek = new Duration(getThisWeekTL(history).getTimeLeft().plus(getThisWeekTL(history).getExtendedTimeLeft()));
+        TimeLeft thisWeek = getThisWeekTL(state, driving);
+        Duration TLThisWeek = new Duration(thisWeek.getTimeLeft().plus(thisWeek.getExtendedTimeLeft()));
 
         TL = MAX_DAY_LENGTH.minus(timeSinceDailyBreak);
         TL = (TL.isShorterThan(Duration.ZERO) ? Duration.ZERO : TL);
@@ -135,7 +98,7 @@ public class EURegulationHandler implements IRegulationHandler {
 
 
         //The same thing as above but do it as the max day is 10 hours and calculate the difference.
-        if (history.getNumberOfExtendedDaysThisWeek() < 2) {
+        if (state.getExtendedDays(driving, MAX_DAY_LENGTH) < 2) {
             //If you are allowed to take an extended day.
 
             extendedTL = MAX_DAY_LENGTH_EXTENDED.minus(timeSinceDailyBreak);
@@ -152,20 +115,30 @@ public class EURegulationHandler implements IRegulationHandler {
 
     @Override
     public TimeLeft getThisWeekTL(SessionHistory history) {
+        return getMemoized(history, WEEK_TL);
+    }
+
+    private TimeLeft getThisWeekTL(RegulationState state, Duration driving) {
+        Duration activeTimeThisWeek = state.getWeekActiveTime(driving);
+
         //Calculate max time allowed this week based on last week.
         //MaxTimeTwoWeeks - Active time last week.
-        Duration maxTimeAllowedThisWeek = MAX_TWOWEEK_LENGTH.minus(history.getActiveTimeSinceWeeklyBreakTwoWeeksAgo().
-                minus(history.getActiveTimeSinceLastWeeklyBreak()));
+        Duration maxTimeAllowedThisWeek = MAX_TWOWEEK_LENGTH.minus(state.getTwoWeekActiveTime(driving).
+                minus(activeTimeThisWeek));
 
         //Cap maxTimeAllowed based on the max time for one week according to regulation.
         maxTimeAllowedThisWeek = (maxTimeAllowedThisWeek.isLongerThan(MAX_WEEKLY_LENGTH) ? MAX_WEEKLY_LENGTH : maxTimeAllowedThisWeek);
 
-        return new TimeLeft(new Duration(maxTimeAllowedThisWeek.minus((history.getActiveTimeSinceLastWeeklyBreak()))), Duration.ZERO);
+        return new TimeLeft(new Duration(maxTimeAllowedThisWeek.minus(activeTimeThisWeek)), Duration.ZERO);
     }
 
     @Override
     public TimeLeft getNextWeekTL(SessionHistory history) {
-        Duration TL = new Duration(MAX_TWOWEEK_LENGTH.minus(history.getActiveTimeSinceLastWeeklyBreak()));
+        return getMemoized(history, NEXT_WEEK_TL);
+    }
+
+    private TimeLeft getNextWeekTL(RegulationState state, Duration driving) {
+        Duration TL = new Duration(MAX_TWOWEEK_LENGTH.minus(state.getWeekActiveTime(driving)));
 
         //Cap time left on max time for one week
         TL = (TL.isLongerThan(MAX_WEEKLY_LENGTH) ? MAX_WEEKLY_LENGTH : TL);
@@ -174,7 +147,12 @@ public class EURegulationHandler implements IRegulationHandler {
 
     @Override
     public TimeLeft getThisTwoWeekTL(SessionHistory history) {
-        Duration TL = MAX_TWOWEEK_LENGTH.minus(MAX_WEEKLY_LENGTH.minus(getThisWeekTL(history).getTimeLeft().plus(getThisWeekTL(history).getExtendedTimeLeft())));
+        return getMemoized(history, TWO_WEEK_TL);
+    }
+
+    private TimeLeft getThisTwoWeekTL(RegulationState state, Duration driving) {
+        TimeLeft thisWeek = getThisWeekTL(state, driving);
+        Duration TL = MAX_TWOWEEK_LENGTH.minus(MAX_WEEKLY_LENGTH.minus(thisWeek.getTimeLeft().plus(thisWeek.getExtendedTimeLeft())));
 
         return new TimeLeft(TL, ZERO_DURATION);
 
@@ -187,43 +165,309 @@ public class EURegulationHandler implements IRegulationHandler {
 
     @Override
     public TimeLeft getTimeLeftOnBreak(SessionHistory history) throws CurrentlyNotOnRestException {
+        if (!history.isResting()) {
+            throw new CurrentlyNotOnRestException("Driver currently isn't on a break, can't call getTimeLeftOnBreak");
+        }
+
+        Cached cached = getCached(history);
+        Duration restNeeded = cached.restNeeded;
+        if (restNeeded == null) {
+            restNeeded = findRestNeeded(history, cached.state);
+            cached.restNeeded = restNeeded;
+        }
+
+        //A rest going on has already lasted a while, a finished one is followed by a new rest from now
+        Duration rested = history.isActive(0) ? new Duration(history.getDurationMillis(0)) : Duration.ZERO;
+        Duration timeLeft = restNeeded.minus(rested);
+        return new TimeLeft(timeLeft.isLongerThan(ZERO_DURATION) ? timeLeft : ZERO_DURATION, ZERO_DURATION);
+    }
+
+    /**
+     * Find how long the last rest has to be before the driver may drive again. The time left only
+     * changes when a rest gets longer than one of the regulation limits, so only those lengths are tried.
+     *
+     * @param history All sessions from at least 30 days back, the last one a rest
+     * @param state   the state of the history
+     * @return the length of rest needed, zero if the driver may drive already.
+     */
+    private Duration findRestNeeded(SessionHistory history, RegulationState state) {
+        if (getThisSessionTL(state, state.getRunningDriving()).getTimeLeft().isLongerThan(ZERO_DURATION)) {
+            return ZERO_DURATION;
+        }
+
+        SessionHistory withRest = new SessionHistory(history);
+        Instant restStart;
+        if (history.isActive(0)) {
+            restStart = new Instant(history.getStartMillis(0));
+            withRest.removeLastSession();
+        } else {
+            restStart = new Instant(DateTimeUtils.currentTimeMillis());
+        }
+
+        Duration length = ZERO_DURATION;
+        for (Duration threshold : RegulationState.REST_THRESHOLDS) {
+            //A rest exactly as long as a limit may not count yet, one minute more does
+            for (Duration tried : new Duration[]{threshold, threshold.plus(Duration.standardMinutes(1))}) {
+                length = tried;
+                withRest.addSession(new Session(SessionType.RESTING, restStart, restStart.plus(length)));
+                RegulationState rested = createState(withRest);
+                withRest.removeLastSession();
+                if (getThisSessionTL(rested, Duration.ZERO).getTimeLeft().isLongerThan(ZERO_DURATION)) {
+                    return length;
+                }
+            }
+        }
+        //Not even the longest rest is enough, the two week limit is used up
+        return length;
+    }
+
+    /**
+     * Get the number of time left questions answered with an earlier answer.
+     *
+     * @return number of reused answers.
+     */
+    public int getMemoHits() {
+        return memoHits.get();
+    }
+
+    /**
+     * Get the number of time left questions that had to be calculated.
+     *
+     * @return number of calculated answers.
+     */
+    public int getMemoMisses() {
+        return memoMisses.get();
+    }
+
+    /**
+     * Get the number of times the state of a history had to be counted.
+     *
+     * @return number of counted states.
+     */
+    public int getStateUpdates() {
+        return stateUpdates.get();
+    }
+
+    /**
+     * Answer a time left question, with the earlier answer if the history has not changed and,
+     * while driving, it was asked within the same MEMO_BUCKET.
+     *
+     * @param history All sessions from at least 30 days back
+     * @param query   which time left to answer
+     * @return the time left
+     */
+    private TimeLeft getMemoized(SessionHistory history, int query) {
+        Cached cached = getCached(history);
+        RegulationState state = cached.state;
+        //The same clock as the history counts sessions going on with
+        long bucket = state.isDriving() ? DateTimeUtils.currentTimeMillis() / MEMO_BUCKET.getMillis() : 0;
+
+        Memo memo = cached.memo;
+        if (memo == null || memo.bucket != bucket) {
+            memo = new Memo(bucket, state.getRunningDriving());
+            cached.memo = memo;
+        }
+
+        TimeLeft timeLeft = memo.answers.get(query);
+        if (timeLeft != null) {
+            memoHits.incrementAndGet();
+            return timeLeft;
+        }
+        memoMisses.incrementAndGet();
+
+        switch (query) {
+            case SESSION_TL:
+                timeLeft = getThisSessionTL(state, memo.driving);
+                break;
+            case DAY_TL:
+                timeLeft = getThisDayTL(state, memo.driving);
+                break;
+            case WEEK_TL:
+                timeLeft = getThisWeekTL(state, memo.driving);
+                break;
+            case NEXT_WEEK_TL:
+                timeLeft = getNextWeekTL(state, memo.driving);
+                break;
+            default:
+                timeLeft = getThisTwoWeekTL(state, memo.driving);
+                break;
+        }
+        memo.answers.set(query, timeLeft);
+        return timeLeft;
+    }
+
+    /**
+     * Get the state of a history, counting it again only if the history has changed since last time.
+     * The states of the last few histories asked about are kept, each with its own answers.
+     *
+     * @param history All sessions from at least 30 days back
+     * @return the state of the history, with the answers calculated for it
+     */
+    private Cached getCached(SessionHistory history) {
+        synchronized (cache) {
+            for (int i = 0; i < cache.length && cache[i] != null; i++) {
+                if (cache[i].state.matches(history)) {
+                    return moveFirst(i, cache[i]);
+                }
+            }
+        }
+
+        Cached cached = new Cached(createState(history));
+        stateUpdates.incrementAndGet();
+        if (RegulationState.isCacheable(history)) {
+            synchronized (cache) {
+                //Instead of the older state of the same history, or else the one asked about longest ago
+                int replaced = cache.length - 1;
+                for (int i = 0; i < cache.length && cache[i] != null; i++) {
+                    if (cache[i].state.isFor(history)) {
+                        replaced = i;
+                        break;
+                    }
+                }
+                moveFirst(replaced, cached);
+            }
+        }
+        return cached;
+    }
+
+    /**
+     * Put a state first in the cache, the ones before its position are moved one step back.
+     */
+    private Cached moveFirst(int position, Cached cached) {
+        System.arraycopy(cache, 0, cache, 1, position);
+        cache[0] = cached;
+        return cached;
+    }
+
+    private RegulationState createState(SessionHistory history) {
+        //Driving or working going on is added when asked for, so the state is counted without it
+        Session running = null;
+        SessionHistory finished = history;
+        if (history.getSessionCount() > 0 && history.isActive(0) && history.getSessionType(0) != SessionType.RESTING) {
+            running = history.getSessions().get(0);
+            finished = new SessionHistory(history);
+            finished.removeLastSession();
+        }
+
+        return new RegulationState(history, running, getActiveTimeSinceSessionRest(finished),
+                finished.getActiveTimeSinceLastDailyBreak(), finished.getActiveTimeSinceLastWeeklyBreak(),
+                finished.getActiveTimeSinceWeeklyBreakTwoWeeksAgo(), finished.getNumberOfExtendedDaysThisWeek(),
+                getDrivingSinceDailyRest(finished));
+    }
+
+    private Duration getActiveTimeSinceSessionRest(SessionHistory history) {
+        Instant last45;
+        Instant last30;
+        Instant last15;
+
+        //Find the active time since the last valid break.(Standard scenario)
+        Duration activeTimeSinceLastSessionRest = history.getActiveTimeSinceBreakLongerThan(STANDARD_SESSION_REST);
+
+        try {
+            last45 = history.getEndTimeOfRestLongerThan(STANDARD_SESSION_REST);
+        } catch (NoValidBreakFound e) {
+            //There has been now standard session rest yet.
+            last45 = new Instant(0);
+        }
+
+        //First look for a rest longer than 30min and shorter than 45min.
+        //If it doesn't exist, the TLThisSession will be calculated from last45
+        // even if there is a 15min break since last45
+        try {
+
+            last30 = history.getEndTimeOfRestInTheInterval(SPLIT_SESSION_REST_30, STANDARD_SESSION_REST);
+            //check that last30 is after last45
+            if (last30.isAfter(last45)) {
+                //Check if there is a break longer than 15min and shorter than 45 between them.
+                try {
+
+                    last15 = history.getEndTimeOfRestInTheInterval(SPLIT_SESSION_REST_15, STANDARD_SESSION_REST);
+                    //check that last15 is after last45
+                    if (last15.isAfter(last45)) {
+                        //Check that last15 is before last30
+                        if (last15.isBefore(last30)) {
+                            //Valid split rest found!
+                            //Calculate from last30
+                            activeTimeSinceLastSessionRest = history.getActiveTimeSince(last30);
 
-        //If currently on break
-        if (history.isResting()) {
-            SessionHistory tempHistory = new SessionHistory(history.getSessions());
-
-            //10 minutes.
-            int i = 10;
-            Session s;
-            while (true) {
-                //Add a rest session, make it longer and longer in each loop.
-                //When the rest is long enough getTLThisSession will return something other than zero.
-                //Then we know the required length off the break.
-                s = new Session(SessionType.RESTING, new Instant(), new Instant().plus(Duration.standardMinutes(i)));
-                //To be a bit more efficient we add 10 minutes each time.
-
-                tempHistory.addSession(s);
-                if (!getThisSessionTL(tempHistory).getTimeLeft().equals(Duration.ZERO)) {
-                    tempHistory.removeLastSession();
-                    i -= 10;
-                    //And then loop backwards reducing by one minute.
-                    while (true) {
-                        s = new Session(SessionType.RESTING, new Instant(), new Instant().plus(Duration.standardMinutes(i)));
-                        tempHistory.addSession(s);
-                        if (!getThisSessionTL(tempHistory).getTimeLeft().equals(Duration.ZERO)) {
-                            return new TimeLeft(s.getDuration(), Duration.ZERO);
                         }
-                        tempHistory.removeLastSession();
-                        i++;
                     }
+                } catch (NoValidBreakFound e) {
                 }
-                tempHistory.removeLastSession();
-                i += 10;
+
+            } else {
+                //Calculate TL since last45
+                activeTimeSinceLastSessionRest = history.getActiveTimeSinceBreakLongerThan(STANDARD_SESSION_REST);
+
             }
 
-        } else {
-            throw new CurrentlyNotOnRestException("Driver currently isn't on a break, can't call getTimeLeftOnBreak");
+        } catch (NoValidBreakFound e) {
+            //No rest longer than 30min and shorter than 45
+            //This means there is no valid split rest since last 45rest
+            //Calculate from last45.
+            activeTimeSinceLastSessionRest = history.getActiveTimeSinceBreakLongerThan(STANDARD_SESSION_REST);
+        }
+
+        return activeTimeSinceLastSessionRest;
+    }
+
+    /**
+     * Driving time of the last day this week, the same way as SessionHistory counts extended days.
+     *
+     * @param history All sessions from at least 30 days back
+     * @return driving time since the last rest that ends a day.
+     */
+    private Duration getDrivingSinceDailyRest(SessionHistory history) {
+        Instant latestWeeklyBreak;
+        try {
+            latestWeeklyBreak = history.getLatestWeeklyRestEndTime();
+        } catch (NoValidBreakFound e) {
+            latestWeeklyBreak = new Instant(0);
+        }
+        boolean reducedRestsLeft = history.getNumberOfReducedDailyRestsThisWeek() < 3;
+
+        long dailyTime = 0;
+        for (int i = 0; i < history.getSessionCount(); i++) {
+            if (latestWeeklyBreak.getMillis() > history.getStartMillis(i)) {
+                break;
+            }
+            if (history.getSessionType(i) == SessionType.DRIVING) {
+                dailyTime += history.getDurationMillis(i);
+            } else if (history.getSessionType(i) == SessionType.RESTING && history.getDurationMillis(i) > REDUCED_DAILY_REST.getMillis()) {
+                if (reducedRestsLeft || history.getDurationMillis(i) >= STANDARD_DAILY_REST.getMillis()) {
+                    break;
+                }
+            }
         }
+        return new Duration(dailyTime);
     }
 
+    /**
+     * The state of a history, with the answers calculated for it.
+     */
+    private static class Cached {
+        private final RegulationState state;
+        private volatile Memo memo;
+        //How long the last rest has to be, null until asked for
+        private volatile Duration restNeeded;
+
+        private Cached(RegulationState state) {
+            this.state = state;
+        }
+    }
+
+    /**
+     * The answers calculated for one state of a history, at one time.
+     */
+    private static class Memo {
+        private final long bucket;
+        //The driving going on, the same for every answer
+        private final Duration driving;
+        private final AtomicReferenceArray<TimeLeft> answers = new AtomicReferenceArray<TimeLeft>(TWO_WEEK_TL + 1);
+
+        private Memo(long bucket, Duration driving) {
+            this.bucket = bucket;
+            this.driving = driving;
+        }
+    }
 }
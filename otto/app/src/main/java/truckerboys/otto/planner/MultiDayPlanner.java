@@ -0,0 +1,334 @@
+package truckerboys.otto.planner;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.directionsAPI.RouteGeometry;
+import truckerboys.otto.directionsAPI.SegmentIndex;
+import truckerboys.otto.driver.SessionHistory;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * Plans all stops of a trip at once, breaks, daily rests, weekly rests and fuel stops.
+ * <p/>
+ * The candidate stops along the route are ordered by driving time from the start, and the
+ * fastest way through them is found with dynamic programming. For every candidate the planner
+ * keeps the ways of getting there that are not worse than another in every respect: time spent,
+ * time left to drive this session, day and week, and fuel left. Only the current state of the
+ * driver is asked from the IRegulationHandler, the limits after a rest are the ones of a driver
+ * without any history.
+ */
+public class MultiDayPlanner {
+    //Rests required by the EU regulations
+    public static final Duration BREAK = Duration.standardMinutes(45);
+    public static final Duration DAILY_REST = Duration.standardHours(11);
+    public static final Duration WEEKLY_REST = Duration.standardHours(45);
+
+    //Candidates further from the route than this (in meters) are not used
+    private static final double MAX_DETOUR_DISTANCE = 5000;
+    //Used to estimate the time it takes to get from the route to a stop and back
+    private static final double DETOUR_SPEED = 14;
+    //Most number of ways of getting to a candidate that are kept
+    private static final int MAX_LABELS_PER_STOP = 16;
+
+    private static final String GAS_STATION = "gas_station";
+
+    private final IRegulationHandler regulationHandler;
+    //The limits after a rest, the same for every plan
+    private final Limits fresh;
+
+    public MultiDayPlanner(IRegulationHandler regulationHandler) {
+        this.regulationHandler = regulationHandler;
+        this.fresh = new Limits(regulationHandler, new SessionHistory());
+    }
+
+    /**
+     * Plan all stops on a trip.
+     *
+     * @param plannedRoute the planned route to the next stop, that the trip is added to.
+     * @param directRoute  route from the current position to the final destination without stops.
+     * @param candidates   possible stops along the route, gas stations have the type "gas_station".
+     * @param history      the sessions of the driver.
+     * @param fuelRange     how far the truck can drive on the fuel left, in meters.
+     * @param fullTankRange how far the truck can drive on a full tank, in meters.
+     * @return the planned trip.
+     */
+    public PlannedTrip plan(PlannedRoute plannedRoute, Route directRoute, List<RouteLocation> candidates,
+                            SessionHistory history, int fuelRange, int fullTankRange) {
+        return plan(plannedRoute, directRoute, candidates, history, fuelRange, fullTankRange, Instant.now());
+    }
+
+    PlannedTrip plan(PlannedRoute plannedRoute, Route directRoute, List<RouteLocation> candidates,
+                     SessionHistory history, int fuelRange, int fullTankRange, Instant start) {
+        RouteGeometry geometry = directRoute.getGeometry();
+        Limits now = new Limits(regulationHandler, history);
+
+        ArrayList<Node> nodes = createNodes(geometry, directRoute, candidates, start);
+
+        //Plan with fuel first, if the fuel can not last whatever we do, plan for the rests only
+        Label arrival = findFastest(nodes, now, fresh, fuelRange, fullTankRange);
+        if (arrival == null) {
+            arrival = findFastest(nodes, now, fresh, Double.MAX_VALUE, Double.MAX_VALUE);
+        }
+
+        ArrayList<ScheduledStop> stops = new ArrayList<ScheduledStop>();
+        Instant timeOfArrival = start.plus(directRoute.getEta());
+        if (arrival != null) {
+            timeOfArrival = start.plus(toDuration(arrival.elapsed));
+            for (Label label = arrival.previous; label != null; label = label.previous) {
+                if (label.restType != null) {
+                    stops.add(0, new ScheduledStop(label.node.location, label.restType, getRestDuration(label.restType),
+                            label.refuel, toDuration(label.driving), start.plus(toDuration(label.arrival))));
+                }
+            }
+        }
+        return new PlannedTrip(plannedRoute, stops, timeOfArrival);
+    }
+
+    /**
+     * Creates the start, one node per candidate close to the route and the final destination,
+     * ordered by driving time from the start.
+     */
+    private ArrayList<Node> createNodes(RouteGeometry geometry, Route directRoute, List<RouteLocation> candidates,
+                                        Instant start) {
+        ArrayList<Node> stops = new ArrayList<Node>();
+        for (RouteLocation candidate : candidates) {
+            SegmentIndex.Match match = geometry.getSegmentIndex().findNearest(candidate.getLatitude(),
+                    candidate.getLongitude(), MAX_DETOUR_DISTANCE);
+            if (match != null) {
+                stops.add(new Node(candidate, geometry.getDuration(match), geometry.getDistance(match),
+                        2 * match.getDistance() / DETOUR_SPEED, isGasStation(candidate)));
+            }
+        }
+        Collections.sort(stops, new Comparator<Node>() {
+            @Override
+            public int compare(Node lhs, Node rhs) {
+                return Double.compare(lhs.duration, rhs.duration);
+            }
+        });
+
+        ArrayList<Node> nodes = new ArrayList<Node>();
+        //Resting right away happens where the route starts
+        RouteLocation startLocation = new RouteLocation(geometry.size() > 0 ? geometry.getPolyline().get(0) :
+                directRoute.getFinalDestination().getLatLng(), "", Duration.ZERO, start, 0);
+        nodes.add(new Node(startLocation, 0, 0, 0, false));
+        nodes.addAll(stops);
+        nodes.add(new Node(directRoute.getFinalDestination(), geometry.getTotalDuration(), geometry.getTotalDistance(), 0, false));
+        return nodes;
+    }
+
+    /**
+     * Finds the fastest way from the first to the last node.
+     *
+     * @param fuelRange     meters that can be driven on the fuel at the start.
+     * @param fullTankRange meters that can be driven after refueling.
+     * @return how the last node is reached, or null if it can not be reached.
+     */
+    private Label findFastest(ArrayList<Node> nodes, Limits now, Limits fresh, double fuelRange, double fullTankRange) {
+        ArrayList<ArrayList<Label>> labels = new ArrayList<ArrayList<Label>>();
+        for (int i = 0; i < nodes.size(); i++) {
+            labels.add(new ArrayList<Label>());
+        }
+
+        //At the start we can drive on, or rest first if there is no time left to drive
+        Label start = new Label(nodes.get(0), null);
+        start.sessionLeft = now.session;
+        start.dayLeft = now.day;
+        start.weekLeft = now.week;
+        start.fuelLeft = fuelRange;
+        labels.get(0).add(start);
+        for (ScheduledStop.RestType restType : ScheduledStop.RestType.values()) {
+            addLabel(labels.get(0), rest(start, restType, fresh, fullTankRange));
+        }
+
+        int destination = nodes.size() - 1;
+        for (int i = 0; i < destination; i++) {
+            Node from = nodes.get(i);
+            for (Label label : labels.get(i)) {
+                double maxDriving = Math.min(label.sessionLeft, Math.min(label.dayLeft, label.weekLeft));
+
+                for (int j = i + 1; j <= destination; j++) {
+                    Node to = nodes.get(j);
+                    double driving = to.duration - from.duration + (from.detour + to.detour) / 2;
+                    if (to.duration - from.duration > maxDriving) {
+                        break; //Nodes are ordered, all further nodes are out of reach as well
+                    }
+                    double distance = to.distance - from.distance;
+                    if (driving > maxDriving || distance > label.fuelLeft) {
+                        continue;
+                    }
+
+                    if (j == destination) {
+                        Label arrival = new Label(to, label);
+                        arrival.elapsed = label.elapsed + driving;
+                        arrival.driving = label.driving + driving;
+                        addLabel(labels.get(j), arrival);
+                    } else {
+                        for (ScheduledStop.RestType restType : ScheduledStop.RestType.values()) {
+                            Label arrival = new Label(to, label);
+                            arrival.elapsed = label.elapsed + driving;
+                            arrival.driving = label.driving + driving;
+                            arrival.sessionLeft = label.sessionLeft - driving;
+                            arrival.dayLeft = label.dayLeft - driving;
+                            arrival.weekLeft = label.weekLeft - driving;
+                            arrival.fuelLeft = label.fuelLeft - distance;
+                            addLabel(labels.get(j), rest(arrival, restType, fresh, fullTankRange));
+                        }
+                    }
+                }
+            }
+        }
+
+        Label fastest = null;
+        for (Label label : labels.get(destination)) {
+            if (fastest == null || label.elapsed < fastest.elapsed) {
+                fastest = label;
+            }
+        }
+        return fastest;
+    }
+
+    /**
+     * Creates the state after resting at the node of a label, with a full tank if it is a gas station.
+     */
+    private Label rest(Label arrival, ScheduledStop.RestType restType, Limits fresh, double fullTankRange) {
+        Label rested = new Label(arrival.node, arrival.previous);
+        rested.restType = restType;
+        rested.arrival = arrival.elapsed;
+        rested.elapsed = arrival.elapsed + getRestDuration(restType).getStandardSeconds();
+        rested.driving = arrival.driving;
+        rested.weekLeft = arrival.weekLeft;
+        rested.dayLeft = arrival.dayLeft;
+
+        if (restType == ScheduledStop.RestType.WEEKLY_REST) {
+            rested.weekLeft = fresh.week;
+            rested.dayLeft = Math.min(fresh.day, rested.weekLeft);
+        } else if (restType == ScheduledStop.RestType.DAILY_REST) {
+            rested.dayLeft = Math.min(fresh.day, rested.weekLeft);
+        }
+        rested.sessionLeft = Math.min(fresh.session, rested.dayLeft);
+
+        rested.refuel = arrival.node.gasStation;
+        rested.fuelLeft = rested.refuel ? fullTankRange : arrival.fuelLeft;
+        return rested;
+    }
+
+    /**
+     * Adds a label to the labels of a node, unless another label is at least as good in every way.
+     * Labels that the new label is at least as good as are removed.
+     */
+    private void addLabel(ArrayList<Label> labels, Label label) {
+        for (Label other : labels) {
+            if (other.dominates(label)) {
+                return;
+            }
+        }
+        for (int i = labels.size() - 1; i >= 0; i--) {
+            if (label.dominates(labels.get(i))) {
+                labels.remove(i);
+            }
+        }
+        labels.add(label);
+
+        if (labels.size() > MAX_LABELS_PER_STOP) {
+            //Throw away the slowest one
+            int slowest = 0;
+            for (int i = 1; i < labels.size(); i++) {
+                if (labels.get(i).elapsed > labels.get(slowest).elapsed) {
+                    slowest = i;
+                }
+            }
+            labels.remove(slowest);
+        }
+    }
+
+    private static Duration getRestDuration(ScheduledStop.RestType restType) {
+        switch (restType) {
+            case WEEKLY_REST:
+                return WEEKLY_REST;
+            case DAILY_REST:
+                return DAILY_REST;
+            default:
+                return BREAK;
+        }
+    }
+
+    private static boolean isGasStation(RouteLocation location) {
+        return location.getType() != null && location.getType().contains(GAS_STATION);
+    }
+
+    private static Duration toDuration(double seconds) {
+        return new Duration((long) (seconds * 1000));
+    }
+
+    /**
+     * Driving time left in seconds, according to the regulation handler.
+     */
+    private static class Limits {
+        private final double session;
+        private final double day;
+        private final double week;
+
+        private Limits(IRegulationHandler regulationHandler, SessionHistory history) {
+            this.session = regulationHandler.getThisSessionTL(history).getTimeLeft().getStandardSeconds();
+            this.day = regulationHandler.getThisDayTL(history).getTimeLeft().getStandardSeconds();
+            this.week = regulationHandler.getThisWeekTL(history).getTimeLeft().getStandardSeconds();
+        }
+    }
+
+    /**
+     * A point on the route where the trip can stop.
+     */
+    private static class Node {
+        private final RouteLocation location;
+        private final double duration;
+        private final double distance;
+        private final double detour;
+        private final boolean gasStation;
+
+        private Node(RouteLocation location, double duration, double distance, double detour, boolean gasStation) {
+            this.location = location;
+            this.duration = duration;
+            this.distance = distance;
+            this.detour = detour;
+            this.gasStation = gasStation;
+        }
+    }
+
+    /**
+     * One way of getting to a node, with the state of the driver and truck when leaving it.
+     */
+    private static class Label {
+        private final Node node;
+        private final Label previous;
+
+        private ScheduledStop.RestType restType;
+        private boolean refuel;
+
+        //Seconds since the start, when arriving at the node and when leaving it
+        private double arrival;
+        private double elapsed;
+        private double driving;
+
+        private double sessionLeft;
+        private double dayLeft;
+        private double weekLeft;
+        private double fuelLeft;
+
+        private Label(Node node, Label previous) {
+            this.node = node;
+            this.previous = previous;
+        }
+
+        private boolean dominates(Label other) {
+            return elapsed <= other.elapsed && sessionLeft >= other.sessionLeft && dayLeft >= other.dayLeft &&
+                    weekLeft >= other.weekLeft && fuelLeft >= other.fuelLeft;
+        }
+    }
+}
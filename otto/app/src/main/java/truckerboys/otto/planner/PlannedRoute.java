@@ -1,12 +1,11 @@
 package truckerboys.otto.planner;
 
-import com.google.android.gms.maps.model.LatLng;
-
 import org.joda.time.Duration;
 
 import java.util.ArrayList;
 
 import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.utils.positions.EncodedPolyline;
 import truckerboys.otto.utils.positions.RouteLocation;
 
 /**
@@ -22,13 +21,13 @@ public class PlannedRoute extends Route {
      * @param finalDestination target destination
      * @param eta              time till estimated arrival
      * @param distance         distance to final destination in meters
-     * @param overviewPolyline polyline overview
-     * @param detailedPolyline polyline details (mush larger than overview)
+     * @param overviewPolyline encoded polyline overview
+     * @param detailedPolyline encoded polyline details with one segment per step
      * @param checkpoints      checkpoints
      * @param recommendedStop  recommended stop
      * @param alternativeStops alternative stops
      */
-    public PlannedRoute(RouteLocation finalDestination, Duration eta, int distance, ArrayList<LatLng> overviewPolyline, ArrayList<LatLng> detailedPolyline,
+    public PlannedRoute(RouteLocation finalDestination, Duration eta, int distance, EncodedPolyline overviewPolyline, EncodedPolyline detailedPolyline,
                         ArrayList<RouteLocation> checkpoints, RouteLocation recommendedStop, ArrayList<RouteLocation> alternativeStops) {
         super(finalDestination, eta, distance, overviewPolyline, detailedPolyline, checkpoints);
         this.recommendedStop = recommendedStop;
@@ -41,9 +40,9 @@ public class PlannedRoute extends Route {
      * @param alternativeStops alternative stops
      */
     public PlannedRoute(Route originalRoute, RouteLocation recommendedStop, ArrayList<RouteLocation> alternativeStops) {
-        this(originalRoute.getFinalDestination(), originalRoute.getEta(), originalRoute.getDistance(),
-                originalRoute.getOverviewPolyline(), originalRoute.getDetailedPolyline(),
-                originalRoute.getCheckpoints(), recommendedStop, alternativeStops);
+        super(originalRoute);
+        this.recommendedStop = recommendedStop;
+        this.alternativeStops = alternativeStops;
     }
 
     /**
@@ -0,0 +1,54 @@
+package truckerboys.otto.planner;
+
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A planned route that also has every stop of the whole trip scheduled, not only the next one.
+ */
+public class PlannedTrip extends PlannedRoute {
+    private ArrayList<ScheduledStop> scheduledStops;
+    private Instant timeOfArrival;
+
+    /**
+     * @param route          the planned route to the next stop
+     * @param scheduledStops all stops on the trip in the order they are reached
+     * @param timeOfArrival  estimated time of arrival at the final destination, rests included
+     */
+    public PlannedTrip(PlannedRoute route, List<ScheduledStop> scheduledStops, Instant timeOfArrival) {
+        super(route);
+        this.scheduledStops = new ArrayList<ScheduledStop>(scheduledStops);
+        this.timeOfArrival = timeOfArrival;
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param other PlannedTrip to copy.
+     */
+    public PlannedTrip(PlannedTrip other) {
+        super(other);
+        this.scheduledStops = new ArrayList<ScheduledStop>(other.scheduledStops);
+        this.timeOfArrival = other.timeOfArrival;
+    }
+
+    /**
+     * Get all stops on the trip.
+     *
+     * @return the scheduled stops in the order they are reached.
+     */
+    public ArrayList<ScheduledStop> getScheduledStops() {
+        return scheduledStops;
+    }
+
+    /**
+     * Get the estimated time of arrival at the final destination, with all rests included.
+     *
+     * @return time of arrival.
+     */
+    public Instant getTimeOfArrival() {
+        return timeOfArrival;
+    }
+}
@@ -0,0 +1,181 @@
+package truckerboys.otto.planner;
+
+import org.joda.time.Duration;
+
+import truckerboys.otto.driver.Session;
+import truckerboys.otto.driver.SessionHistory;
+import truckerboys.otto.driver.SessionType;
+
+/**
+ * What the regulations need to know about a session history, so the time left can be calculated
+ * without going through the history again.
+ * <p/>
+ * Everything is counted from the finished sessions. A session that is still going on is handled in
+ * one of two ways: driving or working is added when the time left is asked for, since it only makes
+ * the active times grow, while a rest is counted as it is at the moment, and the state is only valid
+ * until the rest gets long enough to count as another kind of rest.
+ */
+class RegulationState {
+    //Rest lengths where the regulations change what a rest counts as
+    static final Duration[] REST_THRESHOLDS = {
+            Duration.standardMinutes(15), Duration.standardMinutes(30), Duration.standardMinutes(45),
+            Duration.standardHours(3), Duration.standardHours(9), Duration.standardHours(11),
+            Duration.standardHours(24), Duration.standardHours(45)};
+
+    //The history the state was counted from, and how it looked
+    private final SessionHistory history;
+    private final int version;
+    private final boolean headActive;
+    private final int headRestLength;
+
+    //Driving or working going on, not counted in the durations below
+    private final Session running;
+
+    private final Duration sessionActiveTime;
+    private final Duration dayActiveTime;
+    private final Duration weekActiveTime;
+    private final Duration twoWeekActiveTime;
+    private final int extendedDays;
+    private final Duration lastDayDriving;
+
+    /**
+     * @param history           the history the state is counted from.
+     * @param running           session going on that is not counted, or null.
+     * @param sessionActiveTime driving since the last session rest.
+     * @param dayActiveTime     driving since the last daily rest.
+     * @param weekActiveTime    driving since the last weekly rest.
+     * @param twoWeekActiveTime driving since the weekly rest before the last one.
+     * @param extendedDays      number of extended days this week.
+     * @param lastDayDriving    driving since the last rest that counts as a daily rest, when counting extended days.
+     */
+    RegulationState(SessionHistory history, Session running, Duration sessionActiveTime, Duration dayActiveTime,
+                    Duration weekActiveTime, Duration twoWeekActiveTime, int extendedDays, Duration lastDayDriving) {
+        this.history = history;
+        this.version = history.getVersion();
+        this.headActive = history.getSessionCount() > 0 && history.isActive(0);
+        this.headRestLength = getRestLength(history);
+        this.running = running;
+        this.sessionActiveTime = sessionActiveTime;
+        this.dayActiveTime = dayActiveTime;
+        this.weekActiveTime = weekActiveTime;
+        this.twoWeekActiveTime = twoWeekActiveTime;
+        this.extendedDays = extendedDays;
+        this.lastDayDriving = lastDayDriving;
+    }
+
+    /**
+     * Check if the state is still valid for a history. It is as long as no session has been added,
+     * removed or ended, and a rest going on has not become another kind of rest.
+     *
+     * @param history the history to check.
+     * @return true if the state can be used for the history.
+     */
+    boolean matches(SessionHistory history) {
+        if (history != this.history || history.getVersion() != version) {
+            return false;
+        }
+        //Sessions ended without telling the history are noticed too
+        return (history.getSessionCount() == 0 || history.isActive(0) == headActive) && getRestLength(history) == headRestLength;
+    }
+
+    /**
+     * Check if the state was counted from a history, whether or not it is still valid for it.
+     *
+     * @param history the history to check.
+     * @return true if the state is of the history.
+     */
+    boolean isFor(SessionHistory history) {
+        return history == this.history;
+    }
+
+    /**
+     * Check if the time left changes with time, without the state changing.
+     *
+     * @return true if there is driving going on.
+     */
+    boolean isDriving() {
+        return running != null && running.getSessionType() == SessionType.DRIVING && running.isActive();
+    }
+
+    /**
+     * Check if a session in the history, other than the last one, is still going on. Such sessions
+     * are not expected, but the state would not follow them, so it should not be kept then.
+     *
+     * @param history the history to check.
+     * @return true if only the last session may be going on.
+     */
+    static boolean isCacheable(SessionHistory history) {
+        for (int i = 1; i < history.getSessionCount(); i++) {
+            if (history.isActive(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the driving going on right now, that is not counted in the state.
+     *
+     * @return the driving time of the session going on, zero if not driving.
+     */
+    Duration getRunningDriving() {
+        if (!isDriving()) {
+            return Duration.ZERO;
+        }
+        return running.getDuration();
+    }
+
+    Duration getSessionActiveTime(Duration runningDriving) {
+        return sessionActiveTime.plus(runningDriving);
+    }
+
+    Duration getDayActiveTime(Duration runningDriving) {
+        return dayActiveTime.plus(runningDriving);
+    }
+
+    Duration getWeekActiveTime(Duration runningDriving) {
+        return weekActiveTime.plus(runningDriving);
+    }
+
+    Duration getTwoWeekActiveTime(Duration runningDriving) {
+        return twoWeekActiveTime.plus(runningDriving);
+    }
+
+    /**
+     * Get the number of extended days this week, the day going on included.
+     *
+     * @param runningDriving the driving going on right now.
+     * @param maxDayLength   driving time a day may have before it is extended.
+     * @return number of extended days.
+     */
+    int getExtendedDays(Duration runningDriving, Duration maxDayLength) {
+        if (!lastDayDriving.isLongerThan(maxDayLength) && lastDayDriving.plus(runningDriving).isLongerThan(maxDayLength)) {
+            //The driving going on makes today an extended day
+            return extendedDays + 1;
+        }
+        return extendedDays;
+    }
+
+    /**
+     * Get how long a rest going on is, as the number of regulation limits it has passed.
+     * A limit counts twice once passed, so a rest exactly as long as a limit has its own value.
+     *
+     * @param history the history to check the last session of.
+     * @return -1 if the last session is not a rest going on.
+     */
+    private static int getRestLength(SessionHistory history) {
+        if (history.getSessionCount() == 0 || !history.isActive(0) || history.getSessionType(0) != SessionType.RESTING) {
+            return -1;
+        }
+        long length = history.getDurationMillis(0);
+        int passed = 0;
+        for (Duration threshold : REST_THRESHOLDS) {
+            if (length > threshold.getMillis()) {
+                passed += 2;
+            } else if (length == threshold.getMillis()) {
+                passed++;
+            }
+        }
+        return passed;
+    }
+}
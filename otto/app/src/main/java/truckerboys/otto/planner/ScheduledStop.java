@@ -0,0 +1,99 @@
+package truckerboys.otto.planner;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * A stop planned ahead on a trip, with the kind of rest to take there.
+ */
+public class ScheduledStop {
+    /**
+     * The kind of rest that is taken at a stop.
+     */
+    public enum RestType {
+        BREAK, DAILY_REST, WEEKLY_REST
+    }
+
+    private RouteLocation location;
+    private RestType restType;
+    private Duration restDuration;
+    private boolean refuel;
+    private Duration drivingTime;
+    private Instant timeOfArrival;
+
+    /**
+     * Creates a new scheduled stop
+     *
+     * @param location      where to stop
+     * @param restType      the kind of rest to take
+     * @param restDuration  how long to rest
+     * @param refuel        true if the truck should be refueled at the stop
+     * @param drivingTime   driving time from the start of the trip to the stop
+     * @param timeOfArrival estimated time of arrival, including earlier rests
+     */
+    public ScheduledStop(RouteLocation location, RestType restType, Duration restDuration, boolean refuel,
+                         Duration drivingTime, Instant timeOfArrival) {
+        this.location = location;
+        this.restType = restType;
+        this.restDuration = restDuration;
+        this.refuel = refuel;
+        this.drivingTime = drivingTime;
+        this.timeOfArrival = timeOfArrival;
+    }
+
+    /**
+     * Get where to stop
+     *
+     * @return location of the stop
+     */
+    public RouteLocation getLocation() {
+        return location;
+    }
+
+    /**
+     * Get the kind of rest to take at the stop
+     *
+     * @return type of rest
+     */
+    public RestType getRestType() {
+        return restType;
+    }
+
+    /**
+     * Get how long to rest at the stop
+     *
+     * @return duration of the rest
+     */
+    public Duration getRestDuration() {
+        return restDuration;
+    }
+
+    /**
+     * Check if the truck should be refueled at the stop
+     *
+     * @return true if the truck should be refueled
+     */
+    public boolean isRefuel() {
+        return refuel;
+    }
+
+    /**
+     * Get the driving time from the start of the trip to the stop, rests not included
+     *
+     * @return driving time to the stop
+     */
+    public Duration getDrivingTime() {
+        return drivingTime;
+    }
+
+    /**
+     * Get the estimated time of arrival at the stop, rests before it included
+     *
+     * @return time of arrival
+     */
+    public Instant getTimeOfArrival() {
+        return timeOfArrival;
+    }
+}
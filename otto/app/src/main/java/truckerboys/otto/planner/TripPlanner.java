@@ -10,17 +10,35 @@ import org.joda.time.Instant;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import truckerboys.otto.directionsAPI.IDirections;
 import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.directionsAPI.RouteGeometry;
 import truckerboys.otto.driver.User;
+import truckerboys.otto.placesAPI.CorridorPlaces;
 import truckerboys.otto.placesAPI.IPlaces;
+import truckerboys.otto.utils.HttpTransport;
+import truckerboys.otto.utils.RequestBudget;
 import truckerboys.otto.utils.eventhandler.EventBus;
 import truckerboys.otto.utils.eventhandler.events.ChangedRouteEvent;
 import truckerboys.otto.utils.exceptions.CheckpointNotFoundException;
 import truckerboys.otto.utils.exceptions.InvalidRequestException;
 import truckerboys.otto.utils.exceptions.NoActiveRouteException;
 import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.exceptions.SupersededException;
 import truckerboys.otto.utils.positions.MapLocation;
 import truckerboys.otto.utils.positions.RouteLocation;
 import truckerboys.otto.vehicle.FuelTankInfo;
@@ -28,10 +46,29 @@ import truckerboys.otto.vehicle.FuelTankInfo;
 public class
         TripPlanner {
     private final Duration MARGINAL = Duration.standardMinutes(10);
+
+    //Candidate stops whose routes are calculated when looking for the best stop
+    private static final int MAX_CANDIDATES = 5;
+    private static final int LOW_BUDGET_CANDIDATES = 2;
+
+    //Candidates still not evaluated when the deadline has passed are cancelled and skipped
+    private static final Duration EVALUATION_DEADLINE = Duration.standardSeconds(20);
+
+    //How long before the wanted ETA a stop should be searched for, to make it in time
+    private static final Duration REACH_MARGIN = Duration.standardSeconds(150);
+
+    //Driving time between the positions along the route where stops for the whole trip are searched
+    private static final Duration TRIP_SEARCH_INTERVAL = Duration.standardMinutes(30);
+    //Requests the planning of a trip may make, searching along a long route takes more than a replan may
+    private static final int TRIP_REQUEST_LIMIT = 60;
+    //Searches along the route of the trip still not done when the deadline has passed are skipped
+    private static final Duration TRIP_SEARCH_DEADLINE = Duration.standardSeconds(60);
+
     private User user;
     private IRegulationHandler regulationHandler;
     private IDirections directionsProvider;
-    private IPlaces placesProvider;
+    //Stops along the active route, reused by every replan until the route changes
+    private CorridorPlaces placesProvider;
 
     //Route preferences
     private PlannedRoute activeRoute;
@@ -46,13 +83,100 @@ public class
 
     private FuelTankInfo fuelTank;
 
+    //Requests left to the online APIs, null if they are not limited
+    private RequestBudget budget;
+
+    //Every stop of the trip, planned from the candidates found along the route
+    private final MultiDayPlanner multiDayPlanner;
+    private ArrayList<RouteLocation> tripCandidates;
+    private Route directRoute;
+    private PlannedTrip plannedTrip;
+
+    //Every planning of the trip gets a new generation, only the newest one may set the candidates
+    private final AtomicLong tripGeneration = new AtomicLong();
+
+    //Searches along the route of the trip that are running, only cancelled by a new destination or a newer planning
+    private final List<Future<?>> tripWork = new ArrayList<Future<?>>();
+
+    //The trip should be planned again as soon as there is a route, guarded by tripWork
+    private boolean tripPlanDropped;
+    private final ExecutorService tripExecutor;
+
+    //Evaluates candidate stops concurrently, no more workers than the transport has connections
+    private final ExecutorService candidateExecutor;
+
+    //Every replan gets a new generation, only the newest one may publish its route
+    private final AtomicLong generation = new AtomicLong();
+
+    //Evaluations that are running, cancelled when a newer replan starts
+    private final List<Future<?>> outstandingWork = new ArrayList<Future<?>>();
+
+    //The route after the next checkpoint, calculated before the checkpoint is reached
+    private final ExecutorService prefetchExecutor;
+    private Prefetch prefetch;
+
     public TripPlanner(IRegulationHandler regulationHandler, IDirections directionsProvider,
                        IPlaces placesProvider, User user, FuelTankInfo fuelTank) {
         this.regulationHandler = regulationHandler;
         this.directionsProvider = directionsProvider;
-        this.placesProvider = placesProvider;
+        this.placesProvider = new CorridorPlaces(placesProvider);
         this.user = user;
         this.fuelTank = fuelTank;
+        this.multiDayPlanner = new MultiDayPlanner(regulationHandler);
+
+        this.candidateExecutor = new ThreadPoolExecutor(HttpTransport.MAX_CONCURRENT_REQUESTS,
+                HttpTransport.MAX_CONCURRENT_REQUESTS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "TripPlanner-candidate");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        ((ThreadPoolExecutor) candidateExecutor).allowCoreThreadTimeOut(true);
+
+        this.prefetchExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "TripPlanner-prefetch");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        ((ThreadPoolExecutor) prefetchExecutor).allowCoreThreadTimeOut(true);
+
+        this.tripExecutor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "TripPlanner-trip");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        ((ThreadPoolExecutor) tripExecutor).allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Plan with fewer requests when the budget is running low. Should be the same budget
+     * as the one the IDirections and IPlaces of the planner take their requests from.
+     *
+     * @param budget the request budget, or null if requests are not limited.
+     */
+    public void setRequestBudget(RequestBudget budget) {
+        this.budget = budget;
+        placesProvider.setBudget(budget);
+    }
+
+    /**
+     * Get the request budget of the planner.
+     *
+     * @return the request budget, or null if requests are not limited.
+     */
+    public RequestBudget getRequestBudget() {
+        return budget;
     }
 
     /**
@@ -64,10 +188,114 @@ public class
      */
     public void updateRoute(MapLocation currentLocation) throws InvalidRequestException, NoConnectionException {
         this.currentLocation = currentLocation;
-        activeRoute = getCalculatedRoute();
+        replan(startGeneration());
+    }
+
+    /**
+     * Plan every stop of the trip to the final destination, breaks, daily and weekly rests and fuel stops.
+     * The stops are searched for along the whole route once, later updates of the route reuse them.
+     * Replans do not stop the searches, a new destination does, and the trip is then planned again
+     * once the new route is there. Searches that fail are skipped, the trip is planned from the others.
+     *
+     * @throws NoActiveRouteException if there is no route to plan the trip for yet, it is planned as soon as there is.
+     */
+    public void planTrip() throws NoActiveRouteException {
+        final Route route;
+        long trip;
+        synchronized (tripWork) {
+            route = directRoute;
+            if (activeRoute == null || route == null) {
+                tripPlanDropped = true;
+                throw new NoActiveRouteException("There is no active route");
+            }
+            trip = startTripPlanning();
+        }
+
+        //Search for rest locations and gas stations at the same time, all along the route.
+        //Further apart on long routes, two searches per position have to fit in the requests of the planning
+        RouteGeometry geometry = route.getGeometry();
+        double interval = Math.max(TRIP_SEARCH_INTERVAL.getStandardSeconds(),
+                geometry.getTotalDuration() / (TRIP_REQUEST_LIMIT / 2 + 1));
+        final ArrayList<LatLng> searchPositions = new ArrayList<LatLng>();
+        for (double seconds = interval; seconds < geometry.getTotalDuration(); seconds += interval) {
+            searchPositions.add(geometry.getPositionAtDuration(seconds));
+        }
+
+        List<Callable<ArrayList<RouteLocation>>> searches = new ArrayList<Callable<ArrayList<RouteLocation>>>();
+        for (final LatLng position : searchPositions) {
+            searches.add(new Callable<ArrayList<RouteLocation>>() {
+                @Override
+                public ArrayList<RouteLocation> call() throws Exception {
+                    return placesProvider.getNearbyRestLocations(position);
+                }
+            });
+            searches.add(new Callable<ArrayList<RouteLocation>>() {
+                @Override
+                public ArrayList<RouteLocation> call() throws Exception {
+                    return placesProvider.getNearbyGasStations(position);
+                }
+            });
+        }
+
+        //An allowance of its own, so it does not use up the one of the replans running meanwhile
+        List<ArrayList<RouteLocation>> results;
+        startBudgetedReplan(TRIP_REQUEST_LIMIT);
+        try {
+            results = searchConcurrently(trip, searches);
+        } finally {
+            endBudgetedReplan();
+        }
+
+        ArrayList<RouteLocation> candidates = new ArrayList<RouteLocation>();
+        for (ArrayList<RouteLocation> found : results) {
+            if (found == null) {
+                continue;
+            }
+            for (RouteLocation location : found) {
+                boolean known = false;
+                for (RouteLocation candidate : candidates) {
+                    if (candidate.equalCoordinates(location)) {
+                        known = true;
+                        break;
+                    }
+                }
+                if (!known) {
+                    candidates.add(location);
+                }
+            }
+        }
+
+        //If there are no places close by, a rest can still be taken at the side of the road
+        for (LatLng position : searchPositions) {
+            candidates.add(new RouteLocation(position, "", Duration.ZERO, Instant.now(), 0));
+        }
+
+        synchronized (this) {
+            if (tripGeneration.get() != trip) {
+                //The destination has changed, or the trip is being planned again
+                return;
+            }
+            tripCandidates = candidates;
+            refreshPlannedTrip();
+        }
         EventBus.getInstance().newEvent(new ChangedRouteEvent());
     }
 
+    /**
+     * Get the active route with every stop of the trip planned.
+     *
+     * @return the planned trip
+     * @throws NoActiveRouteException if there is no active route or the trip has not been planned.
+     */
+    public PlannedTrip getPlannedTrip() throws NoActiveRouteException {
+        PlannedTrip trip = plannedTrip;
+        if (activeRoute == null || trip == null) {
+            throw new NoActiveRouteException("There is no planned trip");
+        }
+        //Making it thread secure
+        return new PlannedTrip(trip);
+    }
+
     /**
      * Get the active route
      *
@@ -82,6 +310,15 @@ public class
         return new PlannedRoute(activeRoute);
     }
 
+    /**
+     * Get the driving time the driver has left this session.
+     *
+     * @return time left to drive before a break is needed.
+     */
+    public Duration getSessionTimeLeft() {
+        return regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft();
+    }
+
     /**
      * Returns a route to the same destination with chosen stop added to map
      *
@@ -91,8 +328,7 @@ public class
      */
     public void setChoosenStop(RouteLocation chosenStop) throws InvalidRequestException, NoConnectionException {
         this.chosenStop = chosenStop;
-        activeRoute = getCalculatedRoute();
-        EventBus.getInstance().newEvent(new ChangedRouteEvent());
+        replan(startGeneration());
     }
 
     /**
@@ -145,51 +381,340 @@ public class
      * @throws NoConnectionException
      */
     public void setNewRoute(MapLocation startLocation, MapLocation finalDestination, List<MapLocation> checkpoints) throws InvalidRequestException, NoConnectionException {
-        this.startLocation = startLocation;
-        this.finalDestination = finalDestination;
-        this.checkpoints = checkpoints;
-        this.chosenStop = null;
-        this.currentLocation = startLocation;
-        updateRoute(startLocation);
+        long generation = startGeneration();
+        synchronized (this) {
+            if (!finalDestination.equalCoordinates(this.finalDestination)) {
+                //A new corridor, the stops along the old one are of no use
+                dropTripPlanning();
+                placesProvider.clear();
+                tripCandidates = null;
+                plannedTrip = null;
+            }
+            this.startLocation = startLocation;
+            this.finalDestination = finalDestination;
+            this.checkpoints = checkpoints;
+            this.chosenStop = null;
+            this.currentLocation = startLocation;
+        }
+        replan(generation);
     }
 
     /**
-     * Calculates a new route and uses the instance variables to decide what route,
-     * and should also write to those variables.
+     * Calculate the route for a generation and publish it, unless a newer replan has started meanwhile.
      *
+     * @param generation the generation of this replan.
+     * @throws InvalidRequestException
+     * @throws NoConnectionException
+     */
+    private void replan(long generation) throws InvalidRequestException, NoConnectionException {
+        PlanRequest request;
+        synchronized (this) {
+            request = new PlanRequest(generation, currentLocation, startLocation, finalDestination, checkpoints, chosenStop);
+        }
+        startBudgetedReplan();
+
+        try {
+            Route directRoute = directionsProvider.getRoute(request.currentLocation, request.finalDestination, request.checkpoints);
+            checkCurrent(generation);
+            publish(request, directRoute, getCalculatedRoute(request, directRoute));
+        } catch (SupersededException e) {
+            //The newer replan publishes its route instead
+        } finally {
+            endBudgetedReplan();
+        }
+    }
+
+    /**
+     * Make a calculated route the active route and tell everyone about it.
+     *
+     * @param request     what the route was planned for.
+     * @param directRoute fastest route through the checkpoints without rest locations added.
+     * @param route       the calculated route.
+     * @throws SupersededException if a newer replan has started, nothing is published then.
+     */
+    private void publish(PlanRequest request, Route directRoute, PlannedRoute route) throws SupersededException {
+        synchronized (this) {
+            checkCurrent(request.generation);
+            this.directRoute = directRoute;
+            this.recommendedStop = request.recommendedStop;
+            activeRoute = route;
+            refreshPlannedTrip();
+        }
+        EventBus.getInstance().newEvent(new ChangedRouteEvent());
+        replanDroppedTrip();
+    }
+
+    /**
+     * Start calculating the route from a checkpoint in the background, as it will be once the
+     * checkpoint is passed. Does nothing if that route is already being calculated, or if the
+     * checkpoint is the final destination.
+     *
+     * @param checkpoint the next checkpoint on the route.
+     */
+    public void prefetchAfterCheckpoint(MapLocation checkpoint) {
+        synchronized (this) {
+            if (prefetch != null && prefetch.checkpoint.equalCoordinates(checkpoint) &&
+                    isCurrent(prefetch.request.generation)) {
+                return;
+            }
+            if (prefetch != null) {
+                prefetch.result.cancel(true);
+                prefetch = null;
+            }
+            if (activeRoute == null || finalDestination == null || checkpoint.equalCoordinates(finalDestination)) {
+                return;
+            }
+
+            //The same request as after passedCheckpoint, from the checkpoint
+            ArrayList<MapLocation> laterCheckpoints = new ArrayList<MapLocation>();
+            if (checkpoints != null) {
+                for (MapLocation later : checkpoints) {
+                    if (!checkpoint.equalCoordinates(later)) {
+                        laterCheckpoints.add(later);
+                    }
+                }
+            }
+            RouteLocation laterChosenStop = chosenStop != null && checkpoint.equalCoordinates(chosenStop) ? null : chosenStop;
+            final PlanRequest request = new PlanRequest(generation.get(), new MapLocation(checkpoint), startLocation,
+                    finalDestination, laterCheckpoints, laterChosenStop);
+
+            prefetch = new Prefetch(new MapLocation(checkpoint), request, prefetchExecutor.submit(new Callable<Route[]>() {
+                @Override
+                public Route[] call() throws Exception {
+                    //An allowance of its own, so it does not use up the one of the replan running meanwhile
+                    startBudgetedReplan();
+                    try {
+                        Route directRoute = directionsProvider.getRoute(request.currentLocation, request.finalDestination,
+                                request.checkpoints);
+                        checkCurrent(request.generation);
+                        return new Route[]{directRoute, getCalculatedRoute(request, directRoute)};
+                    } finally {
+                        endBudgetedReplan();
+                    }
+                }
+            }));
+        }
+    }
+
+    /**
+     * Make the route calculated by prefetchAfterCheckpoint the active route, if it is done.
+     * Call after passedCheckpoint.
+     *
+     * @param passedCheckpoint the checkpoint that has been passed.
+     * @return true if the prefetched route is now the active route, false if a new route has to be calculated.
+     */
+    public boolean usePrefetchedRoute(MapLocation passedCheckpoint) {
+        Prefetch done;
+        synchronized (this) {
+            done = prefetch;
+            prefetch = null;
+        }
+        if (done == null || !done.checkpoint.equalCoordinates(passedCheckpoint) || !done.result.isDone() ||
+                done.result.isCancelled()) {
+            if (done != null) {
+                done.result.cancel(true);
+            }
+            return false;
+        }
+
+        try {
+            Route[] routes = done.result.get();
+            //Nothing calculated for the route before the checkpoint is of any use now
+            synchronized (outstandingWork) {
+                checkCurrent(done.request.generation);
+                done.request.generation = startGeneration();
+            }
+            publish(done.request, routes[0], (PlannedRoute) routes[1]);
+            return true;
+        } catch (ExecutionException e) {
+            Log.w("TripPlanner", "Prefetched route failed: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SupersededException e) {
+            //The route has been replanned since the prefetch started, it is out of date
+        }
+        return false;
+    }
+
+    /**
+     * Check if the route after a checkpoint has been calculated by prefetchAfterCheckpoint,
+     * so usePrefetchedRoute would not have to wait for it.
+     *
+     * @param checkpoint the checkpoint the route is calculated from.
+     * @return true if the prefetch from the checkpoint is done.
+     */
+    boolean isPrefetchDone(MapLocation checkpoint) {
+        synchronized (this) {
+            return prefetch != null && prefetch.checkpoint.equalCoordinates(checkpoint) && prefetch.result.isDone();
+        }
+    }
+
+    /**
+     * Start a new generation of replans and cancel everything the older ones are waiting for.
+     *
+     * @return the new generation.
+     */
+    private long startGeneration() {
+        synchronized (outstandingWork) {
+            long current = generation.incrementAndGet();
+            for (Future<?> future : outstandingWork) {
+                future.cancel(true);
+            }
+            outstandingWork.clear();
+            return current;
+        }
+    }
+
+    /**
+     * Start a new generation of trip planning and cancel the searches of the older one.
+     *
+     * @return the new generation.
+     */
+    private long startTripPlanning() {
+        synchronized (tripWork) {
+            tripPlanDropped = false;
+            long current = tripGeneration.incrementAndGet();
+            for (Future<?> future : tripWork) {
+                future.cancel(true);
+            }
+            tripWork.clear();
+            return current;
+        }
+    }
+
+    /**
+     * Stop planning the trip along a route that is no longer driven. If the trip has been planned
+     * before, it is planned again along the next route.
+     */
+    private void dropTripPlanning() {
+        synchronized (tripWork) {
+            boolean planned = tripGeneration.get() > 0;
+            startTripPlanning();
+            tripPlanDropped = planned;
+        }
+    }
+
+    /**
+     * Plan the trip in the background if it was dropped, now that there is a route to plan it along.
+     */
+    private void replanDroppedTrip() {
+        synchronized (tripWork) {
+            if (!tripPlanDropped) {
+                return;
+            }
+            tripPlanDropped = false;
+        }
+        tripExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    planTrip();
+                } catch (NoActiveRouteException e) {
+                    //Planned after the next route instead
+                }
+            }
+        });
+    }
+
+    /**
+     * Give the calling thread an allowance of requests of its own, for the replan it is about to make.
+     */
+    private void startBudgetedReplan() {
+        if (budget != null) {
+            budget.startReplan();
+        }
+    }
+
+    private void startBudgetedReplan(int limit) {
+        if (budget != null) {
+            budget.startReplan(limit);
+        }
+    }
+
+    private void endBudgetedReplan() {
+        if (budget != null) {
+            //What this replan used
+            Log.i("RequestBudget", budget.toString());
+            budget.setAllowance(null);
+        }
+    }
+
+    /**
+     * Take the requests of an evaluation from the allowance of the replan it is made for,
+     * even though it runs on another thread.
+     */
+    private <T> Callable<T> withAllowance(final Callable<T> evaluation) {
+        if (budget == null) {
+            return evaluation;
+        }
+        final RequestBudget.Allowance allowance = budget.getAllowance();
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                budget.setAllowance(allowance);
+                try {
+                    return evaluation.call();
+                } finally {
+                    budget.setAllowance(null);
+                }
+            }
+        };
+    }
+
+    private boolean isBudgetLow() {
+        return budget != null && budget.isLow();
+    }
+
+    private boolean isCurrent(long generation) {
+        return this.generation.get() == generation;
+    }
+
+    private void checkCurrent(long generation) throws SupersededException {
+        if (!isCurrent(generation)) {
+            throw new SupersededException("A newer replan has started");
+        }
+    }
+
+    /**
+     * Calculates a new route and uses the request to decide what route,
+     * the recommended stop is written to the request.
+     *
+     * @param request     what the route is planned for.
+     * @param directRoute fastest route through the checkpoints without rest locations added.
      * @return a route.
      * @throws NoConnectionException
      * @throws InvalidRequestException
+     * @throws SupersededException if a newer replan started while calculating.
      */
-    private PlannedRoute getCalculatedRoute() throws NoConnectionException, InvalidRequestException {
+    private PlannedRoute getCalculatedRoute(PlanRequest request, Route directRoute)
+            throws NoConnectionException, InvalidRequestException, SupersededException {
         Route optimalRoute;
         Duration sessionTimeLeft = regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft();
         ArrayList<RouteLocation> alternativeLocations = new ArrayList<RouteLocation>();
         RouteLocation displayedRecommended;
 
-        Route directRoute = directionsProvider.getRoute(currentLocation, finalDestination, checkpoints);
 
         //If the truck does not have enough fuel to get to the first checkpoint
         boolean gasStationNeeded = fuelTank.getMileage() * 1000 < directRoute.getCheckpoints().get(0).getDistance();
 
         //TODO Implement check if gas is enough for this session
-        if (chosenStop != null) {
+        if (request.chosenStop != null) {
             //Setting the recommended as it will be in alternative stops
-            Route calculationRoute = getOptimizedRoute(directRoute, Duration.standardMinutes(5), gasStationNeeded);
+            Route calculationRoute = getOptimizedRoute(request, directRoute, Duration.standardMinutes(5), gasStationNeeded);
             if (calculationRoute.getCheckpoints().size() > 0) {
                 alternativeLocations.add(calculationRoute.getCheckpoints().get(0));
             }
 
             ArrayList<MapLocation> tempCheckpoints = new ArrayList<MapLocation>();
-            tempCheckpoints.add(chosenStop);
-            if (checkpoints != null) {
-                tempCheckpoints.addAll(checkpoints);
+            tempCheckpoints.add(request.chosenStop);
+            if (request.checkpoints != null) {
+                tempCheckpoints.addAll(request.checkpoints);
             }
-            displayedRecommended = chosenStop;
+            displayedRecommended = request.chosenStop;
 
-            optimalRoute = directionsProvider.getRoute(currentLocation, finalDestination, tempCheckpoints);
+            optimalRoute = directionsProvider.getRoute(request.currentLocation, request.finalDestination, tempCheckpoints);
 
-            alternativeLocations.addAll(calculateAlternativeStops(directRoute, gasStationNeeded,
+            alternativeLocations.addAll(calculateAlternativeStops(request, directRoute, gasStationNeeded,
                     directRoute.getCheckpoints().get(0).getEta().dividedBy(2),
                     directRoute.getCheckpoints().get(0).getEta().dividedBy(3)));
         } else {
@@ -197,7 +722,7 @@ public class
             //Returns the direct route if ETA is shorter than the time you have left to drive
             if (directRoute.getCheckpoints().get(0).getEta().isShorterThan(sessionTimeLeft)) {
                 optimalRoute = directRoute;
-                alternativeLocations = (calculateAlternativeStops(directRoute, gasStationNeeded,
+                alternativeLocations = (calculateAlternativeStops(request, directRoute, gasStationNeeded,
                         directRoute.getCheckpoints().get(0).getEta().dividedBy(2),
                         directRoute.getCheckpoints().get(0).getEta().dividedBy(3),
                         directRoute.getCheckpoints().get(0).getEta().dividedBy(4)));
@@ -205,8 +730,8 @@ public class
 
             //If there is no time left on this session
             else if (sessionTimeLeft.isEqual(Duration.ZERO)) {
-                optimalRoute = getOptimizedRoute(directRoute, Duration.standardMinutes(5), gasStationNeeded);
-                alternativeLocations = calculateAlternativeStops(directRoute, gasStationNeeded, Duration.standardMinutes(10),
+                optimalRoute = getOptimizedRoute(request, directRoute, Duration.standardMinutes(5), gasStationNeeded);
+                alternativeLocations = calculateAlternativeStops(request, directRoute, gasStationNeeded, Duration.standardMinutes(10),
                         Duration.standardMinutes(15), Duration.standardMinutes(20));
             }
 
@@ -216,20 +741,20 @@ public class
 
                 //If the ETA/2 is longer than time left on session
                 if (directRoute.getCheckpoints().get(0).getEta().dividedBy(2).isLongerThan(sessionTimeLeft)) {
-                    optimalRoute = getOptimizedRoute(directRoute, regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft(), gasStationNeeded);
-                    alternativeLocations = calculateAlternativeStops(directRoute, gasStationNeeded,
+                    optimalRoute = getOptimizedRoute(request, directRoute, regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft(), gasStationNeeded);
+                    alternativeLocations = calculateAlternativeStops(request, directRoute, gasStationNeeded,
                             sessionTimeLeft.dividedBy(2), sessionTimeLeft.dividedBy(3), sessionTimeLeft.dividedBy(4));
                 } else {
-                    optimalRoute = getOptimizedRoute(directRoute, directRoute.getCheckpoints().get(0).getEta().dividedBy(2), gasStationNeeded);
-                    alternativeLocations = calculateAlternativeStops(directRoute, gasStationNeeded, sessionTimeLeft,
+                    optimalRoute = getOptimizedRoute(request, directRoute, directRoute.getCheckpoints().get(0).getEta().dividedBy(2), gasStationNeeded);
+                    alternativeLocations = calculateAlternativeStops(request, directRoute, gasStationNeeded, sessionTimeLeft,
                             sessionTimeLeft.dividedBy(2), sessionTimeLeft.dividedBy(3));
                 }
             }
 
             //If the location is not within reach this day (drive maximum distance)
             else if (!directRoute.getCheckpoints().get(0).getEta().isShorterThan(regulationHandler.getThisDayTL(user.getHistory()).getTimeLeft())) {
-                optimalRoute = getOptimizedRoute(directRoute, regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft(), gasStationNeeded);
-                alternativeLocations = calculateAlternativeStops(directRoute, gasStationNeeded,
+                optimalRoute = getOptimizedRoute(request, directRoute, regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft(), gasStationNeeded);
+                alternativeLocations = calculateAlternativeStops(request, directRoute, gasStationNeeded,
                         sessionTimeLeft.dividedBy(2), sessionTimeLeft.dividedBy(3), sessionTimeLeft.dividedBy(4));
             } else {
                 throw new InvalidRequestException("Something is not right here");
@@ -244,60 +769,96 @@ public class
         return new PlannedRoute(optimalRoute, displayedRecommended, alternativeLocations);
     }
 
+    /**
+     * Plan the stops of the trip again from the current position, with the candidates that were found
+     * by planTrip. No requests are made, so this is cheap enough to do on every update of the route.
+     */
+    private void refreshPlannedTrip() {
+        if (tripCandidates == null || activeRoute == null || directRoute == null) {
+            plannedTrip = null;
+            return;
+        }
+        plannedTrip = multiDayPlanner.plan(activeRoute, directRoute, tripCandidates, user.getHistory(),
+                fuelTank.getMileage() * 1000, fuelTank.getFullTankMileage() * 1000);
+    }
+
     /**
      * Get a list of one stop location close to each wanted ETA.
      *
+     * @param request     what the route is planned for.
      * @param directRoute fastest route without rest locations added.
      * @param stopsETA    times that stops are wanted in.
      * @return list if stop locations
      */
-    private ArrayList<RouteLocation> calculateAlternativeStops(Route directRoute, boolean gasStationNeeded, Duration... stopsETA)
-            throws InvalidRequestException, NoConnectionException {
+    private ArrayList<RouteLocation> calculateAlternativeStops(PlanRequest request, Route directRoute, boolean gasStationNeeded,
+                                                               Duration... stopsETA)
+            throws InvalidRequestException, NoConnectionException, SupersededException {
+        if (isBudgetLow()) {
+            //Only the first stop, the others are just alternatives
+            stopsETA = new Duration[]{stopsETA[0]};
+        }
+
         if (gasStationNeeded) {
-            return calculateAlternativeGasStations(directRoute, stopsETA[0], (fuelTank.getMileage() * 1000) / 2,
+            if (isBudgetLow()) {
+                return calculateAlternativeGasStations(request, directRoute, stopsETA[0], (fuelTank.getMileage() * 1000) / 2);
+            }
+            return calculateAlternativeGasStations(request, directRoute, stopsETA[0], (fuelTank.getMileage() * 1000) / 2,
                     (fuelTank.getMileage() * 1000) / 3, (fuelTank.getMileage() * 1000) / 4);
         } else {
-            return calculateAlternativeRestLocations(directRoute, stopsETA);
+            return calculateAlternativeRestLocations(request, directRoute, stopsETA);
         }
     }
 
     /**
      * Get a list of one stop location close to each wanted ETA.
      *
+     * @param request     what the route is planned for.
      * @param directRoute fastest route without rest locations added.
      * @param stopsETA    times that stops are wanted in.
      * @return list if stop locations
      */
-    private ArrayList<RouteLocation> calculateAlternativeRestLocations(Route directRoute, Duration... stopsETA)
-            throws InvalidRequestException, NoConnectionException {
-        ArrayList<RouteLocation> incompleteInfo = new ArrayList<RouteLocation>();
-        ArrayList<RouteLocation> completeInfo = new ArrayList<RouteLocation>();
-
+    private ArrayList<RouteLocation> calculateAlternativeRestLocations(PlanRequest request, final Route directRoute,
+                                                                       Duration... stopsETA)
+            throws InvalidRequestException, NoConnectionException, SupersededException {
+        final MapLocation origin = request.currentLocation;
+        final Duration sessionTimeLeft = regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft();
+        final int mileage = fuelTank.getMileage() * 1000;
 
-        for (Duration eta : stopsETA) {
-            LatLng tempCoordinate = findLatLngWithinReach(directRoute, eta, fuelTank.getMileage() * 1000);
-            ArrayList<RouteLocation> response = placesProvider.getNearbyRestLocations(tempCoordinate);
+        //One search per wanted ETA, all running at the same time
+        List<Callable<RouteLocation>> searches = new ArrayList<Callable<RouteLocation>>();
+        for (final Duration eta : stopsETA) {
+            searches.add(new Callable<RouteLocation>() {
+                @Override
+                public RouteLocation call() throws Exception {
+                    LatLng tempCoordinate = findLatLngWithinReach(directRoute, eta, mileage);
+                    ArrayList<RouteLocation> response = placesProvider.getNearbyRestLocations(tempCoordinate);
+                    if (response == null) {
+                        return null;
+                    }
 
-            for (RouteLocation location : response) {
-                if (directionsProvider.getETA(currentLocation, location).
-                        isShorterThan(regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft())) {
-                    incompleteInfo.add(location);
-                    break; //Can not afford to do more calls to check the optimum one
+                    try {
+                        for (RouteLocation location : response) {
+                            if (directionsProvider.getETA(origin, location).isShorterThan(sessionTimeLeft)) {
+                                //Can not afford to do more calls to check the optimum one
+                                //Creates new RouteLocation with all variables set
+                                return directionsProvider.getRoute(origin, location).getFinalDestination();
+                            }
+                        }
+                    } catch (NoConnectionException e) {
+                        //Out of requests, or connection, it is only an alternative
+                    }
+                    return null;
                 }
-            }
+            });
         }
 
-        //Creates new RouteLocations with all variables set
-        for (RouteLocation incompleteLocation : incompleteInfo) {
-            Route tempRoute = directionsProvider.getRoute(currentLocation, incompleteLocation);
-            completeInfo.add(tempRoute.getFinalDestination());
-        }
-        return completeInfo;
+        return withoutMissing(evaluateConcurrently(request.generation, searches));
     }
 
     /**
      * Alternative gas stations that are within distance and allowed driving time-
      *
+     * @param request     what the route is planned for.
      * @param directRoute The direct route with no calculated stops.
      * @param stopETA     Maximum time to drive this session.
      * @param distances   Rough distance to each location
@@ -305,148 +866,376 @@ public class
      * @throws InvalidRequestException
      * @throws NoConnectionException
      */
-    private ArrayList<RouteLocation> calculateAlternativeGasStations(Route directRoute, Duration stopETA, int... distances)
-            throws InvalidRequestException, NoConnectionException {
-        ArrayList<RouteLocation> incompleteInfo = new ArrayList<RouteLocation>();
-        ArrayList<RouteLocation> completeInfo = new ArrayList<RouteLocation>();
+    private ArrayList<RouteLocation> calculateAlternativeGasStations(PlanRequest request, final Route directRoute,
+                                                                     final Duration stopETA, int... distances)
+            throws InvalidRequestException, NoConnectionException, SupersededException {
+        final MapLocation origin = request.currentLocation;
+        final Duration sessionTimeLeft = regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft();
 
+        //One search per distance, all running at the same time
+        List<Callable<RouteLocation>> searches = new ArrayList<Callable<RouteLocation>>();
+        for (final int tempDistance : distances) {
+            searches.add(new Callable<RouteLocation>() {
+                @Override
+                public RouteLocation call() throws Exception {
+                    LatLng tempCoordinate = findLatLngWithinReach(directRoute, stopETA, tempDistance);
+                    try {
+                        ArrayList<RouteLocation> response = placesProvider.getNearbyGasStations(tempCoordinate);
+                        if (response == null) {
+                            return null;
+                        }
 
-        for (int tempDistance : distances) {
-            LatLng tempCoordinate = findLatLngWithinReach(directRoute, stopETA, tempDistance);
-            ArrayList<RouteLocation> response = placesProvider.getNearbyGasStations(tempCoordinate);
-
-            for (RouteLocation location : response) {
-                Route tempRoute = directionsProvider.getRoute(currentLocation, location);
-                if (tempRoute.getFinalDestination().getEta().
-                        isShorterThan(regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft()) &&
-                        tempRoute.getDistance() < tempDistance) {
-                    incompleteInfo.add(location);
-                    break; //Can not afford to do more calls to check the optimum one
+                        for (RouteLocation location : response) {
+                            Route tempRoute = directionsProvider.getRoute(origin, location);
+                            if (tempRoute.getFinalDestination().getEta().isShorterThan(sessionTimeLeft) &&
+                                    tempRoute.getDistance() < tempDistance) {
+                                //Can not afford to do more calls to check the optimum one
+                                return tempRoute.getFinalDestination();
+                            }
+                        }
+                    } catch (NoConnectionException e) {
+                        //Out of requests, or connection, it is only an alternative
+                    }
+                    return null;
                 }
-            }
+            });
         }
 
-        //Creates new RouteLocations with all variables set
-        for (RouteLocation incompleteLocation : incompleteInfo) {
-            Route tempRoute = directionsProvider.getRoute(currentLocation, incompleteLocation);
-            completeInfo.add(tempRoute.getFinalDestination());
-        }
-        return completeInfo;
+        return withoutMissing(evaluateConcurrently(request.generation, searches));
     }
 
     /**
      * Get optimized route with one rest location as a checkpoint.
      *
+     * @param request            what the route is planned for.
      * @param directRoute        Route from Google Directions without any rest or gas stops.
      * @param within             Within what time a rest should be made.
      * @param gasStationRequired True if the stop have to be a gas station
-     * @return An optimized route with the most suitable rest location as a checkpoint.
+     * @return An optimized route with the most suitable rest location as a checkpoint,
+     * or the direct route if no stop could be planned. Never null.
      */
-    private Route getOptimizedRoute(Route directRoute, Duration within, boolean gasStationRequired)
-            throws InvalidRequestException, NoConnectionException {
+    private Route getOptimizedRoute(PlanRequest request, Route directRoute, Duration within, boolean gasStationRequired)
+            throws InvalidRequestException, NoConnectionException, SupersededException {
         Route optimalRoute = null;
         LatLng optimalLatLong;
         ArrayList<RouteLocation> closeLocations;
 
-        optimalLatLong = findLatLngWithinReach(directRoute, within, fuelTank.getMileage() * 1000);
-        if (gasStationRequired) {
-            closeLocations = placesProvider.getNearbyGasStations(optimalLatLong);
-        } else {
-            closeLocations = placesProvider.getNearbyRestLocations(optimalLatLong);
-        }
+        double stopDistance = findDistanceWithinReach(directRoute, within, fuelTank.getMileage() * 1000);
+        optimalLatLong = directRoute.getGeometry().getPositionAtDistance(stopDistance);
+        closeLocations = placesProvider.findStops(directRoute.getGeometry(), stopDistance, gasStationRequired);
 
         if (closeLocations.size() == 0) {
             if (gasStationRequired) {
-                while (closeLocations.size() == 0) {
-                    optimalLatLong = findLatLngWithinReach(directRoute, within, fuelTank.getMileage() * 1000);
-                    closeLocations = placesProvider.getNearbyGasStations(optimalLatLong);
-                }
+                //No gas station within reach, better to show the route without one than no route at all
+                Log.w("TripPlanner", "No gas station found within reach");
+                return directRoute;
             } else {
-                Route tempRoute = directionsProvider.getRoute(currentLocation, new MapLocation(optimalLatLong));
-                RouteLocation forcedLocation = new RouteLocation(optimalLatLong, "", tempRoute.getEta(),
-                        Instant.now().plus(tempRoute.getEta()), tempRoute.getDistance());
+                //At the side of the road, where the direct route already tells how long it takes to get there
+                Duration forcedETA = Duration.standardSeconds(
+                        (long) directRoute.getGeometry().getDurationAtDistance(stopDistance));
+                RouteLocation forcedLocation = new RouteLocation(optimalLatLong, "", forcedETA,
+                        Instant.now().plus(forcedETA), (int) stopDistance);
 
                 closeLocations.add(forcedLocation);
             }
         }
 
-        //Just calculating the five best matches from Google
-        for (int i = 0; i < 5 && i < closeLocations.size(); i++) {
-            //Temporary creation
-            LinkedList<MapLocation> tempList = new LinkedList<MapLocation>();
+        //Just calculating the five best matches from Google, all of them at the same time
+        int candidates = isBudgetLow() ? LOW_BUDGET_CANDIDATES : MAX_CANDIDATES;
+        final MapLocation origin = request.startLocation;
+        final MapLocation destination = request.finalDestination;
+        final List<MapLocation> laterCheckpoints = request.checkpoints;
+        List<Callable<Route>> evaluations = new ArrayList<Callable<Route>>();
+        for (int i = 0; i < candidates && i < closeLocations.size(); i++) {
+            final RouteLocation candidate = closeLocations.get(i);
+            evaluations.add(new Callable<Route>() {
+                @Override
+                public Route call() throws Exception {
+                    //Temporary creation
+                    LinkedList<MapLocation> tempList = new LinkedList<MapLocation>();
 
-            tempList.add(closeLocations.get(i));
-            if (checkpoints != null) {
-                tempList.addAll(checkpoints);
+                    tempList.add(candidate);
+                    if (laterCheckpoints != null) {
+                        tempList.addAll(laterCheckpoints);
+                    }
+                    try {
+                        return directionsProvider.getRoute(origin, destination, tempList);
+                    } catch (NoConnectionException e) {
+                        //Out of requests, or connection, the other candidates may still make it
+                        return null;
+                    }
+                }
+            });
+        }
+        //A stop that can be reached this session, and not much earlier than wanted, is as good as it gets
+        final Duration sessionTimeLeft = regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft();
+        final Duration earliestWanted = (within.isShorterThan(sessionTimeLeft) ? within : sessionTimeLeft).minus(MARGINAL);
+        List<Route> candidateRoutes = evaluateConcurrently(request.generation, evaluations, new GoodEnough<Route>() {
+            @Override
+            public boolean isGoodEnough(Route candidateRoute) {
+                Duration stopETA = candidateRoute.getCheckpoints().get(0).getEta();
+                return stopETA.isShorterThan(sessionTimeLeft) && !stopETA.isShorterThan(earliestWanted);
             }
+        }, EVALUATION_DEADLINE);
 
-            //Checks if the restLocation is a possible stop and is faster than the previous
-            Route temp = directionsProvider.getRoute(startLocation, finalDestination, tempList);
+        for (int i = 0; i < candidateRoutes.size(); i++) {
+            Route temp = candidateRoutes.get(i);
+            if (temp == null) {
+                continue; //Did not make it before the deadline, or another candidate was good enough
+            }
 
-            if (temp.getCheckpoints().get(0).getEta().isShorterThan(regulationHandler.getThisSessionTL(user.getHistory()).getTimeLeft())) {
+            //Checks if the restLocation is a possible stop and is faster than the previous
+            if (temp.getCheckpoints().get(0).getEta().isShorterThan(sessionTimeLeft)) {
                 if (optimalRoute == null) {
-                    this.recommendedStop = closeLocations.get(i);
+                    request.recommendedStop = closeLocations.get(i);
                     optimalRoute = temp;
                 } else if (temp.getEta().isShorterThan(optimalRoute.getEta())) {
-                    this.recommendedStop = closeLocations.get(i);
+                    request.recommendedStop = closeLocations.get(i);
                     optimalRoute = temp;
                 }
             }
         }
+
+        if (optimalRoute == null) {
+            //No candidate evaluated in time, or none within reach this session, better the route without a stop than none
+            Log.w("TripPlanner", "No stop could be planned, using the direct route");
+            return directRoute;
+        }
         return optimalRoute;
     }
 
     /**
-     * Find the coordinate on the polyline that have the smallest delta value from the time and distance left.
+     * Find the coordinate on the route that is reached a little before driving for the given time,
+     * or after driving the given distance if that comes first. Only the geometry of the route is
+     * used, no requests are made.
      *
      * @param directRoute    Route from Google Directions without any rest or gas stops.
      * @param timeLeft       ETA that the coordinate should be close to.
      * @param withinDistance Distance that the LatLng has to be within in meters.
      * @return The coordinate that matches time left the best.
      */
-    private LatLng findLatLngWithinReach(Route directRoute, Duration timeLeft, int withinDistance)
-            throws InvalidRequestException, NoConnectionException {
-
-        double[] divider = {0, 0.125, 0.25, 0.375, 0.5, 0.625, 0.750, 0.875, 1};
-        ArrayList<LatLng> coordinates = directRoute.getDetailedPolyline();
-        int[] index = new int[9];
-        int topIndex = coordinates.size() - 1;
-        int bottomIndex = 0;
-        Route routeToLatLng;
-
-        // Type of binary search with eight instead of two parts to minimize google requests
-        do {
-            LatLng[] baseLatLng = new LatLng[9];
-
-            for (int i = 0; i < 9; i++) {
-                index[i] = (int) ((topIndex - bottomIndex) * divider[i] + bottomIndex);
-                baseLatLng[i] = coordinates.get(index[i]);
-            }
-
-            ArrayList<MapLocation> tempLocations = new ArrayList<MapLocation>();
-            for (int i = 1; i < 8; i++) {
-                tempLocations.add(new MapLocation(baseLatLng[i]));
-            }
-            routeToLatLng = directionsProvider.getRoute(new MapLocation(baseLatLng[0]), new MapLocation(baseLatLng[8]), tempLocations);
-            for (int i = 0; i < 8; i++) {
-                //Checks if the LatLng matches end conditions
-                if ((routeToLatLng.getCheckpoints().get(i).getEta().isLongerThan(timeLeft.minus(Duration.standardMinutes(5))) &&
-                        routeToLatLng.getCheckpoints().get(i).getEta().isShorterThan(timeLeft)) ||
-                        routeToLatLng.getCheckpoints().get(i).getDistance() > withinDistance + 10000 &&
-                                routeToLatLng.getCheckpoints().get(i).getDistance() < withinDistance) {
-                    return routeToLatLng.getCheckpoints().get(i).getLatLng();
+    private LatLng findLatLngWithinReach(Route directRoute, Duration timeLeft, int withinDistance) {
+        return directRoute.getGeometry().getPositionAtDistance(findDistanceWithinReach(directRoute, timeLeft, withinDistance));
+    }
+
+    /**
+     * Same as findLatLngWithinReach, but how far along the route the coordinate is.
+     *
+     * @param directRoute    Route from Google Directions without any rest or gas stops.
+     * @param timeLeft       ETA that the coordinate should be close to.
+     * @param withinDistance Distance that the LatLng has to be within in meters.
+     * @return Distance along the route in meters.
+     */
+    private double findDistanceWithinReach(Route directRoute, Duration timeLeft, int withinDistance) {
+        RouteGeometry geometry = directRoute.getGeometry();
+        long secondsToStop = Math.max(0, timeLeft.minus(REACH_MARGIN).getStandardSeconds());
+        return Math.min(geometry.getDistanceAtDuration(secondsToStop), withinDistance);
+    }
+
+    /**
+     * Run independent evaluations concurrently and collect their results in the given order.
+     * Evaluations that have not finished when the deadline passes are cancelled and give null.
+     *
+     * @param generation  the generation of the replan the evaluations belong to.
+     * @param evaluations the evaluations to run.
+     * @return the result of each evaluation, null if it did not finish in time.
+     * @throws InvalidRequestException if an evaluation failed with an invalid request.
+     * @throws NoConnectionException   if an evaluation failed to connect, or the planning was interrupted.
+     * @throws SupersededException     if a newer replan started, the evaluations are cancelled then.
+     */
+    private <T> List<T> evaluateConcurrently(long generation, List<Callable<T>> evaluations)
+            throws InvalidRequestException, NoConnectionException, SupersededException {
+        return evaluateConcurrently(generation, evaluations, null, EVALUATION_DEADLINE);
+    }
+
+    /**
+     * Run independent evaluations concurrently and collect their results in the given order.
+     * As soon as one result is good enough the evaluations still running are cancelled, as are
+     * the ones that have not finished when the deadline passes. Those give null.
+     *
+     * @param generation  the generation of the replan the evaluations belong to.
+     * @param evaluations the evaluations to run.
+     * @param goodEnough  decides if a result is good enough to stop at, null to wait for every result.
+     * @param deadline    how long to wait for the results.
+     * @return the result of each evaluation, null if it was cancelled.
+     * @throws InvalidRequestException if an evaluation failed with an invalid request.
+     * @throws NoConnectionException   if an evaluation failed to connect, or the planning was interrupted.
+     * @throws SupersededException     if a newer replan started, the evaluations are cancelled then.
+     */
+    <T> List<T> evaluateConcurrently(long generation, List<Callable<T>> evaluations, GoodEnough<T> goodEnough,
+                                     Duration deadline)
+            throws InvalidRequestException, NoConnectionException, SupersededException {
+        CompletionService<T> completion = new ExecutorCompletionService<T>(candidateExecutor);
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        List<T> results = new ArrayList<T>();
+        long deadlineMillis = System.currentTimeMillis() + deadline.getMillis();
+
+        try {
+            synchronized (outstandingWork) {
+                //Nothing is started for a replan that is already replaced
+                checkCurrent(generation);
+                for (Callable<T> evaluation : evaluations) {
+                    Future<T> future = completion.submit(withAllowance(evaluation));
+                    futures.add(future);
+                    outstandingWork.add(future);
+                    results.add(null);
+                }
+            }
+
+            //Take the results in the order they finish, so a good one can end the wait early
+            for (int finished = 0; finished < futures.size(); finished++) {
+                Future<T> future = completion.poll(Math.max(0, deadlineMillis - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS);
+                if (future == null) {
+                    Log.w("TripPlanner", (futures.size() - finished) + " candidates not evaluated before deadline, skipping them");
+                    break;
                 }
 
-                if (routeToLatLng.getCheckpoints().get(i).getEta().isShorterThan(timeLeft.minus(Duration.standardMinutes(5))) &&
-                        routeToLatLng.getCheckpoints().get(i).getDistance() < withinDistance) {
-                    bottomIndex = index[i];
-                } else {
-                    topIndex = index[i];
+                T result = future.get();
+                results.set(futures.indexOf(future), result);
+                if (result != null && goodEnough != null && goodEnough.isGoodEnough(result)) {
                     break;
                 }
             }
-        } while (topIndex - bottomIndex > 1);
+        } catch (CancellationException e) {
+            throw new SupersededException("A newer replan has started");
+        } catch (ExecutionException e) {
+            //Failures of a replan that is already replaced do not matter
+            checkCurrent(generation);
+
+            Throwable cause = e.getCause();
+            if (cause instanceof InvalidRequestException) {
+                throw (InvalidRequestException) cause;
+            } else if (cause instanceof NoConnectionException) {
+                throw (NoConnectionException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new NoConnectionException(String.valueOf(cause));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NoConnectionException("Interrupted while evaluating candidates");
+        } finally {
+            //Nothing left running once we are done, whether we finished, stopped early or failed
+            synchronized (outstandingWork) {
+                for (Future<T> future : futures) {
+                    future.cancel(true);
+                    outstandingWork.remove(future);
+                }
+            }
+        }
+        checkCurrent(generation);
+        return results;
+    }
+
+    /**
+     * Run the searches of a planning of the trip concurrently and collect the results of the ones that succeed.
+     * Searches that fail, or have not finished when the deadline passes, are skipped.
+     *
+     * @param trip     the generation of the trip planning the searches belong to.
+     * @param searches the searches to run.
+     * @return the results of the searches that succeeded, fewer if the planning was cancelled.
+     */
+    private List<ArrayList<RouteLocation>> searchConcurrently(long trip,
+                                                              List<Callable<ArrayList<RouteLocation>>> searches) {
+        List<Future<ArrayList<RouteLocation>>> futures = new ArrayList<Future<ArrayList<RouteLocation>>>();
+        List<ArrayList<RouteLocation>> results = new ArrayList<ArrayList<RouteLocation>>();
+        long deadlineMillis = System.currentTimeMillis() + TRIP_SEARCH_DEADLINE.getMillis();
+
+        synchronized (tripWork) {
+            //Nothing is started for a planning that is already replaced
+            if (tripGeneration.get() != trip) {
+                return results;
+            }
+            for (Callable<ArrayList<RouteLocation>> search : searches) {
+                Future<ArrayList<RouteLocation>> future = candidateExecutor.submit(withAllowance(search));
+                futures.add(future);
+                tripWork.add(future);
+            }
+        }
+
+        try {
+            for (Future<ArrayList<RouteLocation>> future : futures) {
+                try {
+                    results.add(future.get(Math.max(0, deadlineMillis - System.currentTimeMillis()),
+                            TimeUnit.MILLISECONDS));
+                } catch (ExecutionException e) {
+                    Log.w("TripPlanner", "Search along the route failed, skipping it: " + e.getCause());
+                } catch (TimeoutException e) {
+                    Log.w("TripPlanner", "Search along the route not done before deadline, skipping it");
+                } catch (CancellationException e) {
+                    //The planning has been replaced, the caller finds out by the generation
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (tripWork) {
+                for (Future<ArrayList<RouteLocation>> future : futures) {
+                    future.cancel(true);
+                    tripWork.remove(future);
+                }
+            }
+        }
+        return results;
+    }
+
+    private ArrayList<RouteLocation> withoutMissing(List<RouteLocation> locations) {
+        ArrayList<RouteLocation> found = new ArrayList<RouteLocation>();
+        for (RouteLocation location : locations) {
+            if (location != null) {
+                found.add(location);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Decides if a result of evaluateConcurrently is good enough to stop waiting for the others.
+     */
+    interface GoodEnough<T> {
+        boolean isGoodEnough(T result);
+    }
+
+    /**
+     * Everything a route is planned from, taken from the planner when the planning starts so a
+     * replan running in the background is not affected by later changes.
+     */
+    private static class PlanRequest {
+        private long generation;
+        private final MapLocation currentLocation;
+        private final MapLocation startLocation;
+        private final MapLocation finalDestination;
+        private final List<MapLocation> checkpoints;
+        private final RouteLocation chosenStop;
 
-        return directRoute.getDetailedPolyline().get(bottomIndex);
+        //Set while planning
+        private RouteLocation recommendedStop;
+
+        private PlanRequest(long generation, MapLocation currentLocation, MapLocation startLocation,
+                            MapLocation finalDestination, List<MapLocation> checkpoints, RouteLocation chosenStop) {
+            this.generation = generation;
+            this.currentLocation = currentLocation;
+            this.startLocation = startLocation;
+            this.finalDestination = finalDestination;
+            this.checkpoints = checkpoints;
+            this.chosenStop = chosenStop;
+        }
+    }
+
+    /**
+     * A route being calculated from a checkpoint before it is reached.
+     */
+    private static class Prefetch {
+        private final MapLocation checkpoint;
+        private final PlanRequest request;
+        //The direct route and the planned route
+        private final Future<Route[]> result;
+
+        private Prefetch(MapLocation checkpoint, PlanRequest request, Future<Route[]> result) {
+            this.checkpoint = checkpoint;
+            this.request = request;
+            this.result = result;
+        }
     }
-}
\ No newline at end of file
+}
@@ -1,73 +1,23 @@
 package truckerboys.otto.utils;
 
 import android.os.AsyncTask;
-import android.util.Log;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
 
+/**
+ * AsyncTask wrapper around the HttpTransport.
+ * <p/>
+ * Prefer calling HttpTransport directly, this class only exists for callers that need an AsyncTask.
+ */
 public class GoogleRequesterHandler extends AsyncTask<String, Void, String> {
 
     @Override
     protected String doInBackground(String... strings) {
         try {
-            return getJSONResponse(strings[0]);
-        } catch (IOException e) {
+            return HttpTransport.getInstance().request(strings[0]);
+        } catch (NoConnectionException e) {
             e.printStackTrace();
         }
         return null;
     }
-
-    /**
-     * Get JSON response from target URI
-     *
-     * Based on example from
-     * http://wptrafficanalyzer.in/blog/drawing-driving-route-directions-between-two-locations-using-google-directions-in-google-map-android-api-v2/
-     * Written by George Mathew
-     *
-     * @param strUrl - target URI
-     * @return JSON response as String
-     * @throws IOException
-     */
-    private String getJSONResponse(String strUrl) throws IOException {
-        String data = "";
-        InputStream iStream = null;
-        HttpURLConnection urlConnection = null;
-        try {
-            URL url = new URL(strUrl);
-
-            // Creating an http connection to communicate with url
-            urlConnection = (HttpURLConnection) url.openConnection();
-
-            // Connecting to url
-            urlConnection.connect();
-
-            // Reading data from url
-            iStream = urlConnection.getInputStream();
-
-            BufferedReader br = new BufferedReader(new InputStreamReader(iStream));
-
-            StringBuilder sb = new StringBuilder();
-
-            String line = "";
-            while ((line = br.readLine()) != null) {
-                sb.append(line);
-            }
-
-            data = sb.toString();
-
-            br.close();
-
-        } catch (Exception e) {
-            Log.d("Exception while downloading url", e.toString());
-        } finally {
-            iStream.close();
-            urlConnection.disconnect();
-        }
-        return data;
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,246 @@
+package truckerboys.otto.utils;
+
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+
+/**
+ * Sends HTTP GET requests on a small, bounded pool of worker threads.
+ * <p/>
+ * Unlike an AsyncTask, which runs every task on the same serial executor, several requests
+ * can be in flight at the same time. Connections are kept alive and reused between requests
+ * and responses are requested gzipped.
+ */
+public class HttpTransport {
+    private static HttpTransport httpTransport;
+
+    // Number of requests that can be in flight at the same time.
+    public static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    // Number of requests that may wait for a worker before new requests are rejected.
+    private static final int MAX_QUEUED_REQUESTS = 32;
+
+    private static final int CONNECT_TIMEOUT_MS = 10 * 1000;
+    private static final int READ_TIMEOUT_MS = 15 * 1000;
+
+    // Total time a blocking request may take, including time spent waiting in the queue.
+    public static final long DEFAULT_REQUEST_TIMEOUT_MS = 30 * 1000;
+
+    private final ThreadPoolExecutor executor;
+
+    private HttpTransport() {
+        // Let HttpURLConnection keep one idle connection per worker.
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_CONCURRENT_REQUESTS));
+
+        executor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "HttpTransport #" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                // Never run a request on the calling thread, it may be the UI thread.
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Return the instance of the HttpTransport.
+     *
+     * @return The instance of HttpTransport.
+     */
+    public static synchronized HttpTransport getInstance() {
+        if (httpTransport == null) {
+            httpTransport = new HttpTransport();
+        }
+        return httpTransport;
+    }
+
+    /**
+     * Queue a request without blocking the caller.
+     * If too many requests are already waiting, the returned Future holds the failure instead.
+     *
+     * @param url target URL
+     * @return a Future holding the response body.
+     */
+    public Future<String> submit(final String url) {
+        try {
+            return executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return download(url);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            FutureTask<String> rejected = new FutureTask<String>(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    throw new IOException("Too many requests waiting");
+                }
+            });
+            rejected.run();
+            return rejected;
+        }
+    }
+
+    /**
+     * Queue a request and get notified when it is done.
+     *
+     * @param url      target URL
+     * @param listener listener that receives the response or the failure.
+     * @return a Future that can be used to cancel the request.
+     * @throws RejectedExecutionException if too many requests are already waiting, the listener is not called then.
+     */
+    public Future<?> submit(final String url, final IResponseListener listener) {
+        return executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                String response;
+                try {
+                    response = download(url);
+                } catch (IOException e) {
+                    listener.onFailure(new NoConnectionException(e.toString()));
+                    return;
+                }
+                listener.onResponse(response);
+            }
+        });
+    }
+
+    /**
+     * Send a request and wait for the response, using the default timeout.
+     *
+     * @param url target URL
+     * @return the response body.
+     * @throws NoConnectionException if the request failed or timed out.
+     */
+    public String request(String url) throws NoConnectionException {
+        return request(url, DEFAULT_REQUEST_TIMEOUT_MS);
+    }
+
+    /**
+     * Send a request and wait for the response.
+     *
+     * @param url       target URL
+     * @param timeoutMs maximum time to wait for the response in milliseconds.
+     * @return the response body.
+     * @throws NoConnectionException if the request failed or timed out.
+     */
+    public String request(String url, long timeoutMs) throws NoConnectionException {
+        return await(submit(url), timeoutMs);
+    }
+
+    /**
+     * Wait for a Future returned by submit(String).
+     *
+     * @param response  Future from submit(String)
+     * @param timeoutMs maximum time to wait for the response in milliseconds.
+     * @return the response body.
+     * @throws NoConnectionException if the request failed or timed out.
+     */
+    public static String await(Future<String> response, long timeoutMs) throws NoConnectionException {
+        try {
+            return response.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            response.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new NoConnectionException("InterruptedException");
+        } catch (ExecutionException e) {
+            throw new NoConnectionException(String.valueOf(e.getCause()));
+        } catch (TimeoutException e) {
+            response.cancel(true);
+            throw new NoConnectionException("Request timed out after " + timeoutMs + " ms");
+        }
+    }
+
+    /**
+     * Download the body of the target URL.
+     * <p/>
+     * The stream is read to the end and closed without disconnecting, which hands the
+     * socket back to the connection pool so the next request to the same host can reuse it.
+     *
+     * @param strUrl target URL
+     * @return the response body as a String.
+     * @throws IOException if the request failed.
+     */
+    private String download(String strUrl) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(strUrl).openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MS);
+        urlConnection.setRequestProperty("Accept-Encoding", "gzip");
+
+        InputStream iStream = null;
+        try {
+            int status = urlConnection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK) {
+                // Read the error body so the connection can be reused.
+                drain(urlConnection.getErrorStream());
+                throw new IOException("HTTP " + status + " from " + urlConnection.getURL().getHost());
+            }
+
+            iStream = urlConnection.getInputStream();
+            if ("gzip".equalsIgnoreCase(urlConnection.getContentEncoding())) {
+                iStream = new GZIPInputStream(iStream);
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = iStream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+            return body.toString("UTF-8");
+        } catch (IOException e) {
+            Log.d("HttpTransport", "Exception while downloading url: " + e.toString());
+            throw e;
+        } finally {
+            if (iStream != null) {
+                iStream.close();
+            }
+        }
+    }
+
+    /**
+     * Read and close a stream, ignoring its content.
+     *
+     * @param stream stream to drain, may be null.
+     */
+    private void drain(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[1024];
+            while (stream.read(buffer) != -1) {
+                // Discard
+            }
+            stream.close();
+        } catch (IOException e) {
+            // The connection will not be reused, nothing else to do.
+        }
+    }
+}
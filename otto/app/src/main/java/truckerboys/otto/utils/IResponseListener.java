@@ -0,0 +1,23 @@
+package truckerboys.otto.utils;
+
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+
+/**
+ * Callback for requests sent through the HttpTransport.
+ * Both methods are called from one of the transports worker threads, not the UI thread.
+ */
+public interface IResponseListener {
+    /**
+     * Called when the whole response body has been read.
+     *
+     * @param response the response body.
+     */
+    public void onResponse(String response);
+
+    /**
+     * Called when the request could not be completed.
+     *
+     * @param e the reason the request failed.
+     */
+    public void onFailure(NoConnectionException e);
+}
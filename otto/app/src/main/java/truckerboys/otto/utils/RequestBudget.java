@@ -0,0 +1,223 @@
+package truckerboys.otto.utils;
+
+import java.util.LinkedList;
+
+/**
+ * Limits how many requests are sent to the online APIs, both during one replan and during the last hour.
+ * <p/>
+ * The same budget is shared by every IDirections and IPlaces that makes requests, so the planner
+ * can see how much is left and choose a cheaper way to plan when it is running low.
+ * <p/>
+ * The hour is shared by everyone, but every replan has an Allowance of its own, so replans running
+ * at the same time do not use up or reset each other's. Requests are taken from the allowance of the
+ * thread making them, threads working for a replan should be given its allowance with setAllowance.
+ */
+public class RequestBudget {
+    public static final int DEFAULT_REPLAN_LIMIT = 30;
+    public static final int DEFAULT_HOUR_LIMIT = 300;
+
+    private static final long HOUR = 60 * 60 * 1000;
+
+    //Less than this part of a limit left counts as running low
+    private static final double LOW_SHARE = 0.25;
+
+    private final int replanLimit;
+    private final int hourLimit;
+
+    //The replan each thread is making requests for, none outside replans
+    private final ThreadLocal<Allowance> allowance = new ThreadLocal<Allowance>();
+    //When each request in the last hour was made, oldest first
+    private final LinkedList<Long> usedThisHour = new LinkedList<Long>();
+
+    private int totalUsed;
+    private int denied;
+    private int replans;
+
+    public RequestBudget() {
+        this(DEFAULT_REPLAN_LIMIT, DEFAULT_HOUR_LIMIT);
+    }
+
+    /**
+     * @param replanLimit most requests one replan may make.
+     * @param hourLimit   most requests that may be made during an hour.
+     */
+    public RequestBudget(int replanLimit, int hourLimit) {
+        this.replanLimit = replanLimit;
+        this.hourLimit = hourLimit;
+    }
+
+    /**
+     * Start counting the requests of a new replan, made by the calling thread.
+     *
+     * @return the allowance of the new replan, to give to other threads working for it.
+     */
+    public Allowance startReplan() {
+        return startReplan(replanLimit);
+    }
+
+    /**
+     * Start counting the requests of a new replan, made by the calling thread, with a limit of its own.
+     * For planning that needs more requests than a replan, but should not use up the hour.
+     *
+     * @param limit most requests the new replan may make.
+     * @return the allowance of the new replan, to give to other threads working for it.
+     */
+    public synchronized Allowance startReplan(int limit) {
+        replans++;
+        Allowance started = new Allowance(limit);
+        allowance.set(started);
+        return started;
+    }
+
+    /**
+     * Take the requests of the calling thread from the allowance of a replan.
+     *
+     * @param replan the allowance from startReplan, or null to only count the requests in the hour.
+     */
+    public void setAllowance(Allowance replan) {
+        if (replan == null) {
+            allowance.remove();
+        } else {
+            allowance.set(replan);
+        }
+    }
+
+    /**
+     * Get the allowance the requests of the calling thread are taken from.
+     *
+     * @return the allowance, or null if the thread is not making requests for a replan.
+     */
+    public Allowance getAllowance() {
+        return allowance.get();
+    }
+
+    /**
+     * Use one request of the budget, if there is any left.
+     *
+     * @return true if the request may be made, false if the budget is used up.
+     */
+    public boolean tryUse() {
+        return tryUse(System.currentTimeMillis());
+    }
+
+    synchronized boolean tryUse(long now) {
+        expire(now);
+        Allowance replan = allowance.get();
+        if ((replan != null && replan.used >= replan.limit) || usedThisHour.size() >= hourLimit) {
+            denied++;
+            return false;
+        }
+        if (replan != null) {
+            replan.used++;
+        }
+        usedThisHour.addLast(now);
+        totalUsed++;
+        return true;
+    }
+
+    /**
+     * Get the number of requests that may still be made, in this replan and this hour.
+     *
+     * @return requests left.
+     */
+    public int getRemaining() {
+        return getRemaining(System.currentTimeMillis());
+    }
+
+    synchronized int getRemaining(long now) {
+        expire(now);
+        return Math.max(0, Math.min(getLimitThisReplan() - getUsedThisReplan(), hourLimit - usedThisHour.size()));
+    }
+
+    /**
+     * Check if the budget is running low, the planner should use fewer requests then.
+     *
+     * @return true if little of the replan or hour budget is left.
+     */
+    public boolean isLow() {
+        return isLow(System.currentTimeMillis());
+    }
+
+    synchronized boolean isLow(long now) {
+        expire(now);
+        return getLimitThisReplan() - getUsedThisReplan() < getLimitThisReplan() * LOW_SHARE ||
+                hourLimit - usedThisHour.size() < hourLimit * LOW_SHARE;
+    }
+
+    /**
+     * Get the number of requests made in the replan of the calling thread.
+     *
+     * @return requests this replan, 0 outside replans.
+     */
+    public synchronized int getUsedThisReplan() {
+        Allowance replan = allowance.get();
+        return replan == null ? 0 : replan.used;
+    }
+
+    private int getLimitThisReplan() {
+        Allowance replan = allowance.get();
+        return replan == null ? replanLimit : replan.limit;
+    }
+
+    /**
+     * Get the number of requests made during the last hour.
+     *
+     * @return requests the last hour.
+     */
+    public synchronized int getUsedThisHour() {
+        expire(System.currentTimeMillis());
+        return usedThisHour.size();
+    }
+
+    /**
+     * Get the number of requests made since the budget was created.
+     *
+     * @return all requests made.
+     */
+    public synchronized int getTotalUsed() {
+        return totalUsed;
+    }
+
+    /**
+     * Get the number of requests that were not made because the budget was used up.
+     *
+     * @return denied requests.
+     */
+    public synchronized int getDenied() {
+        return denied;
+    }
+
+    /**
+     * Get the number of replans started.
+     *
+     * @return number of replans.
+     */
+    public synchronized int getReplans() {
+        return replans;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "replan " + getUsedThisReplan() + "/" + getLimitThisReplan() + ", hour " + usedThisHour.size() + "/" + hourLimit +
+                ", total " + totalUsed + ", denied " + denied + ", replans " + replans;
+    }
+
+    private void expire(long now) {
+        while (!usedThisHour.isEmpty() && usedThisHour.getFirst() <= now - HOUR) {
+            usedThisHour.removeFirst();
+        }
+    }
+
+    /**
+     * The requests one replan may make, counted apart from the other replans.
+     */
+    public static class Allowance {
+        private final int limit;
+        //Guarded by the budget
+        private int used;
+
+        private Allowance(int limit) {
+            this.limit = limit;
+        }
+    }
+}
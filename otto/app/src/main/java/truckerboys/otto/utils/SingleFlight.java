@@ -0,0 +1,118 @@
+package truckerboys.otto.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes sure that only one call per key is running at a time.
+ * <p/>
+ * If a call is made while an identical call (same key) is already running, the second caller
+ * does not start a new call but waits for the running one and gets the same result,
+ * or the same exception. Except when the call failed because the caller running it was interrupted,
+ * that only concerns that caller, so the call is run again for the ones that were waiting.
+ *
+ * @param <V> type of the result of the calls.
+ */
+public class SingleFlight<V> {
+    private final ConcurrentHashMap<String, FutureTask<V>> inFlight = new ConcurrentHashMap<String, FutureTask<V>>();
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicInteger sharedCalls = new AtomicInteger();
+
+    /**
+     * Run a call, or wait for an identical call that is already running.
+     *
+     * @param key  identifies the call, calls with equal keys must have equal results.
+     * @param call the call to run if no identical call is running.
+     * @return the result of the call.
+     * @throws Exception the exception thrown by the call.
+     */
+    public V execute(String key, Callable<V> call) throws Exception {
+        calls.incrementAndGet();
+
+        while (true) {
+            FutureTask<V> task = new FutureTask<V>(new InterruptionAware<V>(call));
+            FutureTask<V> running = inFlight.putIfAbsent(key, task);
+
+            boolean shared = running != null;
+            if (shared) {
+                //Someone else is already doing the work, wait for it.
+                sharedCalls.incrementAndGet();
+                task = running;
+            } else {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.remove(key, task);
+                }
+            }
+
+            try {
+                return task.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InterruptedCallException) {
+                    if (shared) {
+                        //Not our interruption, try again ourselves
+                        continue;
+                    }
+                    cause = cause.getCause();
+                }
+                if (cause instanceof Exception) {
+                    throw (Exception) cause;
+                }
+                throw e;
+            }
+        }
+    }
+    /**
+     * Get the number of calls made through execute.
+     *
+     * @return number of calls.
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Get the number of calls that shared the result of a call that was already running,
+     * in other words the number of calls that were saved.
+     *
+     * @return number of saved calls.
+     */
+    public int getSharedCalls() {
+        return sharedCalls.get();
+    }
+
+    /**
+     * Marks the failures of a call that happen because the thread running it was interrupted.
+     */
+    private static class InterruptionAware<V> implements Callable<V> {
+        private final Callable<V> call;
+
+        private InterruptionAware(Callable<V> call) {
+            this.call = call;
+        }
+
+        @Override
+        public V call() throws Exception {
+            try {
+                return call.call();
+            } catch (Exception e) {
+                if (e instanceof InterruptedException || Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedCallException(e);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static class InterruptedCallException extends Exception {
+        private InterruptedCallException(Exception cause) {
+            super(cause);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package truckerboys.otto.utils.eventhandler.events;
+
+import org.joda.time.Duration;
+
+/**
+ * Represents an event that indicates that the progress along the active route has changed,
+ * containing what is left to the next checkpoint and to the final destination.
+ */
+public class RouteProgressEvent extends Event {
+    private int distanceToNextCheckpoint;
+    private Duration timeToNextCheckpoint;
+    private int distanceToFinalDestination;
+    private Duration timeToFinalDestination;
+
+    public RouteProgressEvent(int distanceToNextCheckpoint, Duration timeToNextCheckpoint,
+                              int distanceToFinalDestination, Duration timeToFinalDestination) {
+        super(EventType.ROUTE);
+        this.distanceToNextCheckpoint = distanceToNextCheckpoint;
+        this.timeToNextCheckpoint = timeToNextCheckpoint;
+        this.distanceToFinalDestination = distanceToFinalDestination;
+        this.timeToFinalDestination = timeToFinalDestination;
+    }
+
+    public int getDistanceToNextCheckpoint() {
+        return distanceToNextCheckpoint;
+    }
+
+    public Duration getTimeToNextCheckpoint() {
+        return timeToNextCheckpoint;
+    }
+
+    public int getDistanceToFinalDestination() {
+        return distanceToFinalDestination;
+    }
+
+    public Duration getTimeToFinalDestination() {
+        return timeToFinalDestination;
+    }
+}
@@ -0,0 +1,7 @@
+package truckerboys.otto.utils.exceptions;
+
+public class SupersededException extends Exception {
+    public SupersededException(String input) {
+        super(input);
+    }
+}
@@ -0,0 +1,180 @@
+package truckerboys.otto.utils.positions;
+
+import java.util.List;
+
+/**
+ * A polyline kept in Googles encoded polyline format and decoded first when it is needed.
+ * <p/>
+ * The polyline is made of segments, for a route one segment per step. Each segment is
+ * decoded at most once and the result is kept, so a route that is only used for its ETA
+ * never pays for decoding its polyline. Callers that only need part of the route can
+ * decode a range of segments.
+ */
+public class EncodedPolyline {
+    public static final EncodedPolyline EMPTY = new EncodedPolyline(PackedPolyline.EMPTY);
+
+    private final String[] encodedSegments;
+    private final PackedPolyline[] decodedSegments;
+    private PackedPolyline decoded;
+
+    /**
+     * Creates a polyline from encoded segments.
+     *
+     * @param encodedSegments the segments in Googles encoded polyline format, in order.
+     */
+    public EncodedPolyline(List<String> encodedSegments) {
+        this.encodedSegments = encodedSegments.toArray(new String[encodedSegments.size()]);
+        this.decodedSegments = new PackedPolyline[this.encodedSegments.length];
+    }
+
+    /**
+     * Creates a polyline from one encoded segment.
+     *
+     * @param encoded the polyline in Googles encoded polyline format.
+     */
+    public EncodedPolyline(String encoded) {
+        this.encodedSegments = new String[]{encoded};
+        this.decodedSegments = new PackedPolyline[1];
+    }
+
+    /**
+     * Wraps a polyline that is already decoded as a single segment.
+     *
+     * @param decoded the decoded polyline.
+     */
+    public EncodedPolyline(PackedPolyline decoded) {
+        this.encodedSegments = new String[1];
+        this.decodedSegments = new PackedPolyline[]{decoded};
+        this.decoded = decoded;
+    }
+
+    /**
+     * Get the number of segments.
+     *
+     * @return number of segments (steps for a route).
+     */
+    public int getSegmentCount() {
+        return decodedSegments.length;
+    }
+
+    /**
+     * Get one decoded segment.
+     *
+     * @param index index of the segment.
+     * @return the decoded segment.
+     */
+    public synchronized PackedPolyline getSegment(int index) {
+        if (decodedSegments[index] == null) {
+            decodedSegments[index] = decode(encodedSegments[index]);
+        }
+        return decodedSegments[index];
+    }
+
+    /**
+     * Get the whole decoded polyline.
+     *
+     * @return the decoded polyline.
+     */
+    public synchronized PackedPolyline getPolyline() {
+        if (decoded == null) {
+            decoded = getPolyline(0, getSegmentCount());
+        }
+        return decoded;
+    }
+
+    /**
+     * Get the decoded polyline of a range of segments.
+     *
+     * @param fromSegment index of the first segment, inclusive.
+     * @param toSegment   index of the last segment, exclusive.
+     * @return the decoded segments joined into one polyline.
+     */
+    public synchronized PackedPolyline getPolyline(int fromSegment, int toSegment) {
+        if (toSegment - fromSegment == 1) {
+            return getSegment(fromSegment);
+        }
+
+        int size = 0;
+        for (int i = fromSegment; i < toSegment; i++) {
+            size += getSegment(i).size();
+        }
+        PackedPolyline.Builder builder = new PackedPolyline.Builder(size);
+        for (int i = fromSegment; i < toSegment; i++) {
+            builder.addAll(getSegment(i));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Decodes a polyline in Googles encoded polyline format.
+     * <p/>
+     * Based on example from
+     * http://wptrafficanalyzer.in/blog/drawing-driving-route-directions-between-two-locations-using-google-directions-in-google-map-android-api-v2/
+     * Written by George Mathew
+     *
+     * @param encoded encoded polyline
+     * @return decoded polyline
+     */
+    public static PackedPolyline decode(String encoded) {
+        // Every point takes at least two characters.
+        PackedPolyline.Builder poly = new PackedPolyline.Builder(encoded.length() / 2);
+        int index = 0, len = encoded.length();
+        int lat = 0, lng = 0;
+
+        while (index < len) {
+            int b, shift = 0, result = 0;
+            do {
+                b = encoded.charAt(index++) - 63;
+                result |= (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20);
+            int dlat = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+            lat += dlat;
+
+            shift = 0;
+            result = 0;
+            do {
+                b = encoded.charAt(index++) - 63;
+                result |= (b & 0x1f) << shift;
+                shift += 5;
+            } while (b >= 0x20);
+            int dlng = ((result & 1) != 0 ? ~(result >> 1) : (result >> 1));
+            lng += dlng;
+
+            //Encoded polylines have the same precision as PackedPolyline, no conversion needed
+            poly.add(lat, lng);
+        }
+
+        return poly.build();
+    }
+
+    /**
+     * Encodes a polyline in Googles encoded polyline format, the inverse of decode.
+     *
+     * @param polyline the polyline to encode.
+     * @return encoded polyline
+     */
+    public static String encode(PackedPolyline polyline) {
+        StringBuilder encoded = new StringBuilder(polyline.size() * 8);
+        int lastLatitude = 0;
+        int lastLongitude = 0;
+        for (int i = 0; i < polyline.size(); i++) {
+            int latitude = (int) Math.round(polyline.getLatitude(i) * PackedPolyline.PRECISION);
+            int longitude = (int) Math.round(polyline.getLongitude(i) * PackedPolyline.PRECISION);
+            encodeValue(encoded, latitude - lastLatitude);
+            encodeValue(encoded, longitude - lastLongitude);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        return encoded.toString();
+    }
+
+    private static void encodeValue(StringBuilder encoded, int value) {
+        int shifted = value < 0 ? ~(value << 1) : value << 1;
+        while (shifted >= 0x20) {
+            encoded.append((char) ((0x20 | (shifted & 0x1f)) + 63));
+            shifted >>= 5;
+        }
+        encoded.append((char) (shifted + 63));
+    }
+}
@@ -0,0 +1,64 @@
+package truckerboys.otto.utils.positions;
+
+/**
+ * Encodes coordinates as geohashes, strings where every character narrows down the
+ * cell the coordinate is in. Coordinates close to each other usually share the same
+ * cell, which makes geohashes useful as keys for things that depend on the area.
+ * <p/>
+ * A precision of 6 characters gives cells of roughly 1.2 x 0.6 km.
+ */
+public class Geohash {
+    private static final char[] BASE_32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    /**
+     * Get the geohash of the cell a coordinate is in.
+     *
+     * @param latitude  latitude in degrees.
+     * @param longitude longitude in degrees.
+     * @param precision number of characters in the geohash.
+     * @return the geohash.
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLatitude = -90, maxLatitude = 90;
+        double minLongitude = -180, maxLongitude = 180;
+        StringBuilder geohash = new StringBuilder(precision);
+
+        //Bits alternate between longitude and latitude, starting with longitude
+        boolean longitudeBit = true;
+        int bits = 0;
+        int character = 0;
+
+        while (geohash.length() < precision) {
+            if (longitudeBit) {
+                double middle = (minLongitude + maxLongitude) / 2;
+                if (longitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLongitude = middle;
+                } else {
+                    character = character << 1;
+                    maxLongitude = middle;
+                }
+            } else {
+                double middle = (minLatitude + maxLatitude) / 2;
+                if (latitude >= middle) {
+                    character = (character << 1) | 1;
+                    minLatitude = middle;
+                } else {
+                    character = character << 1;
+                    maxLatitude = middle;
+                }
+            }
+            longitudeBit = !longitudeBit;
+
+            if (++bits == 5) {
+                geohash.append(BASE_32[character]);
+                bits = 0;
+                character = 0;
+            }
+        }
+        return geohash.toString();
+    }
+}
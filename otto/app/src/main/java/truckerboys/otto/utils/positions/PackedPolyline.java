@@ -0,0 +1,177 @@
+package truckerboys.otto.utils.positions;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * An immutable polyline stored as fixed-point coordinates in one int array.
+ * <p/>
+ * Every point is stored as latitude and longitude multiplied by 1E5, the same precision as
+ * Googles encoded polylines, so no precision is lost when decoding them. Since the polyline
+ * can not be changed it can be shared between copies of a route instead of being copied.
+ */
+public class PackedPolyline {
+    public static final double PRECISION = 1E5;
+
+    public static final PackedPolyline EMPTY = new PackedPolyline(new int[0], 0);
+
+    // Latitude of point i is at 2 * i and longitude at 2 * i + 1.
+    private final int[] coordinates;
+    private final int size;
+
+    private PackedPolyline(int[] coordinates, int size) {
+        this.coordinates = coordinates;
+        this.size = size;
+    }
+
+    /**
+     * Get the number of points in the polyline.
+     *
+     * @return number of points.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check if the polyline has no points.
+     *
+     * @return true if there are no points.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Get the latitude of a point.
+     *
+     * @param index index of the point.
+     * @return latitude in degrees.
+     */
+    public double getLatitude(int index) {
+        checkIndex(index);
+        return coordinates[2 * index] / PRECISION;
+    }
+
+    /**
+     * Get the longitude of a point.
+     *
+     * @param index index of the point.
+     * @return longitude in degrees.
+     */
+    public double getLongitude(int index) {
+        checkIndex(index);
+        return coordinates[2 * index + 1] / PRECISION;
+    }
+
+    /**
+     * Get a point as a new LatLng.
+     *
+     * @param index index of the point.
+     * @return the point.
+     */
+    public LatLng get(int index) {
+        return new LatLng(getLatitude(index), getLongitude(index));
+    }
+
+    /**
+     * Creates a list with all points, for APIs that need LatLng objects such as the map.
+     *
+     * @return a new list with all points.
+     */
+    public ArrayList<LatLng> toLatLngList() {
+        ArrayList<LatLng> points = new ArrayList<LatLng>(size);
+        for (int i = 0; i < size; i++) {
+            points.add(get(i));
+        }
+        return points;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    /**
+     * Builds a PackedPolyline point by point.
+     */
+    public static class Builder {
+        private int[] coordinates;
+        private int size = 0;
+
+        public Builder() {
+            this(64);
+        }
+
+        /**
+         * @param expectedSize number of points the polyline is expected to have.
+         */
+        public Builder(int expectedSize) {
+            coordinates = new int[Math.max(2, 2 * expectedSize)];
+        }
+
+        /**
+         * Adds a point given in fixed-point coordinates (degrees * 1E5).
+         *
+         * @param latitudeE5  latitude * 1E5
+         * @param longitudeE5 longitude * 1E5
+         * @return this builder
+         */
+        public Builder add(int latitudeE5, int longitudeE5) {
+            if (2 * size + 1 >= coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+            }
+            coordinates[2 * size] = latitudeE5;
+            coordinates[2 * size + 1] = longitudeE5;
+            size++;
+            return this;
+        }
+
+        /**
+         * Adds a point given in degrees.
+         *
+         * @param latitude  latitude in degrees
+         * @param longitude longitude in degrees
+         * @return this builder
+         */
+        public Builder add(double latitude, double longitude) {
+            return add((int) Math.round(latitude * PRECISION), (int) Math.round(longitude * PRECISION));
+        }
+
+        /**
+         * Adds all points of another polyline.
+         *
+         * @param polyline polyline to add
+         * @return this builder
+         */
+        public Builder addAll(PackedPolyline polyline) {
+            if (2 * (size + polyline.size) > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, Math.max(coordinates.length * 2, 2 * (size + polyline.size)));
+            }
+            System.arraycopy(polyline.coordinates, 0, coordinates, 2 * size, 2 * polyline.size);
+            size += polyline.size;
+            return this;
+        }
+
+        /**
+         * Get the number of points added so far.
+         *
+         * @return number of points.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * Creates the polyline, trimmed to the number of points added.
+         *
+         * @return the polyline.
+         */
+        public PackedPolyline build() {
+            return new PackedPolyline(Arrays.copyOf(coordinates, 2 * size), size);
+        }
+    }
+}
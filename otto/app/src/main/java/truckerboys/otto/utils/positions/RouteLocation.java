@@ -53,11 +53,21 @@ public class RouteLocation extends MapLocation {
      * @param other RouteLocation to copy
      */
     public RouteLocation(RouteLocation other) {
+        this(other, Duration.ZERO);
+    }
+
+    /**
+     * Copy constructor for a location that will be reached later than the other
+     *
+     * @param other RouteLocation to copy
+     * @param later how much later the location will be reached
+     */
+    public RouteLocation(RouteLocation other, Duration later) {
         super(other);
         this.type = other.type;
         this.name = other.name;
         this.eta = new Duration(other.eta);
-        this.timeOfArrival = new Instant(other.timeOfArrival);
+        this.timeOfArrival = new Instant(other.timeOfArrival).plus(later);
         this.address = other.address;
         this.distance = other.distance;
 
@@ -31,6 +31,14 @@ public class FuelTankInfo implements IVehicleListener {
         return (int)(fuelLevel * ( fuelConsumption > 0.0f ?  fuelConsumption : 5.0f));
     }
 
+    /**
+     * Returns the mileage on a full tank, eg. number of km from refueling to empty tank.
+     * @return KM on a full tank.
+     */
+    public int getFullTankMileage(){
+        return (int)(fuelTankVolume * ( fuelConsumption > 0.0f ?  fuelConsumption : 5.0f));
+    }
+
     @Override
     public void receive(AutomotiveSignal signal) {
         switch (signal.getSignalId()){
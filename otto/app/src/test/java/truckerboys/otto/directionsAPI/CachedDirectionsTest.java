@@ -0,0 +1,144 @@
+package truckerboys.otto.directionsAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import truckerboys.otto.utils.positions.MapLocation;
+import truckerboys.otto.utils.positions.PackedPolyline;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class CachedDirectionsTest extends TestCase {
+    private final MapLocation molnlycke = new MapLocation(new LatLng(57.6535522, 12.1244496));
+    private final MapLocation molnlyckeNearby = new MapLocation(new LatLng(57.6535700, 12.1244600));
+    private final MapLocation malmo = new MapLocation(new LatLng(55.5708457, 13.0180405));
+    private final MapLocation stockholm = new MapLocation(new LatLng(59.3261419, 17.9875456));
+
+    private CountingDirections counter;
+    private CachedDirections cache;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        counter = new CountingDirections();
+        cache = new CachedDirections(counter, 2, Duration.standardMinutes(2), CachedDirections.DEFAULT_GRID_SIZE);
+    }
+
+    @Test
+    public void testNearbyRequestIsCached() throws Exception {
+        Route first = cache.getRoute(molnlycke, malmo);
+        Route second = cache.getRoute(molnlyckeNearby, malmo);
+
+        assertEquals(first.getDistance(), second.getDistance());
+        assertEquals(1, counter.calls);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void testCheckpointsArePartOfKey() throws Exception {
+        List<MapLocation> checkpoints = new ArrayList<MapLocation>();
+        checkpoints.add(stockholm);
+
+        cache.getRoute(molnlycke, malmo);
+        cache.getRoute(molnlycke, malmo, checkpoints);
+        assertEquals(2, counter.calls);
+    }
+
+    @Test
+    public void testEtaFromCachedRoute() throws Exception {
+        cache.getRoute(molnlycke, malmo);
+        assertEquals(Duration.standardHours(3), cache.getETA(molnlycke, malmo));
+        assertEquals(1, counter.calls);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() throws Exception {
+        cache.getRoute(molnlycke, malmo);
+        cache.getRoute(molnlycke, stockholm);
+        cache.getRoute(molnlycke, malmo);
+        //Cache holds two routes, this evicts molnlycke -> stockholm
+        cache.getRoute(malmo, stockholm);
+        assertEquals(3, counter.calls);
+
+        cache.getRoute(molnlycke, malmo);
+        assertEquals(3, counter.calls);
+
+        cache.getRoute(molnlycke, stockholm);
+        assertEquals(4, counter.calls);
+    }
+
+    @Test
+    public void testCallersGetTheirOwnCopy() throws Exception {
+        Route first = cache.getRoute(molnlycke, malmo);
+        first.getCheckpoints().clear();
+        Thread.sleep(5);
+
+        Route second = cache.getRoute(molnlycke, malmo);
+        assertNotSame(first, second);
+        assertEquals(1, second.getCheckpoints().size());
+        //The time of arrival follows the age of the answer
+        assertTrue(second.getFinalDestination().getTimeOfArrival().isAfter(first.getFinalDestination().getTimeOfArrival()));
+        assertEquals(1, counter.calls);
+    }
+
+    @Test
+    public void testExpiredEntriesAreNotUsed() throws Exception {
+        cache = new CachedDirections(counter, 2, Duration.ZERO, CachedDirections.DEFAULT_GRID_SIZE);
+        cache.getRoute(molnlycke, malmo);
+        Thread.sleep(5);
+        cache.getRoute(molnlycke, malmo);
+        assertEquals(2, counter.calls);
+    }
+
+    /**
+     * IDirections that counts calls and answers with a three hour route.
+     */
+    private static class CountingDirections implements IDirections {
+        private int calls = 0;
+
+        @Override
+        public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences, List<MapLocation> checkpoint) {
+            calls++;
+            Duration eta = Duration.standardHours(3);
+            RouteLocation destination = new RouteLocation(finalDestination.getLatLng(), "", eta, Instant.now().plus(eta), 1000);
+            ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
+            checkpoints.add(destination);
+            return new Route(destination, eta, 1000, PackedPolyline.EMPTY, PackedPolyline.EMPTY, checkpoints);
+        }
+
+        @Override
+        public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences) {
+            return getRoute(currentPosition, finalDestination, preferences, null);
+        }
+
+        @Override
+        public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, List<MapLocation> checkpoint) {
+            return getRoute(currentPosition, finalDestination, null, checkpoint);
+        }
+
+        @Override
+        public Route getRoute(MapLocation currentPosition, MapLocation finalDestination) {
+            return getRoute(currentPosition, finalDestination, null, null);
+        }
+
+        @Override
+        public Duration getETA(MapLocation currentPosition, MapLocation finalDestination) {
+            calls++;
+            return Duration.standardHours(3);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package truckerboys.otto.directionsAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.MapLocation;
+import truckerboys.otto.utils.positions.PackedPolyline;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * IDirections for tests and benchmarks that drives in straight lines at a constant speed.
+ * The same request always gives the same route, and every request can be made to take a while
+ * like a request to Google does.
+ */
+public class FakeDirections implements IDirections {
+    //70 km/h
+    public static final double SPEED = 70 / 3.6;
+
+    //Degrees between the points of the polyline
+    private static final double POINT_SPACING = 0.02;
+
+    private final long latency;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public FakeDirections() {
+        this(0);
+    }
+
+    /**
+     * @param latency how long every request takes, in milliseconds.
+     */
+    public FakeDirections(long latency) {
+        this.latency = latency;
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                          List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        request();
+
+        ArrayList<LatLng> stops = new ArrayList<LatLng>();
+        if (checkpoint != null) {
+            for (MapLocation location : checkpoint) {
+                stops.add(location.getLatLng());
+            }
+        }
+        stops.add(finalDestination.getLatLng());
+
+        PackedPolyline.Builder polyline = new PackedPolyline.Builder();
+        ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
+        Instant now = Instant.now();
+        LatLng from = currentPosition.getLatLng();
+        polyline.add(from.latitude, from.longitude);
+        double distance = 0;
+
+        for (LatLng to : stops) {
+            int points = (int) Math.ceil(Math.max(Math.abs(to.latitude - from.latitude),
+                    Math.abs(to.longitude - from.longitude)) / POINT_SPACING);
+            for (int i = 1; i <= points; i++) {
+                polyline.add(from.latitude + (to.latitude - from.latitude) * i / points,
+                        from.longitude + (to.longitude - from.longitude) * i / points);
+            }
+            distance += distance(from, to);
+
+            Duration eta = Duration.standardSeconds(Math.round(distance / SPEED));
+            checkpoints.add(new RouteLocation(to, "", eta, now.plus(eta), (int) distance));
+            from = to;
+        }
+
+        PackedPolyline path = polyline.build();
+        RouteLocation destination = checkpoints.get(checkpoints.size() - 1);
+        return new Route(destination, destination.getEta(), (int) distance, path, path, checkpoints);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, preferences, null);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, checkpoint);
+    }
+
+    @Override
+    public Route getRoute(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        return getRoute(currentPosition, finalDestination, null, null);
+    }
+
+    @Override
+    public Duration getETA(MapLocation currentPosition, MapLocation finalDestination) throws NoConnectionException, InvalidRequestException {
+        request();
+        return Duration.standardSeconds(Math.round(distance(currentPosition.getLatLng(), finalDestination.getLatLng()) / SPEED));
+    }
+
+    /**
+     * Get the number of requests made.
+     *
+     * @return number of requests.
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Start counting requests from zero.
+     */
+    public void resetCalls() {
+        calls.set(0);
+    }
+
+    private void request() throws NoConnectionException {
+        calls.incrementAndGet();
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NoConnectionException("Interrupted");
+            }
+        }
+    }
+
+    private static double distance(LatLng from, LatLng to) {
+        double x = Math.toRadians(to.longitude - from.longitude) * Math.cos(Math.toRadians((from.latitude + to.latitude) / 2));
+        double y = Math.toRadians(to.latitude - from.latitude);
+        return Math.sqrt(x * x + y * y) * 6371000;
+    }
+}
@@ -0,0 +1,77 @@
+package truckerboys.otto.directionsAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.MapLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class FallbackDirectionsTest extends TestCase {
+    private final MapLocation molnlycke = new MapLocation(new LatLng(57.6535522, 12.1244496));
+    private final MapLocation malmo = new MapLocation(new LatLng(55.5708457, 13.0180405));
+
+    private boolean connected;
+    private FakeDirections online;
+    private FakeDirections offline;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        connected = true;
+        online = new FakeDirections() {
+            @Override
+            public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                                  List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+                if (!connected) {
+                    throw new NoConnectionException("No connection");
+                }
+                return super.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+            }
+        };
+        offline = new FakeDirections();
+    }
+
+    @Test
+    public void testFallbackWithoutConnection() throws Exception {
+        FallbackDirections directions = new FallbackDirections(online, offline);
+
+        directions.getRoute(molnlycke, malmo);
+        assertEquals(0, offline.getCalls());
+
+        connected = false;
+        assertNotNull(directions.getRoute(molnlycke, malmo));
+        assertEquals(1, offline.getCalls());
+    }
+
+    @Test
+    public void testOfflineRoutesAreNotCached() throws Exception {
+        //Wrapped the way the app does it
+        FallbackDirections directions = new FallbackDirections(new CachedDirections(online), offline);
+
+        connected = false;
+        directions.getRoute(molnlycke, malmo);
+        assertEquals(1, offline.getCalls());
+
+        //With a connection again Google is asked, not the cache
+        connected = true;
+        directions.getRoute(molnlycke, malmo);
+        assertEquals(1, online.getCalls());
+
+        //And its routes are cached, even without a connection
+        connected = false;
+        directions.getRoute(molnlycke, malmo);
+        assertEquals(1, offline.getCalls());
+    }
+}
@@ -0,0 +1,80 @@
+package truckerboys.otto.directionsAPI;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class GoogleDirectionsJSONDecoderTest extends TestCase {
+    //Two legs, the first with two steps. Polyline example from Googles polyline documentation.
+    private static final String RESPONSE = "{\"routes\":[{" +
+            "\"bounds\":{\"northeast\":{\"lat\":43.3,\"lng\":-120.2}}," +
+            "\"legs\":[" +
+            "{\"distance\":{\"text\":\"1 km\",\"value\":1000},\"duration\":{\"text\":\"1 min\",\"value\":60}," +
+            "\"end_address\":\"First\",\"end_location\":{\"lat\":40.7,\"lng\":-120.95}," +
+            "\"steps\":[{\"distance\":{\"value\":500},\"duration\":{\"value\":30},\"polyline\":{\"points\":\"_p~iF~ps|U\"}}," +
+            "{\"html_instructions\":\"Turn <b>left</b>\",\"polyline\":{\"points\":\"_p~iF~ps|U_ulLnnqC\"}}]}," +
+            "{\"steps\":[{\"polyline\":{\"points\":\"_p~iF~ps|U_ulLnnqC_mqNvxq`@\"}}]," +
+            "\"end_location\":{\"lng\":-126.453,\"lat\":43.252},\"end_address\":\"Second\"," +
+            "\"duration\":{\"value\":120,\"text\":\"2 mins\"},\"distance\":{\"value\":2000,\"text\":\"2 km\"}}]," +
+            "\"overview_polyline\":{\"points\":\"_p~iF~ps|U_ulLnnqC_mqNvxq`@\"}," +
+            "\"warnings\":[]}]," +
+            "\"status\":\"OK\"}";
+
+    @Test
+    public void testStringToRoute() throws Exception {
+        Route route = GoogleDirectionsJSONDecoder.stringToRoute(RESPONSE);
+
+        assertEquals(Duration.standardMinutes(3), route.getEta());
+        assertEquals(3000, route.getDistance());
+        assertEquals(3, route.getOverviewPolyline().size());
+        assertEquals(6, route.getDetailedPolyline().size());
+        assertEquals(3, route.getNumberOfSteps());
+        assertEquals(3, route.getDetailedPolyline(0, 2).size());
+        assertEquals(40.7, route.getDetailedPolyline(1, 2).getLatitude(1), 0.00001);
+        assertEquals(43.252, route.getOverviewPolyline().get(2).latitude, 0.00001);
+        assertTrue(route.hasStepDetails());
+        assertEquals(500, route.getStepDistance(0));
+        assertEquals(30, route.getStepDuration(0));
+        assertEquals(0, route.getStepDuration(1));
+        assertEquals(-126.453, route.getOverviewPolyline().get(2).longitude, 0.00001);
+
+        assertEquals(2, route.getCheckpoints().size());
+        assertEquals("First", route.getCheckpoints().get(0).getAddress());
+        assertEquals(Duration.standardMinutes(1), route.getCheckpoints().get(0).getEta());
+        assertEquals(1000, route.getCheckpoints().get(0).getDistance());
+        assertEquals(Duration.standardMinutes(3), route.getCheckpoints().get(1).getEta());
+        assertEquals(3000, route.getCheckpoints().get(1).getDistance());
+        assertEquals("Second", route.getFinalDestination().getAddress());
+        assertEquals(43.252, route.getFinalDestination().getLatitude(), 0.00001);
+    }
+
+    @Test
+    public void testEtaToDestination() throws Exception {
+        assertEquals(Duration.standardMinutes(3), GoogleDirectionsJSONDecoder.etaToDestination(RESPONSE));
+    }
+
+    @Test
+    public void testNoRoute() {
+        try {
+            GoogleDirectionsJSONDecoder.stringToRoute("{\"routes\":[],\"status\":\"ZERO_RESULTS\"}");
+            fail();
+        } catch (InvalidRequestException e) {
+            assertTrue(e.getMessage().contains("ZERO_RESULTS"));
+        }
+
+        try {
+            GoogleDirectionsJSONDecoder.etaToDestination("{\"routes\":[],\"status\":\"ZERO_RESULTS\"}");
+            fail();
+        } catch (InvalidRequestException e) {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package truckerboys.otto.directionsAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.positions.MapLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class OfflineDirectionsTest extends TestCase {
+    //A residential road from west to east, and a longer but faster motorway north of it going
+    //the same way. The direct trunk road is closed to trucks.
+    private static final String OSM = "<?xml version='1.0' encoding='UTF-8'?>\n" +
+            "<osm version='0.6'>\n" +
+            "  <node id='1' lat='57.00' lon='12.00'/>\n" +
+            "  <node id='2' lat='57.00' lon='12.02'/>\n" +
+            "  <node id='3' lat='57.00' lon='12.04'/>\n" +
+            "  <node id='4' lat='57.01' lon='12.00'/>\n" +
+            "  <node id='5' lat='57.01' lon='12.04'/>\n" +
+            "  <node id='6' lat='56.995' lon='12.02'/>\n" +
+            "  <node id='7' lat='58.00' lon='13.00'/>\n" +
+            "  <way id='10'><nd ref='1'/><nd ref='2'/><nd ref='3'/><tag k='highway' v='residential'/></way>\n" +
+            "  <way id='11'><nd ref='1'/><nd ref='4'/><nd ref='5'/><nd ref='3'/><tag k='highway' v='motorway'/></way>\n" +
+            "  <way id='12'><nd ref='1'/><nd ref='6'/><nd ref='3'/><tag k='highway' v='trunk'/><tag k='hgv' v='no'/></way>\n" +
+            "</osm>\n";
+
+    private static final MapLocation WEST = new MapLocation(new LatLng(57.0001, 12.0001));
+    private static final MapLocation MIDDLE = new MapLocation(new LatLng(57.0001, 12.02));
+    private static final MapLocation EAST = new MapLocation(new LatLng(57.0001, 12.0399));
+    private static final MapLocation NORTH_WEST = new MapLocation(new LatLng(57.0101, 12.0001));
+
+    private RoadGraph graph;
+    private OfflineDirections directions;
+
+    @Before
+    public void setUp() throws Exception {
+        graph = OsmImporter.importGraph(new ByteArrayInputStream(OSM.getBytes("UTF-8")));
+        directions = new OfflineDirections(graph);
+    }
+
+    @Test
+    public void testImport() throws Exception {
+        //Nodes not on a road trucks can use are left out
+        assertEquals(5, graph.getNodeCount());
+        //Residential both ways, motorway one way
+        assertEquals(4 + 3, graph.getEdgeCount());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        graph.write(new DataOutputStream(bytes));
+        RoadGraph read = RoadGraph.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(graph.getNodeCount(), read.getNodeCount());
+        assertEquals(graph.getEdgeCount(), read.getEdgeCount());
+        assertEquals(new OfflineDirections(read).getETA(WEST, EAST), directions.getETA(WEST, EAST));
+    }
+
+    @Test
+    public void testFastestWay() throws Exception {
+        //The motorway is faster east, but it can not be driven west
+        Route east = directions.getRoute(WEST, EAST);
+        Route west = directions.getRoute(EAST, WEST);
+        assertTrue(east.getEta().isShorterThan(west.getEta()));
+        assertTrue(east.getDistance() > west.getDistance());
+
+        //Residential road, 2.4 km in 30 km/h
+        assertEquals(290, west.getEta().getStandardSeconds(), 5);
+    }
+
+    @Test
+    public void testRouteShape() throws Exception {
+        ArrayList<MapLocation> checkpoints = new ArrayList<MapLocation>();
+        checkpoints.add(MIDDLE);
+        Route route = directions.getRoute(NORTH_WEST, WEST, checkpoints);
+
+        //Motorway to the east and the residential road west to the checkpoint, then on to the destination
+        assertEquals(2, route.getCheckpoints().size());
+        assertTrue(route.hasStepDetails());
+        assertEquals(3, route.getNumberOfSteps());
+
+        int stepDurations = 0;
+        for (int i = 0; i < route.getNumberOfSteps(); i++) {
+            stepDurations += route.getStepDuration(i);
+        }
+        assertEquals(route.getEta().getStandardSeconds(), stepDurations);
+        assertEquals(route.getEta(), route.getFinalDestination().getEta());
+        assertTrue(route.getCheckpoints().get(0).getEta().isShorterThan(route.getEta()));
+        assertEquals(route.getDistance(), route.getGeometry().getTotalDistance(), 1);
+    }
+
+    @Test(expected = InvalidRequestException.class)
+    public void testNoRoadClose() throws Exception {
+        directions.getRoute(WEST, new MapLocation(new LatLng(58.0, 13.0)));
+    }
+}
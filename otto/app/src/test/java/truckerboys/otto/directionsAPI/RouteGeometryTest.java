@@ -0,0 +1,62 @@
+package truckerboys.otto.directionsAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import truckerboys.otto.utils.positions.PackedPolyline;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class RouteGeometryTest extends TestCase {
+    private RouteGeometry geometry;
+
+    @Before
+    public void setUp() {
+        //Straight north, 30 km in 30 minutes, with the points unevenly spread (10, 15 and 5 km apart)
+        PackedPolyline polyline = new PackedPolyline.Builder(4)
+                .add(57.0, 12.0).add(57.09, 12.0).add(57.225, 12.0).add(57.27, 12.0).build();
+        RouteLocation destination = new RouteLocation(new LatLng(57.27, 12.0), "", Duration.standardMinutes(30), new Instant(0), 30000);
+        ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
+        checkpoints.add(destination);
+
+        geometry = new Route(destination, Duration.standardMinutes(30), 30000, polyline, polyline, checkpoints).getGeometry();
+    }
+
+    @Test
+    public void testCumulativeValues() {
+        assertEquals(4, geometry.size());
+        assertEquals(0, geometry.getDistance(0), 0.001);
+        assertEquals(10000, geometry.getDistance(1), 1);
+        assertEquals(25000, geometry.getDistance(2), 1);
+        assertEquals(30000, geometry.getTotalDistance(), 0.001);
+        assertEquals(1800, geometry.getTotalDuration(), 0.001);
+    }
+
+    @Test
+    public void testPositionAt() {
+        assertEquals(57.135, geometry.getPositionAtDistance(15000).latitude, 0.0001);
+        assertEquals(57.135, geometry.getPositionAtDuration(900).latitude, 0.0001);
+        assertEquals(15000, geometry.getDistanceAtDuration(900), 1);
+        assertEquals(600, geometry.getDurationAtDistance(10000), 1);
+
+        //Within the short last part
+        assertEquals(57.243, geometry.getPositionAtDistance(27000).latitude, 0.0001);
+        assertEquals(1620, geometry.getDurationAtDistance(27000), 1);
+
+        //Outside the route
+        assertEquals(57.0, geometry.getPositionAtDistance(-5).latitude, 0.0001);
+        assertEquals(57.27, geometry.getPositionAtDuration(5000).latitude, 0.0001);
+    }
+}
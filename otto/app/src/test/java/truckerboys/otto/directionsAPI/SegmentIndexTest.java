@@ -0,0 +1,59 @@
+package truckerboys.otto.directionsAPI;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import truckerboys.otto.utils.positions.PackedPolyline;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class SegmentIndexTest extends TestCase {
+    private PackedPolyline polyline;
+    private SegmentIndex index;
+
+    @Before
+    public void setUp() {
+        //A zigzag going north, every segment roughly 1 km
+        PackedPolyline.Builder builder = new PackedPolyline.Builder(200);
+        for (int i = 0; i < 200; i++) {
+            builder.add(57.0 + i * 0.008, 12.0 + (i % 2) * 0.01);
+        }
+        polyline = builder.build();
+        index = new SegmentIndex(polyline);
+    }
+
+    @Test
+    public void testSameAsSearchingAllSegments() {
+        Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            double latitude = 57.0 + random.nextDouble() * 1.6;
+            double longitude = 11.99 + random.nextDouble() * 0.03;
+
+            SegmentIndex.Match expected = index.findNearest(latitude, longitude, 0, polyline.size() - 2);
+            SegmentIndex.Match actual = index.findNearest(latitude, longitude, 2000);
+            assertNotNull(actual);
+            assertEquals(expected.getDistance(), actual.getDistance(), 0.001);
+        }
+    }
+
+    @Test
+    public void testCrossTrackDistance() {
+        //100 meters east of the first point, which is on the first segment
+        SegmentIndex.Match match = index.findNearest(57.0, 12.0 + 100 / (111195 * Math.cos(Math.toRadians(57))), 500);
+        assertEquals(0, match.getSegment());
+        assertTrue(match.getDistance() < 100);
+        assertTrue(match.getDistance() > 50);
+    }
+
+    @Test
+    public void testNothingClose() {
+        assertNull(index.findNearest(58.0, 13.0, 2000));
+    }
+}
@@ -0,0 +1,140 @@
+package truckerboys.otto.driver;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class SessionHistoryTest extends TestCase {
+
+    @Test
+    public void testSessionOrder() throws Exception {
+        SessionHistory history = new SessionHistory();
+        Session first = new Session(SessionType.DRIVING, minutes(0), minutes(60));
+        Session second = new Session(SessionType.RESTING, minutes(60), minutes(105));
+        Session third = new Session(SessionType.DRIVING, minutes(105), minutes(200));
+
+        //Added out of order, the last session should still come first
+        history.addSession(second);
+        history.addSession(third);
+        history.addSession(first);
+        assertEquals(third.getStartTime(), history.getSessions().get(0).getStartTime());
+        assertEquals(second.getStartTime(), history.getSessions().get(1).getStartTime());
+        assertEquals(first.getStartTime(), history.getSessions().get(2).getStartTime());
+
+        //The same order when created from a list
+        List<Session> sessions = new ArrayList<Session>(history.getSessions());
+        SessionHistory copy = new SessionHistory(sessions);
+        for (int i = 0; i < sessions.size(); i++) {
+            assertEquals(sessions.get(i).getStartTime().getMillis(), copy.getStartMillis(i));
+        }
+
+        history.removeLastSession();
+        assertEquals(second.getStartTime(), history.getSessions().get(0).getStartTime());
+        assertEquals(2, history.getSessions().size());
+    }
+
+    @Test
+    public void testSessionsSince() throws Exception {
+        SessionHistory history = new SessionHistory();
+        history.addSession(new Session(SessionType.DRIVING, minutes(0), minutes(60)));
+        history.addSession(new Session(SessionType.RESTING, minutes(60), minutes(105)));
+        history.addSession(new Session(SessionType.DRIVING, minutes(105), minutes(200)));
+
+        assertEquals(3, history.getSessionsSince(minutes(0)).size());
+        assertEquals(2, history.getSessionsSince(minutes(60)).size());
+        assertEquals(1, history.getSessionsSince(minutes(61)).size());
+        assertEquals(0, history.getSessionsSince(minutes(300)).size());
+
+        //A session driven over the instant counts from the instant
+        assertTrue(history.getActiveTimeSince(minutes(30)).isEqual(Duration.standardMinutes(125)));
+        assertTrue(history.getActiveTimeSince(minutes(150)).isEqual(Duration.standardMinutes(50)));
+        assertTrue(history.getActiveTimeSince(minutes(0)).isEqual(Duration.standardMinutes(155)));
+    }
+
+    @Test
+    public void testSessionColumns() throws Exception {
+        SessionHistory history = new SessionHistory();
+        history.addSession(new Session(SessionType.WORKING, minutes(0), minutes(60)));
+        Session running = new Session(SessionType.DRIVING, new Instant().minus(Duration.standardMinutes(30)));
+        history.addSession(running);
+
+        assertEquals(2, history.getSessionCount());
+        assertEquals(SessionType.DRIVING, history.getSessionType(0));
+        assertEquals(SessionType.WORKING, history.getSessionType(1));
+        assertEquals(minutes(60).getMillis(), history.getEndMillis(1));
+        assertEquals(Duration.standardMinutes(60).getMillis(), history.getDurationMillis(1));
+
+        //A session going on is the same object, and lasts until now
+        assertSame(running, history.getSessions().get(0));
+        assertTrue(history.isActive(0));
+        assertEquals(0, history.getEndMillis(0));
+        assertEquals(Duration.standardMinutes(30).getMillis(), history.getDurationMillis(0), 5000);
+
+        //Ending it is noticed even without telling the history
+        running.end();
+        assertFalse(history.isActive(0));
+        assertEquals(running.getEndTime().getMillis(), history.getEndMillis(0));
+
+        //A copy is not changed with the original
+        SessionHistory copy = new SessionHistory(history);
+        history.removeLastSession();
+        assertEquals(2, copy.getSessionCount());
+        assertEquals(1, history.getSessionCount());
+    }
+
+    @Test
+    public void testDrivingIndexes() throws Exception {
+        SessionHistory history = new SessionHistory();
+        int[] rests = {20, 50, 10, 600, 30, 45, 15};
+        int minute = 0;
+        for (int rest : rests) {
+            history.addSession(new Session(SessionType.DRIVING, minutes(minute), minutes(minute + 100)));
+            history.addSession(new Session(SessionType.RESTING, minutes(minute + 100), minutes(minute + 100 + rest)));
+            minute += 100 + rest;
+        }
+
+        //The last 15 minute rest, driving 100 minutes since
+        Session driving = new Session(SessionType.DRIVING, minutes(minute), minutes(minute + 100));
+        history.addSession(driving);
+
+        assertTrue(history.getActiveTimeSinceBreakLongerThan(Duration.standardMinutes(15)).isEqual(Duration.standardMinutes(100)));
+        assertTrue(history.getActiveTimeSinceBreakLongerThan(Duration.standardMinutes(40)).isEqual(Duration.standardMinutes(200)));
+        assertTrue(history.getActiveTimeSinceBreakLongerThan(Duration.standardMinutes(60)).isEqual(Duration.standardMinutes(400)));
+        assertTrue(history.getActiveTimeSinceBreakLongerThan(Duration.standardHours(11)).isEqual(Duration.standardMinutes(800)));
+        assertEquals(minutes(minute - 15 - 100), history.getEndTimeOfRestLongerThan(Duration.standardMinutes(45)));
+
+        //Half of the first driving session, and all the others
+        assertTrue(history.getActiveTimeSince(minutes(50)).isEqual(Duration.standardMinutes(750)));
+        assertTrue(history.getActiveTimeSince(minutes(minute)).isEqual(Duration.standardMinutes(100)));
+
+        //A rest going on counts as soon as it is long enough
+        Session rest = new Session(SessionType.RESTING, new Instant().minus(Duration.standardMinutes(50)));
+        history.addSession(rest);
+        assertTrue(history.getActiveTimeSinceBreakLongerThan(Duration.standardMinutes(45)).isEqual(Duration.ZERO));
+        assertTrue(history.getActiveTimeSinceBreakLongerThan(Duration.standardMinutes(60)).isEqual(Duration.standardMinutes(400)));
+
+        //The sums follow a session that ends
+        history.removeLastSession();
+        Session running = new Session(SessionType.DRIVING, new Instant().minus(Duration.standardMinutes(30)));
+        history.addSession(running);
+        assertEquals(Duration.standardMinutes(130).getMillis(),
+                history.getActiveTimeSinceBreakLongerThan(Duration.standardMinutes(15)).getMillis(), 5000);
+        history.endSession(running);
+        assertEquals(Duration.standardMinutes(130).getMillis(),
+                history.getActiveTimeSinceBreakLongerThan(Duration.standardMinutes(15)).getMillis(), 5000);
+    }
+
+    private static Instant minutes(int minutes) {
+        return new Instant(0).plus(Duration.standardMinutes(minutes));
+    }
+}
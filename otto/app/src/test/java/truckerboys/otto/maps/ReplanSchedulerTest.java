@@ -0,0 +1,91 @@
+package truckerboys.otto.maps;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class ReplanSchedulerTest extends TestCase {
+    private static final Duration ROUTE_TIME = Duration.standardHours(2);
+    private static final Duration SESSION_TIME = Duration.standardHours(3);
+
+    private ReplanScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        scheduler = new ReplanScheduler();
+        scheduler.replanned(0, ROUTE_TIME, SESSION_TIME);
+    }
+
+    @Test
+    public void testOnTrack() {
+        //Driving as planned for ten minutes
+        for (long now = 1000; now <= 600000; now += 1000) {
+            assertFalse(scheduler.update(now, 10, ROUTE_TIME.minus(now), SESSION_TIME.minus(now)));
+        }
+        assertEquals(-1, scheduler.getDelay(600000));
+
+        //The route gets old
+        assertTrue(scheduler.update(ReplanScheduler.MAX_ROUTE_AGE.getMillis() + 1, 10,
+                ROUTE_TIME.minus(ReplanScheduler.MAX_ROUTE_AGE), SESSION_TIME.minus(ReplanScheduler.MAX_ROUTE_AGE)));
+    }
+
+    @Test
+    public void testTriggers() {
+        //Stuck in traffic, the ETA drifts
+        long now = 60000;
+        assertTrue(scheduler.update(now, 10, ROUTE_TIME.plus(Duration.standardMinutes(5)), SESSION_TIME));
+
+        //GPS noise off the route is not enough, three positions in a row is
+        scheduler.replanned(now, ROUTE_TIME, SESSION_TIME);
+        assertFalse(scheduler.update(now + 1000, 500, ROUTE_TIME, SESSION_TIME));
+        assertFalse(scheduler.update(now + 2000, 10, ROUTE_TIME, SESSION_TIME));
+        assertFalse(scheduler.update(now + 3000, 500, ROUTE_TIME, SESSION_TIME));
+        assertFalse(scheduler.update(now + 4000, 500, ROUTE_TIME, SESSION_TIME));
+        assertTrue(scheduler.update(now + 5000, 500, ROUTE_TIME, SESSION_TIME));
+
+        //A break gives the driver more time
+        scheduler.replanned(now, ROUTE_TIME, SESSION_TIME);
+        assertFalse(scheduler.update(now + 1000, 10, ROUTE_TIME, SESSION_TIME));
+        assertTrue(scheduler.update(now + 2000, 10, ROUTE_TIME, Duration.standardMinutes(270)));
+    }
+
+    @Test
+    public void testSpacingCoalescingAndBackoff() {
+        //A checkpoint is passed just after the last route, then the GPS jumps
+        scheduler.request(1000);
+        scheduler.update(1500, 500, ROUTE_TIME, SESSION_TIME);
+        scheduler.update(2000, 500, ROUTE_TIME, SESSION_TIME);
+        scheduler.update(2500, 500, ROUTE_TIME, SESSION_TIME);
+
+        //Only one replan, after the minimum spacing
+        assertEquals(ReplanScheduler.MIN_SPACING.getMillis() - 2500, scheduler.getDelay(2500));
+
+        //Later on, a request waits a little for more triggers
+        scheduler.replanned(100000, ROUTE_TIME, SESSION_TIME);
+        scheduler.request(200000);
+        assertEquals(ReplanScheduler.COALESCE_DELAY.getMillis(), scheduler.getDelay(200000));
+
+        //Failing makes it wait longer and longer, but not forever
+        long first = 300000;
+        scheduler.failed(first);
+        long firstDelay = scheduler.getDelay(first);
+        scheduler.failed(first + firstDelay);
+        long secondDelay = scheduler.getDelay(first + firstDelay);
+        assertTrue(secondDelay > firstDelay);
+        for (int i = 0; i < 20; i++) {
+            scheduler.failed(first);
+        }
+        assertEquals(ReplanScheduler.MAX_BACKOFF.getMillis(), scheduler.getDelay(first));
+
+        //Succeeding resets it
+        scheduler.replanned(first, ROUTE_TIME, SESSION_TIME);
+        assertEquals(-1, scheduler.getDelay(first));
+    }
+}
@@ -0,0 +1,110 @@
+package truckerboys.otto.maps;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.utils.positions.EncodedPolyline;
+import truckerboys.otto.utils.positions.MapLocation;
+import truckerboys.otto.utils.positions.PackedPolyline;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class RouteProgressTrackerTest extends TestCase {
+    private RouteProgressTracker tracker;
+    private RouteLocation checkpoint;
+
+    @Before
+    public void setUp() {
+        //Two steps straight north, the first 10 km in 10 minutes and the second 10 km in 20 minutes
+        PackedPolyline firstStep = new PackedPolyline.Builder(2).add(57.0, 12.0).add(57.09, 12.0).build();
+        PackedPolyline secondStep = new PackedPolyline.Builder(2).add(57.09, 12.0).add(57.18, 12.0).build();
+        EncodedPolyline steps = new EncodedPolyline(Arrays.asList(encode(firstStep), encode(secondStep)));
+
+        checkpoint = new RouteLocation(new LatLng(57.09, 12.0), "Halfway", Duration.standardMinutes(10), new Instant(0), 10000);
+        RouteLocation destination = new RouteLocation(new LatLng(57.18, 12.0), "End", Duration.standardMinutes(30), new Instant(0), 20000);
+        ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
+        checkpoints.add(checkpoint);
+        checkpoints.add(destination);
+
+        Route route = new Route(destination, Duration.standardMinutes(30), 20000, steps, steps,
+                new int[]{600, 1200}, new int[]{10000, 10000}, checkpoints);
+
+        tracker = new RouteProgressTracker();
+        tracker.setRoute(route);
+    }
+
+    @Test
+    public void testNoRoute() {
+        tracker.setRoute(null);
+        assertFalse(tracker.update(createLocation(57.0, 12.0)));
+        assertFalse(tracker.hasProgress());
+    }
+
+    @Test
+    public void testProgressInFirstStep() {
+        //Halfway through the first step, a bit to the east of the road
+        assertTrue(tracker.update(createLocation(57.045, 12.001)));
+
+        assertEquals(5000, tracker.getDistanceLeft(checkpoint), 100);
+        assertEquals(Duration.standardMinutes(5).getMillis(), tracker.getTimeLeft(checkpoint).getMillis(), 10000);
+        assertEquals(15000, tracker.getDistanceLeft(), 100);
+        assertEquals(Duration.standardMinutes(25).getMillis(), tracker.getTimeLeft().getMillis(), 10000);
+        assertEquals(60, tracker.getDistanceFromRoute(), 5);
+        assertEquals(0, tracker.getMatchedSegment());
+    }
+
+    @Test
+    public void testProgressInSecondStep() {
+        tracker.update(createLocation(57.045, 12.0));
+        //Halfway through the second step, which is driven at half the speed
+        tracker.update(createLocation(57.135, 12.0));
+
+        assertEquals(0, tracker.getDistanceLeft(checkpoint));
+        assertEquals(Duration.ZERO, tracker.getTimeLeft(checkpoint));
+        assertEquals(5000, tracker.getDistanceLeft(), 100);
+        assertEquals(Duration.standardMinutes(10).getMillis(), tracker.getTimeLeft().getMillis(), 10000);
+    }
+
+    private MapLocation createLocation(double latitude, double longitude) {
+        return new MapLocation(new LatLng(latitude, longitude));
+    }
+
+    private String encode(PackedPolyline polyline) {
+        //Googles polyline encoding, the inverse of EncodedPolyline.decode
+        StringBuilder encoded = new StringBuilder();
+        int lastLatitude = 0;
+        int lastLongitude = 0;
+        for (int i = 0; i < polyline.size(); i++) {
+            int latitude = (int) Math.round(polyline.getLatitude(i) * PackedPolyline.PRECISION);
+            int longitude = (int) Math.round(polyline.getLongitude(i) * PackedPolyline.PRECISION);
+            encodeValue(encoded, latitude - lastLatitude);
+            encodeValue(encoded, longitude - lastLongitude);
+            lastLatitude = latitude;
+            lastLongitude = longitude;
+        }
+        return encoded.toString();
+    }
+
+    private void encodeValue(StringBuilder encoded, int value) {
+        int shifted = value < 0 ? ~(value << 1) : value << 1;
+        while (shifted >= 0x20) {
+            encoded.append((char) ((0x20 | (shifted & 0x1f)) + 63));
+            shifted >>= 5;
+        }
+        encoded.append((char) (shifted + 63));
+    }
+}
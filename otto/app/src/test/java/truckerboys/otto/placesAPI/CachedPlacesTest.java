@@ -0,0 +1,105 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import truckerboys.otto.utils.positions.Geohash;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class CachedPlacesTest extends TestCase {
+    private CountingPlaces places;
+    private CachedPlaces cache;
+
+    @Before
+    public void setUp() {
+        places = new CountingPlaces();
+        cache = new CachedPlaces(places, null);
+    }
+
+    @Test
+    public void testGeohash() {
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+        assertEquals("u4pruy", Geohash.encode(57.64911, 10.40744, 6));
+    }
+
+    @Test
+    public void testSameCellIsCached() throws Exception {
+        cache.getNearbyGasStations(new LatLng(57.64911, 10.40744));
+        //A hundred meters away, same cell
+        cache.getNearbyGasStations(new LatLng(57.64960, 10.40790));
+        assertEquals(1, places.gasSearches);
+
+        //Rest searches are cached separately
+        cache.getNearbyRestLocations(new LatLng(57.64911, 10.40744));
+        assertEquals(1, places.restSearches);
+
+        //Another cell
+        cache.getNearbyGasStations(new LatLng(57.7, 11.97));
+        assertEquals(2, places.gasSearches);
+
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0.25, cache.getHitRatio(), 0.0001);
+    }
+
+    @Test
+    public void testFailedSearchIsNotCached() {
+        places.failRest = true;
+        assertNull(cache.getNearbyRestLocations(new LatLng(57.7, 11.97)));
+
+        places.failRest = false;
+        assertEquals(1, cache.getNearbyRestLocations(new LatLng(57.7, 11.97)).size());
+        assertEquals(2, places.restSearches);
+    }
+
+    @Test
+    public void testEncodeDecode() {
+        RouteLocation location = new RouteLocation(new LatLng(57.7, 11.97), "", null, null, -1);
+        location.setType(Arrays.asList("gas_station", "establishment"));
+        ArrayList<RouteLocation> locations = new ArrayList<RouteLocation>();
+        locations.add(location);
+
+        CachedPlaces.CacheEntry decoded = CachedPlaces.decode(CachedPlaces.encode(new CachedPlaces.CacheEntry(1234, locations)));
+        assertEquals(1234, decoded.getFetchedAt());
+        assertEquals(1, decoded.getPlaces().size());
+        assertEquals(57.7, decoded.getPlaces().get(0).getLatitude(), 0.000001);
+        assertEquals(11.97, decoded.getPlaces().get(0).getLongitude(), 0.000001);
+        assertEquals(Arrays.asList("gas_station", "establishment"), decoded.getPlaces().get(0).getType());
+    }
+
+    private static class CountingPlaces implements IPlaces {
+        private int restSearches = 0;
+        private int gasSearches = 0;
+        private boolean failRest = false;
+
+        @Override
+        public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+            restSearches++;
+            return failRest ? null : createResult(position);
+        }
+
+        @Override
+        public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) {
+            gasSearches++;
+            return createResult(position);
+        }
+
+        private ArrayList<RouteLocation> createResult(LatLng position) {
+            ArrayList<RouteLocation> result = new ArrayList<RouteLocation>();
+            result.add(new RouteLocation(position, "", null, null, -1));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.directionsAPI.RouteGeometry;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.PackedPolyline;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class CorridorPlacesTest extends TestCase {
+    //Gas stations are only found south of this latitude
+    private static final double LAST_STATION = 57.2;
+
+    private int searches;
+    private CorridorPlaces places;
+    private RouteGeometry geometry;
+
+    @Before
+    public void setUp() {
+        places = new CorridorPlaces(new IPlaces() {
+            @Override
+            public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+                searches++;
+                return new ArrayList<RouteLocation>();
+            }
+
+            @Override
+            public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+                searches++;
+                ArrayList<RouteLocation> stations = new ArrayList<RouteLocation>();
+                if (position.latitude < LAST_STATION) {
+                    stations.add(createStop(position.latitude, position.longitude));
+                    stations.add(createStop(position.latitude + 0.01, position.longitude));
+                }
+                return stations;
+            }
+        });
+
+        //About 100 km straight north
+        PackedPolyline.Builder builder = new PackedPolyline.Builder();
+        for (int i = 0; i <= 10; i++) {
+            builder.add(57.0 + i * 0.09, 12.0);
+        }
+        PackedPolyline polyline = builder.build();
+        RouteLocation destination = createStop(57.9, 12.0);
+        ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
+        checkpoints.add(destination);
+        geometry = new Route(destination, Duration.standardMinutes(80), 100000, polyline, polyline, checkpoints).getGeometry();
+    }
+
+    @Test
+    public void testStepsBack() throws Exception {
+        //Nothing 30 km along the route, but 10 km before that
+        ArrayList<RouteLocation> found = places.findStops(geometry, 30000, true);
+        assertEquals(2, searches);
+        assertEquals(2, found.size());
+        //Nearest to the wanted point first
+        assertTrue(found.get(0).getLatitude() > found.get(1).getLatitude());
+
+        //The same search again is answered by what was found, without any new searches
+        assertEquals(2, places.findStops(geometry, 30000, true).size());
+        assertEquals(2, searches);
+    }
+
+    @Test
+    public void testStopsPastTheWantedPointAreSkipped() throws Exception {
+        //The search 15 km along the route finds a station there and one a kilometer further
+        ArrayList<RouteLocation> found = places.findStops(geometry, 15000, true);
+        assertEquals(1, searches);
+        assertEquals(1, found.size());
+        assertEquals(57.135, found.get(0).getLatitude(), 0.0001);
+    }
+
+    @Test
+    public void testGivesUp() throws Exception {
+        //Nothing anywhere close
+        assertEquals(0, places.findStops(geometry, 90000, false).size());
+        assertEquals(CorridorPlaces.MAX_SEARCH_ATTEMPTS, searches);
+    }
+
+    @Test
+    public void testNoResponse() throws Exception {
+        CorridorPlaces unanswered = new CorridorPlaces(new IPlaces() {
+            @Override
+            public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+                searches++;
+                return null;
+            }
+
+            @Override
+            public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+                searches++;
+                return null;
+            }
+        });
+
+        assertNull(unanswered.getNearbyGasStations(new LatLng(57.0, 12.0)));
+        assertNull(unanswered.getNearbyRestLocations(new LatLng(57.0, 12.0)));
+        //Not remembered as searched, so the next search asks again
+        assertNull(unanswered.getNearbyGasStations(new LatLng(57.0, 12.0)));
+        assertEquals(3, searches);
+        assertEquals(0, unanswered.getIndexedStops());
+
+        //No more searches after the first one fails
+        searches = 0;
+        assertEquals(0, unanswered.findStops(geometry, 90000, true).size());
+        assertEquals(1, searches);
+    }
+
+    @Test
+    public void testFailedSearchIsAnsweredByFoundStops() throws Exception {
+        final boolean[] outOfBudget = {false};
+        CorridorPlaces budgeted = new CorridorPlaces(new IPlaces() {
+            @Override
+            public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+                return null;
+            }
+
+            @Override
+            public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+                searches++;
+                if (outOfBudget[0]) {
+                    throw new NoConnectionException("Places request budget used up");
+                }
+                ArrayList<RouteLocation> stations = new ArrayList<RouteLocation>();
+                stations.add(createStop(position.latitude, position.longitude));
+                return stations;
+            }
+        });
+        assertEquals(1, budgeted.findStops(geometry, 15000, true).size());
+
+        //The search 30 km along the route fails, the station found before is still within reach
+        outOfBudget[0] = true;
+        searches = 0;
+        ArrayList<RouteLocation> found = budgeted.findStops(geometry, 30000, true);
+        assertEquals(1, searches);
+        assertEquals(1, found.size());
+        assertEquals(57.135, found.get(0).getLatitude(), 0.0001);
+    }
+
+    private static RouteLocation createStop(double latitude, double longitude) {
+        return new RouteLocation(new LatLng(latitude, longitude), "", Duration.ZERO, new Instant(0), 0);
+    }
+}
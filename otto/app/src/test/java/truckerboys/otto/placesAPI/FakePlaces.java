@@ -0,0 +1,92 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+/**
+ * IPlaces for tests and benchmarks that finds the same stops around every position it is asked about.
+ * The stops are placed a little beside the position, further and further away, and every search
+ * can be made to take a while like a search with Google does.
+ */
+public class FakePlaces implements IPlaces {
+    //Degrees between the stops found by a search
+    private static final double STOP_SPACING = 0.005;
+
+    private final int stopsPerSearch;
+    private final long latency;
+    private final AtomicInteger calls = new AtomicInteger();
+
+    public FakePlaces() {
+        this(5, 0);
+    }
+
+    /**
+     * @param stopsPerSearch number of stops every search finds.
+     * @param latency        how long every search takes, in milliseconds.
+     */
+    public FakePlaces(int stopsPerSearch, long latency) {
+        this.stopsPerSearch = stopsPerSearch;
+        this.latency = latency;
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyRestLocations(LatLng position) {
+        try {
+            request();
+        } catch (NoConnectionException e) {
+            return null;
+        }
+        return stopsAround(position, "Rest");
+    }
+
+    @Override
+    public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+        request();
+        return stopsAround(position, "Gas");
+    }
+
+    /**
+     * Get the number of searches made.
+     *
+     * @return number of searches.
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * Start counting searches from zero.
+     */
+    public void resetCalls() {
+        calls.set(0);
+    }
+
+    private ArrayList<RouteLocation> stopsAround(LatLng position, String name) {
+        ArrayList<RouteLocation> stops = new ArrayList<RouteLocation>();
+        for (int i = 1; i <= stopsPerSearch; i++) {
+            stops.add(new RouteLocation(new LatLng(position.latitude + i * STOP_SPACING, position.longitude + STOP_SPACING),
+                    name + " " + i, Duration.ZERO, new Instant(0), 0));
+        }
+        return stops;
+    }
+
+    private void request() throws NoConnectionException {
+        calls.incrementAndGet();
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NoConnectionException("Interrupted");
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package truckerboys.otto.placesAPI;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import truckerboys.otto.utils.positions.RouteLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class StopIndexTest extends TestCase {
+    private static final LatLng GOTHENBURG = new LatLng(57.7, 11.97);
+
+    private StopIndex index;
+    private RouteLocation near;
+    private RouteLocation middle;
+    private RouteLocation far;
+
+    @Before
+    public void setUp() {
+        index = new StopIndex();
+        //Roughly 1, 4 and 20 km north of Gothenburg
+        near = createStop(57.709, 11.97);
+        middle = createStop(57.736, 11.97);
+        far = createStop(57.88, 11.97);
+
+        ArrayList<RouteLocation> stops = new ArrayList<RouteLocation>();
+        stops.add(far);
+        stops.add(near);
+        stops.add(middle);
+        index.addSearch(GOTHENBURG, 5000, stops);
+    }
+
+    @Test
+    public void testWithinRadius() {
+        List<RouteLocation> found = index.getWithinRadius(GOTHENBURG, 5000);
+        assertEquals(2, found.size());
+        assertSame(near, found.get(0));
+        assertSame(middle, found.get(1));
+
+        assertEquals(3, index.getWithinRadius(GOTHENBURG, 25000).size());
+    }
+
+    @Test
+    public void testNearest() {
+        List<RouteLocation> found = index.getNearest(GOTHENBURG, 1, 50000);
+        assertEquals(1, found.size());
+        assertSame(near, found.get(0));
+
+        found = index.getNearest(GOTHENBURG, 3, 50000);
+        assertEquals(3, found.size());
+        assertSame(far, found.get(2));
+    }
+
+    @Test
+    public void testSearchedAreas() {
+        assertTrue(index.isSearched(GOTHENBURG));
+        assertTrue(index.isSearched(new LatLng(57.71, 11.97)));
+        assertFalse(index.isSearched(new LatLng(57.9, 11.97)));
+
+        //Same stop again is not indexed twice
+        index.add(createStop(57.709, 11.97));
+        assertEquals(3, index.size());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertFalse(index.isSearched(GOTHENBURG));
+    }
+
+    private RouteLocation createStop(double latitude, double longitude) {
+        return new RouteLocation(new LatLng(latitude, longitude), "", Duration.ZERO, new Instant(0), 0);
+    }
+}
@@ -203,4 +203,83 @@ public class EURegulationHandlerTest extends TestCase {
         //Empty history, bas case.
         assertTrue(handler.getTimeLeftOnBreak(s).getTimeLeft().isEqual(Duration.ZERO));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testTimeLeftOnRunningBreak() throws Exception {
+        Instant now = new Instant();
+        SessionHistory s = new SessionHistory();
+        //A whole session driven, resting for 10 minutes
+        s.addSession(new Session(SessionType.DRIVING, now.minus(Duration.standardMinutes(280)), now.minus(Duration.standardMinutes(10))));
+        s.addSession(new Session(SessionType.RESTING, now.minus(Duration.standardMinutes(10))));
+
+        assertEquals(Duration.standardMinutes(35).getMillis(), handler.getTimeLeftOnBreak(s).getTimeLeft().getMillis(), 5000);
+        //Asked again, as every tick of the clock does, without counting the history again
+        int stateUpdates = handler.getStateUpdates();
+        assertEquals(Duration.standardMinutes(35).getMillis(), handler.getTimeLeftOnBreak(s).getTimeLeft().getMillis(), 5000);
+        assertEquals(stateUpdates, handler.getStateUpdates());
+    }
+
+    @Test
+    public void testRunningSession() throws Exception {
+        Instant now = new Instant();
+        SessionHistory running = new SessionHistory();
+        SessionHistory finished = new SessionHistory();
+
+        //8h 30min driven, then driving again for 45 minutes after a short rest
+        Session driven = new Session(SessionType.DRIVING, now.minus(Duration.standardMinutes(600)), now.minus(Duration.standardMinutes(90)));
+        Session rest = new Session(SessionType.RESTING, now.minus(Duration.standardMinutes(90)), now.minus(Duration.standardMinutes(45)));
+        running.addSession(driven);
+        running.addSession(rest);
+        finished.addSession(driven);
+        finished.addSession(rest);
+        running.addSession(new Session(SessionType.DRIVING, now.minus(Duration.standardMinutes(45))));
+        finished.addSession(new Session(SessionType.DRIVING, now.minus(Duration.standardMinutes(45)), now));
+
+        //The driving going on counts the same as if it had just ended
+        assertEquals(handler.getThisDayTL(finished).getExtendedTimeLeft().getMillis(),
+                handler.getThisDayTL(running).getExtendedTimeLeft().getMillis(), 5000);
+        assertEquals(Duration.standardMinutes(45).getMillis(), handler.getThisDayTL(running).getExtendedTimeLeft().getMillis(), 5000);
+        assertEquals(handler.getThisSessionTL(finished).getTimeLeft().getMillis(),
+                handler.getThisSessionTL(running).getTimeLeft().getMillis(), 5000);
+        assertEquals(handler.getThisWeekTL(finished).getTimeLeft().getMillis(),
+                handler.getThisWeekTL(running).getTimeLeft().getMillis(), 5000);
+
+        //A rest going on counts as soon as it is long enough
+        running = new SessionHistory();
+        running.addSession(new Session(SessionType.DRIVING, now.minus(Duration.standardMinutes(170)), now.minus(Duration.standardMinutes(50))));
+        running.addSession(new Session(SessionType.RESTING, now.minus(Duration.standardMinutes(50))));
+        assertTrue(handler.getThisSessionTL(running).getTimeLeft().isEqual(Duration.standardMinutes(270)));
+        assertTrue(handler.getThisDayTL(running).getTimeLeft().isEqual(Duration.standardMinutes(420)));
+    }
+
+    @Test
+    public void testMemoizedAnswers() throws Exception {
+        EURegulationHandler handler = new EURegulationHandler();
+        SessionHistory s = new SessionHistory();
+        s.addSession(new Session(SessionType.DRIVING, new Instant(0), new Instant(0).plus(Duration.standardMinutes(15))));
+
+        //Asking again about the same history gives the same answer without calculating it again
+        TimeLeft first = handler.getThisSessionTL(s);
+        assertSame(first, handler.getThisSessionTL(s));
+        assertEquals(1, handler.getMemoMisses());
+        assertEquals(1, handler.getMemoHits());
+        assertEquals(1, handler.getStateUpdates());
+
+        //Other questions about the history use the same state
+        handler.getThisDayTL(s);
+        assertEquals(2, handler.getMemoMisses());
+        assertEquals(1, handler.getStateUpdates());
+
+        //Another history does not replace the state of this one
+        SessionHistory other = new SessionHistory();
+        handler.getThisSessionTL(other);
+        assertSame(first, handler.getThisSessionTL(s));
+        assertEquals(2, handler.getStateUpdates());
+
+        //A new session is noticed
+        s.addSession(new Session(SessionType.DRIVING, new Instant(1).plus(Duration.standardMinutes(15)), new Instant(1).plus(Duration.standardMinutes(45))));
+        assertTrue(handler.getThisSessionTL(s).getTimeLeft().isEqual(Duration.standardMinutes(225)));
+        assertEquals(4, handler.getMemoMisses());
+        assertEquals(3, handler.getStateUpdates());
+    }
+}
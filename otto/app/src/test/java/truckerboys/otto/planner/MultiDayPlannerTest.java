@@ -0,0 +1,130 @@
+package truckerboys.otto.planner;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.driver.SessionHistory;
+import truckerboys.otto.utils.positions.PackedPolyline;
+import truckerboys.otto.utils.positions.RouteLocation;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class MultiDayPlannerTest extends TestCase {
+    private static final int POINTS = 101;
+
+    private MultiDayPlanner planner;
+    private Route route;
+    private PlannedRoute plannedRoute;
+    private ArrayList<RouteLocation> candidates;
+
+    @Before
+    public void setUp() {
+        planner = new MultiDayPlanner(new EURegulationHandler());
+
+        //Straight north, 1000 km in 12.5 hours, with a rest location every 10 km
+        PackedPolyline.Builder builder = new PackedPolyline.Builder(POINTS);
+        candidates = new ArrayList<RouteLocation>();
+        for (int i = 0; i < POINTS; i++) {
+            builder.add(57.0 + i * 0.09, 12.0);
+            if (i > 0 && i < POINTS - 1) {
+                candidates.add(new RouteLocation(new LatLng(57.0 + i * 0.09, 12.001), "Rest " + i,
+                        Duration.ZERO, new Instant(0), 0));
+            }
+        }
+        PackedPolyline polyline = builder.build();
+
+        RouteLocation destination = new RouteLocation(new LatLng(57.0 + (POINTS - 1) * 0.09, 12.0), "",
+                Duration.standardMinutes(750), new Instant(0), 1000000);
+        ArrayList<RouteLocation> checkpoints = new ArrayList<RouteLocation>();
+        checkpoints.add(destination);
+        route = new Route(destination, Duration.standardMinutes(750), 1000000, polyline, polyline, checkpoints);
+        plannedRoute = new PlannedRoute(route, destination, new ArrayList<RouteLocation>());
+    }
+
+    @Test
+    public void testRestsAreScheduled() {
+        PlannedTrip trip = planner.plan(plannedRoute, route, candidates, new SessionHistory(), Integer.MAX_VALUE,
+                Integer.MAX_VALUE, new Instant(0));
+        List<ScheduledStop> stops = trip.getScheduledStops();
+
+        //4.5 hours, break, 4.5 hours, daily rest, 3.5 hours
+        assertEquals(2, stops.size());
+        assertEquals(ScheduledStop.RestType.BREAK, stops.get(0).getRestType());
+        assertEquals(ScheduledStop.RestType.DAILY_REST, stops.get(1).getRestType());
+
+        Duration previous = Duration.ZERO;
+        for (ScheduledStop stop : stops) {
+            assertFalse(stop.getDrivingTime().minus(previous).isLongerThan(Duration.standardMinutes(270)));
+            previous = stop.getDrivingTime();
+        }
+        assertFalse(stops.get(1).getDrivingTime().isLongerThan(Duration.standardHours(9)));
+
+        //No driving time is lost, only the rests are added
+        Duration rests = MultiDayPlanner.BREAK.plus(MultiDayPlanner.DAILY_REST);
+        assertEquals(new Instant(0).plus(Duration.standardMinutes(750)).plus(rests).getMillis(),
+                trip.getTimeOfArrival().getMillis(), 60000);
+    }
+
+    @Test
+    public void testFuelStopIsScheduled() {
+        //Only one gas station, halfway
+        ArrayList<String> gasStation = new ArrayList<String>();
+        gasStation.add("gas_station");
+        candidates.get(49).setType(gasStation);
+
+        PlannedTrip trip = planner.plan(plannedRoute, route, candidates, new SessionHistory(), 600000, 600000,
+                new Instant(0));
+
+        boolean refueled = false;
+        for (ScheduledStop stop : trip.getScheduledStops()) {
+            if (stop.isRefuel()) {
+                assertEquals("Rest 50", stop.getLocation().getAddress());
+                refueled = true;
+            }
+        }
+        assertTrue(refueled);
+    }
+
+    @Test
+    public void testRefuelFillsTheTank() {
+        //Almost empty at the start, a gas station 50 km in and a full tank lasts the whole trip
+        ArrayList<String> gasStation = new ArrayList<String>();
+        gasStation.add("gas_station");
+        candidates.get(4).setType(gasStation);
+
+        PlannedTrip trip = planner.plan(plannedRoute, route, candidates, new SessionHistory(), 100000, 2000000,
+                new Instant(0));
+
+        int refuels = 0;
+        for (ScheduledStop stop : trip.getScheduledStops()) {
+            if (stop.isRefuel()) {
+                assertEquals("Rest 5", stop.getLocation().getAddress());
+                refuels++;
+            }
+        }
+        assertEquals(1, refuels);
+    }
+
+    @Test
+    public void testNoPlanWithoutCandidates() {
+        //The destination can not be reached without stopping, and there is nowhere to stop on the way
+        PlannedTrip trip = planner.plan(plannedRoute, route, new ArrayList<RouteLocation>(), new SessionHistory(),
+                Integer.MAX_VALUE, Integer.MAX_VALUE, new Instant(0));
+
+        assertTrue(trip.getScheduledStops().isEmpty());
+        assertEquals(Duration.standardMinutes(750).getMillis(), trip.getTimeOfArrival().getMillis());
+    }
+}
@@ -0,0 +1,188 @@
+package truckerboys.otto.planner;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.joda.time.Instant;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+import truckerboys.otto.directionsAPI.FakeDirections;
+import truckerboys.otto.driver.Session;
+import truckerboys.otto.driver.SessionType;
+import truckerboys.otto.driver.User;
+import truckerboys.otto.placesAPI.FakePlaces;
+import truckerboys.otto.utils.RequestBudget;
+import truckerboys.otto.utils.positions.MapLocation;
+import truckerboys.otto.vehicle.FuelTankInfo;
+
+/**
+ * Measures how long a replan takes, how much it allocates and how many requests it makes, for each
+ * of the ways getCalculatedRoute plans a route. The directions and places are fakes, so the numbers
+ * only change when the planner does.
+ * <p/>
+ * Cold replans are the first ones along a new route. Warm replans are the ones after that, where
+ * most searches for stops are answered by what was found along the route before.
+ * <p/>
+ * The fakes answer right away unless the system property otto.benchmark.latency sets how many
+ * milliseconds every request should take, for example: gradle robolectric -Dotto.benchmark.latency=100
+ */
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class TripPlannerBenchmark extends TestCase {
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 10;
+
+    private static final MapLocation GOTEBORG = new MapLocation(new LatLng(57.7072, 11.9668));
+    //About an hour away
+    private static final MapLocation BORAS = new MapLocation(new LatLng(57.7210, 12.9401));
+    //Within reach today, but not this session
+    private static final MapLocation STOCKHOLM = new MapLocation(new LatLng(59.3261, 17.9875));
+    //Not within reach today
+    private static final MapLocation KIRUNA = new MapLocation(new LatLng(67.8537, 20.2564));
+
+    private final long latency = Long.getLong("otto.benchmark.latency", 0);
+
+    private User user = new User(Robolectric.application);
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        Session session = new Session(SessionType.WORKING, Instant.now());
+        session.end();
+        user.getHistory().addSession(session);
+    }
+
+    @Test
+    public void testNormalSession() throws Exception {
+        run("normal session", BORAS, 330);
+    }
+
+    @Test
+    public void testSessionLimit() throws Exception {
+        run("session limit", STOCKHOLM, 330);
+    }
+
+    @Test
+    public void testDayLimit() throws Exception {
+        run("day limit", KIRUNA, 330);
+    }
+
+    @Test
+    public void testFuelNeeded() throws Exception {
+        //25 km on the tank
+        run("fuel needed", BORAS, 5);
+    }
+
+    private void run(String scenario, MapLocation destination, int fuelTankVolume) throws Exception {
+        FakeDirections directions = new FakeDirections(latency);
+        FakePlaces places = new FakePlaces(5, latency);
+
+        //Cold: a new route every time, nothing has been searched along it yet
+        for (int i = 0; i < WARMUP; i++) {
+            createPlanner(directions, places, fuelTankVolume).setNewRoute(GOTEBORG, destination, new ArrayList<MapLocation>());
+        }
+        directions.resetCalls();
+        places.resetCalls();
+
+        Measurement cold = new Measurement();
+        for (int i = 0; i < ITERATIONS; i++) {
+            TripPlanner tripPlanner = createPlanner(directions, places, fuelTankVolume);
+            cold.begin();
+            tripPlanner.setNewRoute(GOTEBORG, destination, new ArrayList<MapLocation>());
+            cold.end();
+        }
+        cold.report(scenario + ", cold", directions, places);
+
+        //Warm: replans along the same route, the stops found along it by earlier replans are reused
+        TripPlanner tripPlanner = createPlanner(directions, places, fuelTankVolume);
+        tripPlanner.setNewRoute(GOTEBORG, destination, new ArrayList<MapLocation>());
+        for (int i = 0; i < WARMUP; i++) {
+            tripPlanner.updateRoute(GOTEBORG);
+        }
+        directions.resetCalls();
+        places.resetCalls();
+
+        Measurement warm = new Measurement();
+        for (int i = 0; i < ITERATIONS; i++) {
+            warm.begin();
+            tripPlanner.updateRoute(GOTEBORG);
+            warm.end();
+        }
+        warm.report(scenario + ", warm", directions, places);
+
+        assertNotNull(tripPlanner.getRoute());
+    }
+
+    private TripPlanner createPlanner(FakeDirections directions, FakePlaces places, int fuelTankVolume) {
+        return new TripPlanner(new EURegulationHandler(), directions, places, user, new FuelTankInfo(fuelTankVolume));
+    }
+
+    /**
+     * Time and allocations of the replans measured, and the requests they made.
+     */
+    private static class Measurement {
+        private int replans;
+        private long totalTime;
+        private long maxTime;
+        private long allocated;
+
+        private long start;
+        private long startAllocated;
+
+        private void begin() {
+            startAllocated = getAllocatedBytes();
+            start = System.nanoTime();
+        }
+
+        private void end() {
+            long time = System.nanoTime() - start;
+            totalTime += time;
+            maxTime = Math.max(maxTime, time);
+            allocated = startAllocated < 0 || allocated < 0 ? -1 : allocated + getAllocatedBytes() - startAllocated;
+            replans++;
+        }
+
+        private void report(String scenario, FakeDirections directions, FakePlaces places) {
+            double directionsCalls = (double) directions.getCalls() / replans;
+            double placesCalls = (double) places.getCalls() / replans;
+            System.out.println(String.format("%-22s %8.2f ms/replan (max %.2f), %10d bytes/replan, " +
+                            "%5.1f directions and %5.1f places requests/replan",
+                    scenario, totalTime / 1E6 / replans, maxTime / 1E6, allocated < 0 ? -1 : allocated / replans,
+                    directionsCalls, placesCalls));
+
+            //A replan should fit in the request budget
+            assertTrue(directionsCalls + placesCalls <= RequestBudget.DEFAULT_REPLAN_LIMIT);
+        }
+    }
+
+    /**
+     * Get the number of bytes allocated by all threads so far, the planner uses several.
+     *
+     * @return allocated bytes, or -1 if the JVM can not tell.
+     */
+    private static long getAllocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+}
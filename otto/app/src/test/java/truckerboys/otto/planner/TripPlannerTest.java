@@ -14,12 +14,27 @@ import org.robolectric.RobolectricTestRunner;
 import org.robolectric.annotation.Config;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import truckerboys.otto.directionsAPI.FakeDirections;
 import truckerboys.otto.directionsAPI.GoogleDirections;
+import truckerboys.otto.directionsAPI.Route;
+import truckerboys.otto.directionsAPI.RoutePreferences;
 import truckerboys.otto.driver.Session;
 import truckerboys.otto.driver.SessionType;
 import truckerboys.otto.driver.User;
+import truckerboys.otto.placesAPI.BudgetedPlaces;
+import truckerboys.otto.placesAPI.FakePlaces;
 import truckerboys.otto.placesAPI.GooglePlaces;
+import truckerboys.otto.utils.RequestBudget;
+import truckerboys.otto.utils.exceptions.InvalidRequestException;
+import truckerboys.otto.utils.exceptions.NoActiveRouteException;
+import truckerboys.otto.utils.exceptions.NoConnectionException;
 import truckerboys.otto.utils.positions.MapLocation;
 import truckerboys.otto.utils.positions.RouteLocation;
 import truckerboys.otto.vehicle.FuelTankInfo;
@@ -135,4 +150,396 @@ public class TripPlannerTest extends TestCase {
             assertFalse(temp.equalCoordinates(malmo));
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEvaluateConcurrently() throws Exception {
+        FakeDirections directions = new FakeDirections(300);
+        TripPlanner planner = new TripPlanner(euRegulationHandler, directions, new FakePlaces(5, 0), user, new FuelTankInfo(330));
+        List<Callable<Route>> evaluations = new ArrayList<Callable<Route>>();
+        for (MapLocation destination : new MapLocation[]{malmo, stockholm, kiruna, malmo}) {
+            evaluations.add(routeTo(directions, destination, null));
+        }
+
+        //Nothing has been planned yet, so the first generation is the current one
+        long start = System.currentTimeMillis();
+        List<Route> routes = planner.evaluateConcurrently(0, evaluations, null, Duration.standardSeconds(20));
+
+        //Four requests of 300 ms at the same time, not one after the other
+        assertTrue(System.currentTimeMillis() - start < 900);
+        assertEquals(4, routes.size());
+        assertTrue(routes.get(0).getFinalDestination().equalCoordinates(malmo));
+        assertTrue(routes.get(1).getFinalDestination().equalCoordinates(stockholm));
+        assertTrue(routes.get(2).getFinalDestination().equalCoordinates(kiruna));
+        assertTrue(routes.get(3).getFinalDestination().equalCoordinates(malmo));
+    }
+
+    @Test
+    public void testEvaluationDeadline() throws Exception {
+        FakeDirections directions = new FakeDirections(0);
+        FakeDirections slowDirections = new FakeDirections(5000);
+        TripPlanner planner = new TripPlanner(euRegulationHandler, directions, new FakePlaces(5, 0), user, new FuelTankInfo(330));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        List<Callable<Route>> evaluations = new ArrayList<Callable<Route>>();
+        evaluations.add(after(slowStarted, routeTo(directions, malmo, null)));
+        evaluations.add(startedBy(slowStarted, routeTo(slowDirections, stockholm, interrupted)));
+
+        long start = System.currentTimeMillis();
+        List<Route> routes = planner.evaluateConcurrently(0, evaluations, null, Duration.millis(300));
+
+        //The slow one is skipped and cancelled when the deadline passes
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertNotNull(routes.get(0));
+        assertNull(routes.get(1));
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testEvaluationStopsWhenGoodEnough() throws Exception {
+        FakeDirections directions = new FakeDirections(0);
+        FakeDirections slowDirections = new FakeDirections(5000);
+        TripPlanner planner = new TripPlanner(euRegulationHandler, directions, new FakePlaces(5, 0), user, new FuelTankInfo(330));
+        CountDownLatch interrupted = new CountDownLatch(2);
+        //The slow ones are running when Malmo is found, not just waiting to start
+        CountDownLatch slowStarted = new CountDownLatch(2);
+        List<Callable<Route>> evaluations = new ArrayList<Callable<Route>>();
+        evaluations.add(startedBy(slowStarted, routeTo(slowDirections, stockholm, interrupted)));
+        evaluations.add(after(slowStarted, routeTo(directions, malmo, null)));
+        evaluations.add(startedBy(slowStarted, routeTo(slowDirections, kiruna, interrupted)));
+
+        long start = System.currentTimeMillis();
+        List<Route> routes = planner.evaluateConcurrently(0, evaluations, new TripPlanner.GoodEnough<Route>() {
+            @Override
+            public boolean isGoodEnough(Route route) {
+                return route.getFinalDestination().equalCoordinates(malmo);
+            }
+        }, Duration.standardSeconds(20));
+
+        //No waiting for the slow ones, they are cancelled once Malmo is found
+        assertTrue(System.currentTimeMillis() - start < 2000);
+        assertNull(routes.get(0));
+        assertTrue(routes.get(1).getFinalDestination().equalCoordinates(malmo));
+        assertNull(routes.get(2));
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOlderReplanFinishingLastDoesNotPublish() throws Exception {
+        final MapLocation kungsbacka = new MapLocation(new LatLng(57.4875, 12.0761));
+        final CountDownLatch olderStarted = new CountDownLatch(1);
+        final CountDownLatch releaseOlder = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean(true);
+
+        //The first request, made by the older replan, does not finish until it is released
+        FakeDirections directions = new FakeDirections(20) {
+            @Override
+            public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                                  List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+                if (first.getAndSet(false)) {
+                    olderStarted.countDown();
+                    try {
+                        releaseOlder.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+            }
+        };
+        final TripPlanner planner = new TripPlanner(euRegulationHandler, directions, new FakePlaces(5, 20), user,
+                new FuelTankInfo(330));
+
+        final AtomicReference<Exception> olderFailure = new AtomicReference<Exception>();
+        Thread older = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    planner.setNewRoute(currentLocation, malmo, null);
+                } catch (Exception e) {
+                    olderFailure.set(e);
+                }
+            }
+        });
+        older.start();
+        assertTrue(olderStarted.await(5, TimeUnit.SECONDS));
+
+        //The newer replan finishes first
+        planner.updateRoute(kungsbacka);
+        assertEquals(kungsbacka.getLatitude(), planner.getRoute().getGeometry().getPolyline().get(0).latitude, 0.0001);
+
+        releaseOlder.countDown();
+        older.join(5000);
+        assertFalse(older.isAlive());
+        assertNull(olderFailure.get());
+
+        //Still the route of the newer replan
+        assertEquals(kungsbacka.getLatitude(), planner.getRoute().getGeometry().getPolyline().get(0).latitude, 0.0001);
+    }
+
+    @Test
+    public void testPrefetchedRouteIsUsed() throws Exception {
+        TripPlanner planner = createPrefetchingPlanner(new FakeDirections(0));
+
+        planner.prefetchAfterCheckpoint(malmo);
+        waitForPrefetch(planner, malmo);
+        planner.passedCheckpoint(malmo);
+
+        assertTrue(planner.usePrefetchedRoute(malmo));
+        //The route from Malmo
+        assertFalse(passesThrough(planner.getRoute(), malmo));
+    }
+
+    @Test
+    public void testPrefetchedRouteIsDroppedAfterReplan() throws Exception {
+        TripPlanner planner = createPrefetchingPlanner(new FakeDirections(0));
+
+        planner.prefetchAfterCheckpoint(malmo);
+        waitForPrefetch(planner, malmo);
+        //Replanned before the checkpoint is passed, the prefetched route is out of date
+        planner.updateRoute(currentLocation);
+        planner.passedCheckpoint(malmo);
+
+        assertFalse(planner.usePrefetchedRoute(malmo));
+        assertTrue(passesThrough(planner.getRoute(), malmo));
+    }
+
+    @Test
+    public void testPrefetchedRouteIsOnlyUsedForItsCheckpoint() throws Exception {
+        TripPlanner planner = createPrefetchingPlanner(new FakeDirections(0));
+
+        planner.prefetchAfterCheckpoint(malmo);
+        waitForPrefetch(planner, malmo);
+
+        assertFalse(planner.usePrefetchedRoute(stockholm));
+        //The prefetch is gone after a try, whether it was used or not
+        assertFalse(planner.usePrefetchedRoute(malmo));
+        assertTrue(passesThrough(planner.getRoute(), malmo));
+    }
+
+    @Test
+    public void testPrefetchedRouteIsNotUsedWhileRunning() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        //The requests from Malmo, made by the prefetch, do not finish until released
+        FakeDirections directions = new FakeDirections(0) {
+            @Override
+            public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                                  List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+                if (currentPosition.equalCoordinates(malmo)) {
+                    try {
+                        release.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new NoConnectionException("Interrupted");
+                    }
+                }
+                return super.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+            }
+        };
+        TripPlanner planner = createPrefetchingPlanner(directions);
+
+        planner.prefetchAfterCheckpoint(malmo);
+        planner.passedCheckpoint(malmo);
+        assertFalse(planner.isPrefetchDone(malmo));
+
+        assertFalse(planner.usePrefetchedRoute(malmo));
+        assertTrue(passesThrough(planner.getRoute(), malmo));
+        release.countDown();
+    }
+
+    @Test
+    public void testTripPlanningIsNotStoppedByReplan() throws Exception {
+        final FakePlaces places = new FakePlaces(5, 50);
+        final TripPlanner planner = new TripPlanner(euRegulationHandler, new FakeDirections(0), places, user,
+                new FuelTankInfo(330));
+        planner.setNewRoute(currentLocation, malmo, null);
+
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        Thread trip = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    planner.planTrip();
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            }
+        });
+        trip.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (places.getCalls() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+
+        //Replanned while the stops of the trip are searched for
+        planner.updateRoute(currentLocation);
+        trip.join(10000);
+        assertFalse(trip.isAlive());
+        assertNull(failure.get());
+        assertNotNull(planner.getPlannedTrip());
+    }
+
+    @Test
+    public void testTripIsPlannedWhenSearchesFail() throws Exception {
+        FakePlaces places = new FakePlaces(5, 0) {
+            @Override
+            public ArrayList<RouteLocation> getNearbyGasStations(LatLng position) throws NoConnectionException {
+                throw new NoConnectionException("No connection");
+            }
+        };
+        TripPlanner planner = new TripPlanner(euRegulationHandler, new FakeDirections(0), places, user,
+                new FuelTankInfo(330));
+        planner.setNewRoute(currentLocation, malmo, null);
+
+        planner.planTrip();
+        assertNotNull(planner.getPlannedTrip());
+    }
+
+    @Test
+    public void testTripIsPlannedAgainAfterNewDestination() throws Exception {
+        TripPlanner planner = new TripPlanner(euRegulationHandler, new FakeDirections(0), new FakePlaces(5, 0), user,
+                new FuelTankInfo(330));
+        planner.setNewRoute(currentLocation, malmo, null);
+        planner.planTrip();
+
+        planner.setNewRoute(currentLocation, stockholm, null);
+        //Planned in the background along the new route
+        long deadline = System.currentTimeMillis() + 5000;
+        while (true) {
+            try {
+                PlannedTrip trip = planner.getPlannedTrip();
+                assertTrue(trip.getFinalDestination().equalCoordinates(stockholm));
+                break;
+            } catch (NoActiveRouteException e) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(5);
+            }
+        }
+    }
+
+    @Test
+    public void testTripPlanningHasAllowanceOfItsOwn() throws Exception {
+        RequestBudget budget = new RequestBudget();
+        TripPlanner planner = new TripPlanner(euRegulationHandler, new FakeDirections(0),
+                new BudgetedPlaces(new FakePlaces(5, 0), budget), user, new FuelTankInfo(330));
+        planner.setRequestBudget(budget);
+        planner.setNewRoute(malmo, kiruna, null);
+        int usedByReplan = budget.getTotalUsed();
+
+        //The whole way to Kiruna within the allowance of the planning, nothing denied
+        planner.planTrip();
+        assertNotNull(planner.getPlannedTrip());
+        assertEquals(0, budget.getDenied());
+        assertTrue(budget.getTotalUsed() - usedByReplan > RequestBudget.DEFAULT_REPLAN_LIMIT);
+    }
+
+    @Test
+    public void testReplanWithoutPlacesBudget() throws Exception {
+        //Not a single search may be made
+        RequestBudget budget = new RequestBudget(RequestBudget.DEFAULT_REPLAN_LIMIT, 0);
+        TripPlanner planner = new TripPlanner(euRegulationHandler, new FakeDirections(0),
+                new BudgetedPlaces(new FakePlaces(5, 0), budget), user, new FuelTankInfo(330));
+        planner.setRequestBudget(budget);
+
+        //Stops at the side of the road instead
+        planner.setNewRoute(currentLocation, kiruna, null);
+        assertNotNull(planner.getRoute());
+        assertTrue(budget.getDenied() > 0);
+    }
+
+    @Test
+    public void testDirectRouteWhenNoStopCanBeEvaluated() throws Exception {
+        //Only the route without stops can be calculated
+        FakeDirections directions = new FakeDirections(0) {
+            @Override
+            public Route getRoute(MapLocation currentPosition, MapLocation finalDestination, RoutePreferences preferences,
+                                  List<MapLocation> checkpoint) throws NoConnectionException, InvalidRequestException {
+                if (checkpoint != null && !checkpoint.isEmpty()) {
+                    throw new NoConnectionException("Directions request budget used up");
+                }
+                return super.getRoute(currentPosition, finalDestination, preferences, checkpoint);
+            }
+        };
+        TripPlanner planner = new TripPlanner(euRegulationHandler, directions, new FakePlaces(5, 0), user,
+                new FuelTankInfo(330));
+
+        planner.setNewRoute(currentLocation, kiruna, null);
+        assertTrue(planner.getRoute().getFinalDestination().equalCoordinates(kiruna));
+        assertEquals(1, planner.getRoute().getCheckpoints().size());
+    }
+
+    /**
+     * A planner with a route from the current location through Malmo to Stockholm.
+     */
+    private TripPlanner createPrefetchingPlanner(FakeDirections directions) throws Exception {
+        TripPlanner planner = new TripPlanner(euRegulationHandler, directions, new FakePlaces(5, 0), user,
+                new FuelTankInfo(330));
+        ArrayList<MapLocation> checkpoints = new ArrayList<MapLocation>();
+        checkpoints.add(malmo);
+        planner.setNewRoute(currentLocation, stockholm, checkpoints);
+        return planner;
+    }
+
+    private static boolean passesThrough(Route route, MapLocation location) {
+        for (RouteLocation checkpoint : route.getCheckpoints()) {
+            if (checkpoint.equalCoordinates(location)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void waitForPrefetch(TripPlanner planner, MapLocation checkpoint) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!planner.isPrefetchDone(checkpoint)) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Counts down the latch when the evaluation starts.
+     */
+    private static <T> Callable<T> startedBy(final CountDownLatch started, final Callable<T> evaluation) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                started.countDown();
+                return evaluation.call();
+            }
+        };
+    }
+
+    /**
+     * Waits for the latch before the evaluation starts.
+     */
+    private static <T> Callable<T> after(final CountDownLatch started, final Callable<T> evaluation) {
+        return new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                started.await(5, TimeUnit.SECONDS);
+                return evaluation.call();
+            }
+        };
+    }
+
+    /**
+     * A route from the current location, the request counts down the latch if it is interrupted.
+     */
+    private Callable<Route> routeTo(final FakeDirections directions, final MapLocation destination,
+                                    final CountDownLatch interrupted) {
+        return new Callable<Route>() {
+            @Override
+            public Route call() throws Exception {
+                try {
+                    return directions.getRoute(currentLocation, destination);
+                } catch (NoConnectionException e) {
+                    if (interrupted != null) {
+                        interrupted.countDown();
+                    }
+                    throw e;
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,168 @@
+package truckerboys.otto.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import junit.framework.TestCase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import truckerboys.otto.utils.exceptions.NoConnectionException;
+
+/**
+ * Sends the requests to a server on localhost, so the tests do not depend on the network.
+ */
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class HttpTransportTest extends TestCase {
+    private static final String BODY = "{\"predictions\":[{\"description\":\"Stockholm, Sverige\"}]}";
+
+    private HttpServer server;
+    private String url;
+    //Held by the /slow handler until counted down
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, false);
+            }
+        });
+        server.createContext("/gzip", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange, true);
+            }
+        });
+        server.createContext("/slow", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                respond(exchange, false);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        release.countDown();
+        server.stop(0);
+        super.tearDown();
+    }
+
+    @Test
+    public void testRequest() throws Exception {
+        assertEquals(BODY, HttpTransport.getInstance().request(url + "/"));
+        assertEquals(BODY, HttpTransport.getInstance().request(url + "/gzip"));
+    }
+
+    @Test
+    public void testConcurrentSubmit() throws Exception {
+        //Several requests in flight at the same time should all get a response.
+        Future<String> first = HttpTransport.getInstance().submit(url + "/");
+        Future<String> second = HttpTransport.getInstance().submit(url + "/gzip");
+
+        assertEquals(BODY, HttpTransport.await(first, HttpTransport.DEFAULT_REQUEST_TIMEOUT_MS));
+        assertEquals(BODY, HttpTransport.await(second, HttpTransport.DEFAULT_REQUEST_TIMEOUT_MS));
+    }
+
+    @Test
+    public void testFullQueue() throws Exception {
+        //Fill every worker and the whole queue with requests that wait for the server
+        List<Future<String>> waiting = new ArrayList<Future<String>>();
+        Future<String> rejected = null;
+        while (rejected == null) {
+            Future<String> future = HttpTransport.getInstance().submit(url + "/slow");
+            if (future.isDone()) {
+                rejected = future;
+            } else {
+                waiting.add(future);
+            }
+            assertTrue(waiting.size() <= 100);
+        }
+
+        //The request is not run on the calling thread, it fails at once
+        try {
+            HttpTransport.await(rejected, 1000);
+            fail();
+        } catch (NoConnectionException e) {
+            //Expected
+        }
+        try {
+            HttpTransport.getInstance().submit(url + "/", new IResponseListener() {
+                @Override
+                public void onResponse(String response) {
+                    fail();
+                }
+
+                @Override
+                public void onFailure(NoConnectionException e) {
+                    fail();
+                }
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            //Expected
+        }
+
+        release.countDown();
+        for (Future<String> future : waiting) {
+            assertEquals(BODY, HttpTransport.await(future, HttpTransport.DEFAULT_REQUEST_TIMEOUT_MS));
+        }
+    }
+
+    @Test
+    public void testInvalidHost() {
+        try {
+            HttpTransport.getInstance().request("http://invalid.invalid/");
+            fail();
+        } catch (NoConnectionException e) {
+            //Expected
+        }
+    }
+
+    private static void respond(HttpExchange exchange, boolean gzip) throws IOException {
+        byte[] body = BODY.getBytes("UTF-8");
+        if (gzip) {
+            exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+            exchange.sendResponseHeaders(200, 0);
+            GZIPOutputStream out = new GZIPOutputStream(exchange.getResponseBody());
+            out.write(body);
+            out.close();
+        } else {
+            exchange.sendResponseHeaders(200, body.length);
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package truckerboys.otto.utils;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class RequestBudgetTest extends TestCase {
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Test
+    public void testReplanLimit() {
+        RequestBudget budget = new RequestBudget(8, 100);
+        budget.startReplan();
+
+        for (int i = 0; i < 6; i++) {
+            assertTrue(budget.tryUse(i));
+        }
+        assertFalse(budget.isLow(6));
+        assertTrue(budget.tryUse(6));
+        assertTrue(budget.isLow(7));
+        assertTrue(budget.tryUse(7));
+        assertFalse(budget.tryUse(8));
+        assertEquals(0, budget.getRemaining(8));
+        assertEquals(1, budget.getDenied());
+
+        //A new replan gets a new budget
+        budget.startReplan();
+        assertEquals(8, budget.getRemaining(9));
+        assertTrue(budget.tryUse(9));
+        assertEquals(9, budget.getTotalUsed());
+        assertEquals(2, budget.getReplans());
+    }
+
+    @Test
+    public void testReplanWithLimitOfItsOwn() {
+        RequestBudget budget = new RequestBudget(2, 100);
+        budget.startReplan(5);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(budget.tryUse(i));
+        }
+        assertTrue(budget.isLow(4));
+        assertEquals(1, budget.getRemaining(4));
+        assertTrue(budget.tryUse(4));
+        assertFalse(budget.tryUse(5));
+
+        //The next replan has the usual limit
+        budget.startReplan();
+        assertEquals(2, budget.getRemaining(6));
+    }
+
+    @Test
+    public void testHourLimit() {
+        RequestBudget budget = new RequestBudget(10, 12);
+
+        budget.startReplan();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(budget.tryUse(i));
+        }
+        budget.startReplan();
+        assertTrue(budget.tryUse(HOUR / 2));
+        assertTrue(budget.tryUse(HOUR / 2));
+        assertFalse(budget.tryUse(HOUR / 2));
+
+        //The first requests are more than an hour old
+        assertEquals(8, budget.getRemaining(HOUR + 10));
+        assertTrue(budget.tryUse(HOUR + 10));
+    }
+
+    @Test
+    public void testReplansHaveTheirOwnAllowance() throws Exception {
+        final RequestBudget budget = new RequestBudget(8, 100);
+        RequestBudget.Allowance replan = budget.startReplan();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(budget.tryUse(i));
+        }
+
+        //A prefetch starting on another thread does not reset the allowance of the replan
+        final RequestBudget.Allowance[] prefetch = new RequestBudget.Allowance[1];
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                prefetch[0] = budget.startReplan();
+                for (int i = 0; i < 8; i++) {
+                    budget.tryUse(10);
+                }
+            }
+        });
+        other.start();
+        other.join();
+        assertEquals(3, budget.getRemaining(20));
+        assertEquals(5, budget.getUsedThisReplan());
+
+        //Workers of the prefetch take from its allowance, which is used up
+        budget.setAllowance(prefetch[0]);
+        assertFalse(budget.tryUse(20));
+        budget.setAllowance(replan);
+        assertTrue(budget.tryUse(20));
+
+        //Outside replans only the hour counts
+        budget.setAllowance(null);
+        assertEquals(0, budget.getUsedThisReplan());
+        assertEquals(8, budget.getRemaining(20));
+        assertEquals(14, budget.getTotalUsed());
+        assertEquals(2, budget.getReplans());
+    }
+}
@@ -0,0 +1,146 @@
+package truckerboys.otto.utils;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class SingleFlightTest extends TestCase {
+
+    @Test
+    public void testConcurrentCallsShareResult() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Callable<String> slowCall = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executions.incrementAndGet();
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "result";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<String> first = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flight.execute("key", slowCall);
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+
+        Future<String> second = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flight.execute("key", slowCall);
+            }
+        });
+
+        //Wait until the second call has joined the first one, it is counted as shared once it has
+        //found the running call. getCalls() is counted before that and would release it too early.
+        while (flight.getSharedCalls() < 1) {
+            assertFalse(second.isDone());
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertEquals("result", first.get());
+        assertEquals("result", second.get());
+        assertEquals(1, executions.get());
+        assertEquals(1, flight.getSharedCalls());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testInterruptionIsNotShared() throws Exception {
+        final SingleFlight<String> flight = new SingleFlight<String>();
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Callable<String> slowCall = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                executions.incrementAndGet();
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "result";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<String> first = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flight.execute("key", slowCall);
+            }
+        });
+        started.await(5, TimeUnit.SECONDS);
+
+        Future<String> second = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return flight.execute("key", slowCall);
+            }
+        });
+        while (flight.getSharedCalls() < 1) {
+            Thread.sleep(1);
+        }
+
+        //Interrupting the first caller fails its call, the second caller makes the call again
+        first.cancel(true);
+        release.countDown();
+
+        assertEquals("result", second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, executions.get());
+        executor.shutdown();
+    }
+
+    @Test
+    public void testSequentialCallsAreNotShared() throws Exception {
+        SingleFlight<String> flight = new SingleFlight<String>();
+        Callable<String> call = new Callable<String>() {
+            @Override
+            public String call() {
+                return "result";
+            }
+        };
+
+        flight.execute("key", call);
+        flight.execute("key", call);
+        assertEquals(2, flight.getCalls());
+        assertEquals(0, flight.getSharedCalls());
+    }
+
+    @Test
+    public void testExceptionIsRethrown() {
+        SingleFlight<String> flight = new SingleFlight<String>();
+        try {
+            flight.execute("key", new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail();
+        } catch (Exception e) {
+            assertTrue(e instanceof IllegalStateException);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package truckerboys.otto.utils.positions;
+
+import com.google.android.gms.maps.model.LatLng;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+@Config(emulateSdk = 18)
+@RunWith(RobolectricTestRunner.class)
+public class PackedPolylineTest extends TestCase {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        PackedPolyline polyline = new PackedPolyline.Builder()
+                .add(57.706855, 11.966851)
+                .add(-33.8688197, 151.2092955)
+                .add(57.706854, -0.000004)
+                .build();
+
+        //Coordinates are rounded to the nearest 1E-5 degree
+        assertEquals(57.70686, polyline.getLatitude(0), 1E-9);
+        assertEquals(11.96685, polyline.getLongitude(0), 1E-9);
+        assertEquals(-33.86882, polyline.getLatitude(1), 1E-9);
+        assertEquals(151.20930, polyline.getLongitude(1), 1E-9);
+        assertEquals(57.70685, polyline.getLatitude(2), 1E-9);
+        assertEquals(-0.00000, polyline.getLongitude(2), 1E-9);
+
+        //Coordinates that already are at 1E5 precision are kept as they are
+        PackedPolyline again = new PackedPolyline.Builder()
+                .add(polyline.getLatitude(1), polyline.getLongitude(1))
+                .build();
+        assertEquals(polyline.getLatitude(1), again.getLatitude(0));
+        assertEquals(polyline.getLongitude(1), again.getLongitude(0));
+
+        PackedPolyline fixedPoint = new PackedPolyline.Builder().add(5770686, 1196685).build();
+        assertEquals(polyline.getLatitude(0), fixedPoint.getLatitude(0));
+        assertEquals(polyline.getLongitude(0), fixedPoint.getLongitude(0));
+    }
+
+    @Test
+    public void testBuilderGrowth() throws Exception {
+        //Starts with room for one point
+        PackedPolyline.Builder builder = new PackedPolyline.Builder(1);
+        for (int i = 0; i < 1000; i++) {
+            builder.add(i, -i);
+        }
+        assertEquals(1000, builder.size());
+
+        PackedPolyline first = builder.build();
+        builder.addAll(first).addAll(first);
+        PackedPolyline all = builder.build();
+
+        //Building again does not change polylines built earlier
+        assertEquals(1000, first.size());
+        assertEquals(3000, all.size());
+        for (int i = 0; i < all.size(); i++) {
+            assertEquals((i % 1000) / PackedPolyline.PRECISION, all.getLatitude(i));
+            assertEquals(-(i % 1000) / PackedPolyline.PRECISION, all.getLongitude(i));
+        }
+    }
+
+    @Test
+    public void testEmptyAndLatLngList() throws Exception {
+        assertTrue(PackedPolyline.EMPTY.isEmpty());
+        assertEquals(0, PackedPolyline.EMPTY.size());
+        assertTrue(PackedPolyline.EMPTY.toLatLngList().isEmpty());
+        assertTrue(new PackedPolyline.Builder().build().isEmpty());
+        try {
+            PackedPolyline.EMPTY.getLatitude(0);
+            fail();
+        } catch (IndexOutOfBoundsException e) {
+            //Expected
+        }
+
+        PackedPolyline polyline = new PackedPolyline.Builder().add(1.5, 2.5).add(3.5, 4.5).build();
+        ArrayList<LatLng> points = polyline.toLatLngList();
+        assertEquals(2, points.size());
+        assertEquals(1.5, points.get(0).latitude);
+        assertEquals(2.5, points.get(0).longitude);
+        assertEquals(3.5, points.get(1).latitude);
+        assertEquals(4.5, points.get(1).longitude);
+    }
+}